@@ -0,0 +1,65 @@
+#!/bin/bash
+# Builds an Application Class Data Sharing archive for gitlet.
+#
+# Usage: cds-train.sh JAR ARCHIVE
+#
+# Runs a typical session of gitlet commands from JAR in a scratch
+# repository, recording the classes each run loads, and dumps the union of
+# those classes, in first-loaded order, into ARCHIVE.  JAR must be given
+# by the absolute path the launcher will use, since the JVM only maps an
+# archive whose class path matches the one it was dumped with.
+
+set -e
+
+JAR="$1"
+ARCHIVE="$2"
+JAVA="${JAVA:-java}"
+
+if [ -z "$JAR" ] || [ -z "$ARCHIVE" ]; then
+    echo "Usage: $0 JAR ARCHIVE" >&2
+    exit 1
+fi
+
+WORK="$(mktemp -d)"
+trap 'rm -rf "$WORK"' EXIT
+mkdir "$WORK/repo" "$WORK/lists"
+cd "$WORK/repo"
+
+n=0
+g() {
+    n=$((n + 1))
+    "$JAVA" -Xshare:off -XX:DumpLoadedClassList="$WORK/lists/$(printf %03d $n).lst" \
+        -cp "$JAR" gitlet.Main "$@" > /dev/null
+}
+
+g init
+for i in 1 2 3 4 5; do
+    echo "line $i" > "f$i.txt"
+    g add "f$i.txt"
+    g commit "commit $i"
+done
+g status
+g log
+g global-log
+g find "commit 3"
+g branch side
+g checkout side
+echo "side" > f1.txt
+g add f1.txt
+g rm f2.txt
+g commit "side change"
+g checkout master
+echo "master" > f3.txt
+g add f3.txt
+g commit "master change"
+g merge side
+g status
+g log
+g checkout -- f1.txt
+g rm-branch side
+
+# A class list may name a class only after the classes it needs, so the
+# lists are joined in order, keeping each line's first appearance.
+cat "$WORK"/lists/*.lst | awk '!seen[$0]++' > "$WORK/classes.lst"
+"$JAVA" -Xshare:dump -XX:SharedClassListFile="$WORK/classes.lst" \
+    -XX:SharedArchiveFile="$ARCHIVE" -cp "$JAR" > /dev/null
@@ -0,0 +1,308 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.SortedMap;
+import java.util.function.Function;
+import java.util.zip.CRC32;
+
+/** Writes the files of a commit as a tar or zip archive, straight from
+ *  the blobs, without touching the working directory.
+ *
+ *  Each blob is copied to the output with FileChannel.transferTo, so file
+ *  contents never pass through the heap.  Zip entries are stored, not
+ *  compressed; their CRC-32 is computed in a first, streaming pass over
+ *  the blob, before the local header that needs it is written.  Only the
+ *  central directory's per-file offsets and checksums are kept until the
+ *  end.  Every entry gets the commit's time.
+ *
+ *  @author Nameera Faisal Akhtar
+ */
+class Archive {
+
+    /** Size of a tar block. */
+    private static final int BLOCK = 512;
+
+    /** Largest size or offset a zip without ZIP64 records can hold. */
+    private static final long ZIP_LIMIT = 0xFFFFFFFFL;
+
+    /** Largest number of entries a zip without ZIP64 records can hold. */
+    private static final int ZIP_MAX_ENTRIES = 0xFFFF;
+
+    /** The file holding the contents of each blob, by blob id. */
+    private final Function<String, File> blobs;
+
+    /** Where the archive goes. */
+    private final WritableByteChannel out;
+
+    /** Bytes written so far. */
+    private long written;
+
+    /** An archive of the blobs whose contents BLOBS finds, written to
+     *  OUT. */
+    Archive(Function<String, File> blobs, WritableByteChannel out) {
+        this.blobs = blobs;
+        this.out = out;
+    }
+
+    /** Writes the files of commit C in FORMAT, "tar" or "zip". */
+    void write(Commit c, String format) throws IOException {
+        long time = commitTime(c);
+        if (format.equals("tar")) {
+            writeTar(c.accessBlob(), time);
+        } else if (format.equals("zip")) {
+            writeZip(c.accessBlob(), time);
+        } else {
+            throw Utils.error("Unknown archive format '%s'.", format);
+        }
+    }
+
+    /* TAR */
+
+    /** Writes FILES, each with the modification time TIME, as a ustar
+     *  archive. */
+    private void writeTar(SortedMap<String, String> files, long time) throws IOException {
+        for (Map.Entry<String, String> file : files.entrySet()) {
+            File blob = blobs.apply(file.getValue());
+            long size = blob.length();
+            writeTarHeader(file.getKey(), size, time);
+            transfer(blob, size);
+            int padding = (int) ((BLOCK - size % BLOCK) % BLOCK);
+            writeFully(ByteBuffer.allocate(padding));
+        }
+        writeFully(ByteBuffer.allocate(2 * BLOCK));
+    }
+
+    /** Writes the header of the file NAME, of SIZE bytes, modified at
+     *  TIME, preceded by a pax header holding the name if it is too long
+     *  for the ustar name field. */
+    private void writeTarHeader(String name, long size, long time) throws IOException {
+        byte[] path = name.getBytes(StandardCharsets.UTF_8);
+        if (path.length > 100) {
+            byte[] record = paxRecord("path", path);
+            writeFully(tarHeader("PaxHeader", 'x', record.length, time));
+            writeFully(ByteBuffer.wrap(record));
+            writeFully(ByteBuffer.allocate((BLOCK - record.length % BLOCK) % BLOCK));
+        }
+        writeFully(tarHeader(name, '0', size, time));
+    }
+
+    /** Returns the pax record "LENGTH KEY=VALUE\n", whose LENGTH counts
+     *  the whole record. */
+    private static byte[] paxRecord(String key, byte[] value) {
+        int rest = key.length() + value.length + 3;
+        int length = rest + Integer.toString(rest).length();
+        if (Integer.toString(length).length() != Integer.toString(rest).length()) {
+            length += 1;
+        }
+        byte[] prefix = (length + " " + key + "=").getBytes(StandardCharsets.UTF_8);
+        byte[] record = new byte[length];
+        System.arraycopy(prefix, 0, record, 0, prefix.length);
+        System.arraycopy(value, 0, record, prefix.length, value.length);
+        record[length - 1] = '\n';
+        return record;
+    }
+
+    /** Returns the ustar header of the entry NAME, cut to 100 bytes, of
+     *  type TYPE and SIZE bytes, modified at TIME. */
+    private static ByteBuffer tarHeader(String name, char type, long size, long time) {
+        byte[] header = new byte[BLOCK];
+        put(header, 0, name);
+        put(header, 100, "0000644");
+        put(header, 108, "0000000");
+        put(header, 116, "0000000");
+        put(header, 124, octal(size, 11));
+        put(header, 136, octal(time / 1000, 11));
+        header[156] = (byte) type;
+        put(header, 257, "ustar");
+        put(header, 263, "00");
+
+        // The checksum is computed with its own field as spaces.
+        for (int i = 148; i < 156; i += 1) {
+            header[i] = ' ';
+        }
+        int sum = 0;
+        for (byte b : header) {
+            sum += b & 0xff;
+        }
+        put(header, 148, octal(sum, 6));
+        header[154] = 0;
+        return ByteBuffer.wrap(header);
+    }
+
+    /** Returns N in octal, zero-padded to WIDTH digits. */
+    private static String octal(long n, int width) {
+        String digits = Long.toOctalString(n);
+        if (digits.length() > width) {
+            throw Utils.error("File too large for tar.");
+        }
+        return "0".repeat(width - digits.length()) + digits;
+    }
+
+    /** Copies the UTF-8 bytes of S, up to 100, into HEADER at POS. */
+    private static void put(byte[] header, int pos, String s) {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        System.arraycopy(bytes, 0, header, pos, Math.min(bytes.length, 100));
+    }
+
+    /* ZIP */
+
+    /** Writes FILES, each with the modification time TIME, as a zip
+     *  archive of stored entries. */
+    private void writeZip(SortedMap<String, String> files, long time) throws IOException {
+        if (files.size() > ZIP_MAX_ENTRIES) {
+            throw Utils.error("Too many files for zip.");
+        }
+        int dosTime = dosTime(time);
+        int n = files.size();
+        int[] crcs = new int[n];
+        long[] sizes = new long[n];
+        long[] offsets = new long[n];
+
+        int i = 0;
+        for (Map.Entry<String, String> file : files.entrySet()) {
+            File blob = blobs.apply(file.getValue());
+            byte[] name = file.getKey().getBytes(StandardCharsets.UTF_8);
+            sizes[i] = blob.length();
+            crcs[i] = crc(blob);
+            offsets[i] = written;
+            if (sizes[i] > ZIP_LIMIT || written > ZIP_LIMIT) {
+                throw Utils.error("Archive too large for zip.");
+            }
+            ByteBuffer header = zipBuffer(30 + name.length);
+            header.putInt(0x04034b50);
+            putEntryFields(header, dosTime, crcs[i], sizes[i]);
+            header.putShort((short) name.length);
+            header.putShort((short) 0);
+            header.put(name);
+            writeFully(header.flip());
+            transfer(blob, sizes[i]);
+            i += 1;
+        }
+
+        long directoryStart = written;
+        i = 0;
+        for (String fileName : files.keySet()) {
+            byte[] name = fileName.getBytes(StandardCharsets.UTF_8);
+            ByteBuffer entry = zipBuffer(46 + name.length);
+            entry.putInt(0x02014b50);
+            // Made by Unix, so that the mode in the external attributes
+            // is read as one.
+            entry.putShort((short) ((3 << 8) | 20));
+            putEntryFields(entry, dosTime, crcs[i], sizes[i]);
+            entry.putShort((short) name.length);
+            entry.putShort((short) 0);
+            entry.putShort((short) 0);
+            entry.putShort((short) 0);
+            entry.putShort((short) 0);
+            entry.putInt(0100644 << 16);
+            entry.putInt((int) offsets[i]);
+            entry.put(name);
+            writeFully(entry.flip());
+            i += 1;
+        }
+        long directorySize = written - directoryStart;
+        if (directoryStart > ZIP_LIMIT) {
+            throw Utils.error("Archive too large for zip.");
+        }
+
+        ByteBuffer end = zipBuffer(22);
+        end.putInt(0x06054b50);
+        end.putShort((short) 0);
+        end.putShort((short) 0);
+        end.putShort((short) n);
+        end.putShort((short) n);
+        end.putInt((int) directorySize);
+        end.putInt((int) directoryStart);
+        end.putShort((short) 0);
+        writeFully(end.flip());
+    }
+
+    /** Puts the fields shared by local and central headers, from the
+     *  version needed to the sizes, for a stored entry with time DOSTIME,
+     *  checksum CRC and size SIZE. */
+    private static void putEntryFields(ByteBuffer b, int dosTime, int crc, long size) {
+        b.putShort((short) 10);
+        b.putShort((short) 0x0800);
+        b.putShort((short) 0);
+        b.putInt(dosTime);
+        b.putInt(crc);
+        b.putInt((int) size);
+        b.putInt((int) size);
+    }
+
+    private static ByteBuffer zipBuffer(int size) {
+        return ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /** Returns the CRC-32 of F, read in a stream. */
+    private static int crc(File f) throws IOException {
+        CRC32 crc = new CRC32();
+        byte[] buffer = new byte[64 * 1024];
+        try (InputStream in = Files.newInputStream(f.toPath())) {
+            for (int n = in.read(buffer); n >= 0; n = in.read(buffer)) {
+                crc.update(buffer, 0, n);
+            }
+        }
+        return (int) crc.getValue();
+    }
+
+    /** Returns TIME, in milliseconds, as an MS-DOS date and time in
+     *  UTC. */
+    private static int dosTime(long time) {
+        Calendar cal = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+        cal.setTimeInMillis(Math.max(time, 315532800000L));
+        return (cal.get(Calendar.YEAR) - 1980) << 25
+                | (cal.get(Calendar.MONTH) + 1) << 21
+                | cal.get(Calendar.DAY_OF_MONTH) << 16
+                | cal.get(Calendar.HOUR_OF_DAY) << 11
+                | cal.get(Calendar.MINUTE) << 5
+                | cal.get(Calendar.SECOND) >> 1;
+    }
+
+    /* OUTPUT */
+
+    /** Returns the time of commit C, in milliseconds. */
+    private static long commitTime(Commit c) {
+        try {
+            return new SimpleDateFormat("EEE MMM d HH:mm:ss yyyy Z")
+                    .parse(c.accessTimestamp()).getTime();
+        } catch (ParseException excp) {
+            return 0;
+        }
+    }
+
+    /** Copies the SIZE bytes of BLOB to the output. */
+    private void transfer(File blob, long size) throws IOException {
+        try (FileChannel in = FileChannel.open(blob.toPath(), StandardOpenOption.READ)) {
+            long done = 0;
+            while (done < size) {
+                long n = in.transferTo(done, size - done, out);
+                if (n <= 0) {
+                    throw new IOException("blob " + blob.getName() + " changed size");
+                }
+                done += n;
+            }
+        }
+        written += size;
+    }
+
+    private void writeFully(ByteBuffer b) throws IOException {
+        while (b.hasRemaining()) {
+            written += out.write(b);
+        }
+    }
+}
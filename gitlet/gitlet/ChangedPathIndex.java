@@ -0,0 +1,285 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.TreeSet;
+
+/** For every commit, its first parent and a Bloom filter of the paths it
+ *  changed relative to that parent.
+ *
+ *  A walk down the history of one path, as for "log -- PATH" or blame,
+ *  follows the first parents recorded here and asks each filter whether
+ *  the commit may have changed the path.  A filter never says no for a
+ *  path that changed, so only the commits it says yes for need to be
+ *  read, and their blob maps compared, to rule out false positives.
+ *
+ *  The index is a folder of segments, each holding the entries of the
+ *  commits made by one command.  A segment is written whole to a
+ *  temporary file and renamed into place under the sha1 of its
+ *  contents, and is never changed after, so a commit adds one small file
+ *  and readers never see part of one.  Once there are MERGE_THRESHOLD
+ *  segments they are merged into one.  Segments are only written while
+ *  the repository is locked exclusively.  Commits made before the index
+ *  existed have no entry; a walk reads them, and takes them to have
+ *  changed every path.
+ *
+ *  @author Nameera Faisal Akhtar
+ */
+class ChangedPathIndex {
+
+    /** Name of the folder holding the index inside the .gitlet directory. */
+    static final String FILE_NAME = "changed-paths";
+
+    /** Filter bits per changed path; with HASHES hash functions this
+     *  gives about one false positive in a hundred. */
+    private static final int BITS_PER_PATH = 10;
+
+    /** Number of bits set for each path. */
+    private static final int HASHES = 7;
+
+    /** Number of segments at which they are merged into one. */
+    private static final int MERGE_THRESHOLD = 32;
+
+    /** What is known about one commit. */
+    private static class Entry {
+        /** The id of its first parent, or null. */
+        private final String parent1;
+        /** The bits of its filter, or null if any path may have changed. */
+        private final long[] bloom;
+
+        Entry(String parent1, long[] bloom) {
+            this.parent1 = parent1;
+            this.bloom = bloom;
+        }
+    }
+
+    /** The repository this index describes. */
+    private final Repository repo;
+
+    /** The folder of segments. */
+    private final File dir;
+
+    /** The entries read from the segments, by commit id, or null until
+     *  they are needed. */
+    private HashMap<String, Entry> entries;
+
+    /** The entries added and not yet saved, by commit id. */
+    private final HashMap<String, Entry> added = new HashMap<>();
+
+    /** The index of the commits of REPO.  Nothing is read until an
+     *  entry is asked for. */
+    ChangedPathIndex(Repository repo) {
+        this.repo = repo;
+        dir = Utils.join(repo.gitletDir(), FILE_NAME);
+    }
+
+    /** Writes the entries added since the last save as a new segment,
+     *  merging the segments if there are enough of them.  Must be called
+     *  with the repository locked exclusively. */
+    void save() {
+        if (added.isEmpty()) {
+            return;
+        }
+        if (dir.isFile()) {
+            // The whole index, as an earlier version kept it.
+            dir.delete();
+        }
+        dir.mkdir();
+        writeSegment(added);
+        added.clear();
+        List<String> segments = segments();
+        if (segments.size() >= MERGE_THRESHOLD) {
+            HashMap<String, Entry> all = new HashMap<>();
+            for (String name : segments) {
+                readSegment(Utils.join(dir, name), all);
+            }
+            String merged = writeSegment(all);
+            for (String name : segments) {
+                if (!name.equals(merged)) {
+                    Utils.join(dir, name).delete();
+                }
+            }
+        }
+        entries = null;
+    }
+
+    /** Adds the commit C, whose first parent is PARENT (null for the
+     *  initial commit). */
+    void add(Commit c, Commit parent) {
+        FileMap before = parent == null ? FileMap.EMPTY : parent.accessBlob();
+        FileMap after = c.accessBlob();
+        TreeSet<String> paths = new TreeSet<>();
+        for (String fileName : after.keySet()) {
+            if (!after.sameId(fileName, before)) {
+                paths.add(fileName);
+            }
+        }
+        for (String fileName : before.keySet()) {
+            if (!after.containsKey(fileName)) {
+                paths.add(fileName);
+            }
+        }
+        add(c.accessId(), c.accessParent1(), paths);
+    }
+
+    /** Adds the commit ID, whose first parent is PARENT1, and which
+     *  changed no path outside PATHS. */
+    void add(String id, String parent1, Collection<String> paths) {
+        long[] bloom = new long[Math.max(1, (paths.size() * BITS_PER_PATH + 63) / 64)];
+        for (String path : paths) {
+            long[] h = hashes(path);
+            for (int i = 0; i < HASHES; i += 1) {
+                int bit = bit(h, i, bloom.length * 64);
+                bloom[bit >>> 6] |= 1L << bit;
+            }
+        }
+        added.put(id, new Entry(parent1, bloom));
+    }
+
+    /** Returns the id of the first parent of commit ID, or null. */
+    String parent1(String id) {
+        return entry(id).parent1;
+    }
+
+    /** Returns false if commit ID certainly did not change PATH from its
+     *  first parent, and true if it may have. */
+    boolean mayHaveChanged(String id, String path) {
+        long[] bloom = entry(id).bloom;
+        if (bloom == null) {
+            return true;
+        }
+        long[] h = hashes(path);
+        for (int i = 0; i < HASHES; i += 1) {
+            int bit = bit(h, i, bloom.length * 64);
+            if ((bloom[bit >>> 6] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Returns the entry of commit ID.  A commit without one is read for
+     *  its parent, and may have changed anything. */
+    private Entry entry(String id) {
+        if (entries == null) {
+            entries = new HashMap<>();
+            for (String name : segments()) {
+                readSegment(Utils.join(dir, name), entries);
+            }
+        }
+        Entry e = added.containsKey(id) ? added.get(id) : entries.get(id);
+        if (e == null) {
+            e = new Entry(repo.commitFromId(id).accessParent1(), null);
+            entries.put(id, e);
+        }
+        return e;
+    }
+
+    /** Returns the names of the segments. */
+    private List<String> segments() {
+        if (!dir.isDirectory()) {
+            return new ArrayList<>();
+        }
+        List<String> result = new ArrayList<>();
+        for (String name : Utils.plainFilenamesIn(dir)) {
+            if (ObjectId.isHex(name)) {
+                result.add(name);
+            }
+        }
+        return result;
+    }
+
+    /** Writes the entries SEGMENT as a segment and returns its name.
+     *  Entries without a filter are left out. */
+    private String writeSegment(HashMap<String, Entry> segment) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            byte[] id = new byte[ObjectId.LENGTH];
+            for (HashMap.Entry<String, Entry> e : segment.entrySet()) {
+                Entry entry = e.getValue();
+                if (entry.bloom == null) {
+                    continue;
+                }
+                ObjectId.fromHex(e.getKey()).copyTo(id, 0);
+                out.write(id);
+                out.writeBoolean(entry.parent1 != null);
+                if (entry.parent1 != null) {
+                    ObjectId.fromHex(entry.parent1).copyTo(id, 0);
+                    out.write(id);
+                }
+                out.writeInt(entry.bloom.length);
+                for (long word : entry.bloom) {
+                    out.writeLong(word);
+                }
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        byte[] contents = bytes.toByteArray();
+        String name = Utils.sha1(contents);
+        try {
+            File tmp = File.createTempFile(FILE_NAME, ".tmp", repo.tmpFolder());
+            Utils.writeContents(tmp, contents);
+            Files.move(tmp.toPath(), Utils.join(dir, name).toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return name;
+    }
+
+    /** Adds the entries of the segment F to INTO.  A segment that has
+     *  gone, merged by another command, is skipped. */
+    private static void readSegment(File f, HashMap<String, Entry> into) {
+        byte[] contents;
+        try {
+            contents = Files.readAllBytes(f.toPath());
+        } catch (IOException excp) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(contents))) {
+            byte[] id = new byte[ObjectId.LENGTH];
+            while (in.available() > 0) {
+                in.readFully(id);
+                String commitId = ObjectId.toHex(id, 0);
+                String parent1 = null;
+                if (in.readBoolean()) {
+                    in.readFully(id);
+                    parent1 = ObjectId.toHex(id, 0);
+                }
+                long[] bloom = new long[in.readInt()];
+                for (int i = 0; i < bloom.length; i += 1) {
+                    bloom[i] = in.readLong();
+                }
+                into.put(commitId, new Entry(parent1, bloom));
+            }
+        } catch (IOException excp) {
+            throw Utils.error("Corrupt changed-path index: %s.", f.getName());
+        }
+    }
+
+    /** Returns two independent 64-bit hashes of PATH. */
+    private static long[] hashes(String path) {
+        String sha1 = Utils.sha1(path);
+        return new long[] {
+            Long.parseUnsignedLong(sha1.substring(0, 16), 16),
+            Long.parseUnsignedLong(sha1.substring(16, 32), 16) | 1
+        };
+    }
+
+    /** Returns the Ith of the bit positions, below BITS, given by the
+     *  hashes H. */
+    private static int bit(long[] h, int i, int bits) {
+        return (int) Long.remainderUnsigned(h[0] + i * h[1], bits);
+    }
+}
@@ -0,0 +1,168 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/** Writes many working files at once, on a pool of worker threads, for
+ *  checkout and reset.
+ *
+ *  The directories the files go in are made first, in order, on the
+ *  calling thread, so that no two workers race to make the same one.
+ *  Each file is then written to a temporary file in TMPDIR, the
+ *  repository's folder for them, and renamed into place, so a working
+ *  file is always either its old version or its new one, never half
+ *  written.  Every file is attempted
+ *  even if some fail, and the failures are reported sorted by name, so
+ *  the same problem gives the same report however the work was split.
+ *
+ *  @author Nameera Faisal Akhtar
+ */
+class CheckoutWriter {
+
+    /** Writes the contents of a blob to a file. */
+    interface BlobWriter {
+        /** Writes the blob BLOBID, the new version of the working file
+         *  FILENAME, to DEST. */
+        void write(String fileName, String blobId, File dest) throws IOException;
+    }
+
+    /** The working directory. */
+    private final File dir;
+
+    /** Where temporary files go; on the same file system as DIR. */
+    private final File tmpDir;
+
+    /** The number of worker threads. */
+    private final int workers;
+
+    /** Writes each blob. */
+    private final BlobWriter writer;
+
+    /** A writer of files in DIR, with temporary files in TMPDIR, using
+     *  WORKERS threads and WRITER to write each blob. */
+    CheckoutWriter(File dir, File tmpDir, int workers, BlobWriter writer) {
+        this.dir = dir;
+        this.tmpDir = tmpDir;
+        this.workers = Math.max(1, workers);
+        this.writer = writer;
+    }
+
+    /** Writes each working file in FILES, <FileName, BlobId>, and returns
+     *  the ones that could not be written, sorted, each mapped to the
+     *  reason. */
+    TreeMap<String, String> write(TreeMap<String, String> files) {
+        TreeMap<String, String> failed = new TreeMap<>();
+        TreeSet<File> parents = new TreeSet<>();
+        for (String fileName : files.keySet()) {
+            File parent = Utils.join(dir, fileName).getParentFile();
+            if (!parent.equals(dir)) {
+                parents.add(parent);
+            }
+        }
+        // Sorted, a directory comes before the directories inside it.
+        TreeSet<File> unmade = new TreeSet<>();
+        for (File parent : parents) {
+            if (!parent.isDirectory() && !parent.mkdirs()) {
+                unmade.add(parent);
+            }
+        }
+
+        List<String> names = new ArrayList<>();
+        for (String fileName : files.keySet()) {
+            if (unmade.contains(Utils.join(dir, fileName).getParentFile())) {
+                failed.put(fileName, "cannot make its directory");
+            } else {
+                names.add(fileName);
+            }
+        }
+        if (names.isEmpty()) {
+            return failed;
+        }
+
+        int n = Math.min(workers, names.size());
+        if (n == 1) {
+            for (String fileName : names) {
+                String problem = writeFile(fileName, files.get(fileName));
+                if (problem != null) {
+                    failed.put(fileName, problem);
+                }
+            }
+            return failed;
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(n);
+        try {
+            List<Future<String>> results = new ArrayList<>();
+            for (String fileName : names) {
+                results.add(pool.submit(() -> writeFile(fileName, files.get(fileName))));
+            }
+            for (int i = 0; i < names.size(); i += 1) {
+                String problem = results.get(i).get();
+                if (problem != null) {
+                    failed.put(names.get(i), problem);
+                }
+            }
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+            throw Utils.error("Interrupted.");
+        } catch (ExecutionException excp) {
+            throw new IllegalArgumentException(excp.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+        return failed;
+    }
+
+    /** Writes the blob BLOBID to the working file FILENAME, returning null
+     *  if it succeeds and the reason if it does not. */
+    private String writeFile(String fileName, String blobId) {
+        File tmp = null;
+        try {
+            tmp = File.createTempFile("checkout", ".tmp", tmpDir);
+            writer.write(fileName, blobId, tmp);
+            Files.move(tmp.toPath(), Utils.join(dir, fileName).toPath(),
+                    StandardCopyOption.REPLACE_EXISTING);
+            return null;
+        } catch (IOException excp) {
+            delete(tmp);
+            // Many I/O exceptions name only the file; the class says why.
+            return excp.getClass().getSimpleName()
+                    + (excp.getMessage() == null ? "" : ": " + excp.getMessage());
+        } catch (GitletException | IllegalArgumentException excp) {
+            delete(tmp);
+            return excp.getMessage();
+        }
+    }
+
+    private static void delete(File tmp) {
+        if (tmp != null) {
+            tmp.delete();
+        }
+    }
+
+    /** Returns the number of workers set by CONFIG's checkout.workers, the
+     *  number of cores if it is not set. */
+    static int workers(Config config) {
+        return (int) config.getLong("checkout.workers",
+                Runtime.getRuntime().availableProcessors());
+    }
+
+    /** Returns a report of the failures FAILED, one per line. */
+    static String report(Map<String, String> failed) {
+        StringBuilder result = new StringBuilder();
+        for (Map.Entry<String, String> e : failed.entrySet()) {
+            result.append("\n    ").append(e.getKey()).append(": ").append(e.getValue());
+        }
+        return result.toString();
+    }
+}
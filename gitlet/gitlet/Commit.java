@@ -1,9 +1,18 @@
 package gitlet;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.ObjectStreamConstants;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.TreeMap;
 
 
@@ -11,6 +20,11 @@ import java.util.TreeMap;
  *  @author Nameera Faisal Akhtar
  */
 public class Commit implements Serializable {
+    /** The version of the first Commit class, which every repository's
+     *  commits were written with.  Declared so that adding methods does
+     *  not make them unreadable. */
+    private static final long serialVersionUID = -5329714548973073098L;
+
     /**
      * List all instance variables of the Commit class here with a useful
      * comment above them describing what that variable represents and how that
@@ -33,7 +47,12 @@ public class Commit implements Serializable {
     private String id;
 
     /** The blob for this Commit, in a <FileName, Sha1> structure. */
-    private TreeMap<String, String> blob;
+    private FileMap blob;
+
+    /** The files of a commit written before FileMap, which kept them in
+     *  a TreeMap, as they were read; null for any other commit.  The id
+     *  of such a commit was hashed from that form. */
+    private transient TreeMap<String, String> legacyBlob;
 
 
     /** Makes the initial Commit. */
@@ -46,26 +65,40 @@ public class Commit implements Serializable {
         this.timestamp = date;
         this.parent1 = null;
         this.parent2 = null;
-        this.blob = new TreeMap<>();
+        this.blob = FileMap.EMPTY;
         id = Utils.sha1(Repository.serializeCommit(this));
     }
 
-    public Commit(String msgOfCommit, String parent1Id, TreeMap<String, String> blobOfCommit) {
-        String pattern = "EEE MMM d HH:mm:ss yyyy Z";
-        SimpleDateFormat simpleDateFormat = new SimpleDateFormat(pattern);
-        String date = simpleDateFormat.format(new Date());
-        timestamp = date;
+    public Commit(String msgOfCommit, String parent1Id, Map<String, String> blobOfCommit) {
+        this(msgOfCommit, parent1Id, null, blobOfCommit);
+    }
+
+    /** Makes a commit with the given blob, message, timestamp (in the
+     *  format log prints) and parents. */
+    private Commit(Map<String, String> blobOfCommit, String msgOfCommit,
+                   String timestampOfCommit, String parent1Id, String parent2Id) {
+        timestamp = timestampOfCommit;
         message = msgOfCommit;
-        blob = blobOfCommit;
+        blob = FileMap.of(blobOfCommit);
         parent1 = parent1Id;
+        parent2 = parent2Id;
         id = Utils.sha1(Repository.serializeCommit(this));
     }
 
+    /** Returns a commit made elsewhere and brought in with fast-import,
+     *  keeping its message, TIMESTAMP and parents.  Its id depends only on
+     *  these, so a commit exported and imported again keeps its id. */
+    static Commit imported(String msgOfCommit, String timestampOfCommit, String parent1Id,
+                           String parent2Id, Map<String, String> blobOfCommit) {
+        return new Commit(blobOfCommit, msgOfCommit, timestampOfCommit, parent1Id, parent2Id);
+    }
+
     /** Makes a commit using the given message, blob and parent commits. */
     public Commit(String msgOfCommit, String parent1Id,
-                  String parent2Id, TreeMap<String, String> blobOfCommit) {
-        this(msgOfCommit, parent1Id, blobOfCommit);
-        parent2 = parent2Id;
+                  String parent2Id, Map<String, String> blobOfCommit) {
+        this(blobOfCommit, msgOfCommit,
+                new SimpleDateFormat("EEE MMM d HH:mm:ss yyyy Z").format(new Date()),
+                parent1Id, parent2Id);
     }
 
     public String accessMessage() {
@@ -84,7 +117,7 @@ public class Commit implements Serializable {
         return parent2;
     }
 
-    public TreeMap<String, String> accessBlob()  {
+    public FileMap accessBlob()  {
         return blob;
     }
 
@@ -100,6 +133,23 @@ public class Commit implements Serializable {
         return id;
     }
 
+    /** Returns the id the contents of this commit hash to.  Ids are
+     *  computed before the id is set, so it is left out, and a commit
+     *  written before FileMap was hashed without its second parent too;
+     *  for a commit that is intact, this is its id. */
+    String recomputeId() {
+        if (legacyBlob != null) {
+            return Utils.sha1(Legacy.serialize(this));
+        }
+        String savedId = id;
+        id = null;
+        try {
+            return Utils.sha1(Repository.serializeCommit(this));
+        } finally {
+            id = savedId;
+        }
+    }
+
     public HashSet<String> getBothParents() {
         HashSet<String> parents = new HashSet<>();
         if (this.accessParent1() != null) {
@@ -110,4 +160,74 @@ public class Commit implements Serializable {
         }
         return parents;
     }
+
+    /** Reads a commit in either format: the files are a FileMap, or, in
+     *  a commit written before FileMap, a TreeMap that is converted. */
+    @SuppressWarnings("unchecked")
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        message = (String) fields.get("message", null);
+        timestamp = (String) fields.get("timestamp", null);
+        parent1 = (String) fields.get("parent1", null);
+        parent2 = (String) fields.get("parent2", null);
+        id = (String) fields.get("id", null);
+        Object files = fields.get("blob", null);
+        if (files instanceof FileMap) {
+            blob = (FileMap) files;
+        } else if (files instanceof TreeMap) {
+            legacyBlob = (TreeMap<String, String>) files;
+            blob = FileMap.of(legacyBlob);
+        } else {
+            throw new InvalidObjectException("commit has no file map");
+        }
+    }
+
+    /** A commit as the first version of this class wrote it, with its
+     *  files in a TreeMap.  It is written under Commit's name and version,
+     *  and so serializes to the bytes the commit's id was hashed from. */
+    private static class Legacy implements Serializable {
+        private String message;
+        private String timestamp;
+        private String parent1;
+        private String parent2;
+        private String id;
+        private TreeMap<String, String> blob;
+
+        /** Returns the bytes the legacy commit C was hashed from: its
+         *  contents without its id or second parent. */
+        static byte[] serialize(Commit c) {
+            Legacy legacy = new Legacy();
+            legacy.message = c.message;
+            legacy.timestamp = c.timestamp;
+            legacy.parent1 = c.parent1;
+            legacy.blob = c.legacyBlob;
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (ObjectOutputStream out = new ObjectOutputStream(bytes) {
+                    @Override
+                    protected void writeClassDescriptor(ObjectStreamClass desc)
+                            throws IOException {
+                        if (desc.forClass() != Legacy.class) {
+                            super.writeClassDescriptor(desc);
+                            return;
+                        }
+                        // As ObjectStreamClass writes a descriptor, but
+                        // under the name and version of Commit.
+                        writeUTF(Commit.class.getName());
+                        writeLong(serialVersionUID);
+                        writeByte(ObjectStreamConstants.SC_SERIALIZABLE);
+                        writeShort(desc.getFields().length);
+                        for (ObjectStreamField f : desc.getFields()) {
+                            writeByte(f.getTypeCode());
+                            writeUTF(f.getName());
+                            writeObject(f.getTypeString());
+                        }
+                    }
+                }) {
+                out.writeObject(legacy);
+            } catch (IOException excp) {
+                throw Utils.error("Internal error serializing commit.");
+            }
+            return bytes.toByteArray();
+        }
+    }
 }
@@ -0,0 +1,281 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.TreeSet;
+
+/** A sorted index of every commit id in a repository, used to resolve
+ *  abbreviated ids without listing the commits folder.
+ *
+ *  The index file starts, as git's pack index does, with a fan-out table
+ *  of 256 big-endian ints: entry b is the number of ids whose first byte
+ *  is at most b.  The ids follow, sorted, as 20 raw bytes each.  The file
+ *  is searched in place through a memory mapping, so a lookup reads only
+ *  the table and the ids it binary searches.
+ *
+ *  New commits are appended, 20 bytes each, to a second file, which is
+ *  read in full by every lookup.  Once it holds MERGE_THRESHOLD ids it
+ *  is merged into the index, which is written to a temporary file and
+ *  renamed into place, so readers never see part of it.  Both files are
+ *  only ever written while the repository is locked exclusively; until
+ *  the index is first built, lookups list the commits folder.
+ *
+ *  @author Nameera Faisal Akhtar
+ */
+class CommitIndex {
+
+    /** Name of the file holding the index inside the .gitlet directory. */
+    static final String FILE_NAME = "commit-index";
+
+    /** Name of the file of ids added since the index was last written. */
+    static final String NEW_FILE_NAME = "commit-index.new";
+
+    /** Number of appended ids at which they are merged into the index. */
+    private static final int MERGE_THRESHOLD = 1024;
+
+    /** Size of the fan-out table, in bytes. */
+    private static final int FANOUT_BYTES = 256 * 4;
+
+    /** The repository this index describes. */
+    private final Repository repo;
+
+    /** The index file. */
+    private final File indexFile;
+
+    /** The file of appended ids. */
+    private final File newFile;
+
+    /** The index of the commits of REPO. */
+    CommitIndex(Repository repo) {
+        this.repo = repo;
+        indexFile = Utils.join(repo.gitletDir(), FILE_NAME);
+        newFile = Utils.join(repo.gitletDir(), NEW_FILE_NAME);
+    }
+
+    /** Returns every commit id starting with PREFIX, in order. */
+    List<String> matches(String prefix) {
+        TreeSet<String> result = new TreeSet<>();
+        if (prefix.isEmpty() || prefix.length() > Utils.UID_LENGTH || !isHex(prefix)) {
+            return new ArrayList<>(result);
+        }
+        MappedByteBuffer buf = map();
+        if (buf == null) {
+            List<String> all = listCommits();
+            for (String id : all) {
+                if (id.startsWith(prefix)) {
+                    result.add(id);
+                }
+            }
+            if (repo.canWrite()) {
+                write(all);
+            }
+            return new ArrayList<>(result);
+        }
+        byte[] low = bytes(pad(prefix, '0'));
+        byte[] high = bytes(pad(prefix, 'f'));
+        int lo = (low[0] & 0xff) == 0 ? 0 : fanout(buf, (low[0] & 0xff) - 1);
+        int hi = fanout(buf, high[0] & 0xff);
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (compare(buf, mid, low) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        int n = fanout(buf, 255);
+        for (int k = lo; k < n && compare(buf, k, high) <= 0; k += 1) {
+            result.add(ObjectId.toHex(idAt(buf, k), 0));
+        }
+        for (String id : appended()) {
+            if (id.startsWith(prefix)) {
+                result.add(id);
+            }
+        }
+        return new ArrayList<>(result);
+    }
+
+    /** Returns the index file, mapped, or null if it does not exist or
+     *  its length does not match its fan-out table. */
+    private MappedByteBuffer map() {
+        if (!indexFile.isFile()) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(indexFile.toPath(),
+                StandardOpenOption.READ)) {
+            if (channel.size() < FANOUT_BYTES) {
+                return null;
+            }
+            MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY,
+                    0, channel.size());
+            long expected = FANOUT_BYTES + (long) fanout(buf, 255) * ObjectId.LENGTH;
+            return expected == channel.size() ? buf : null;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Adds the commit ids IDS, whose commits have been written.  Must
+     *  be called with the repository locked exclusively. */
+    void addAll(Collection<String> ids) {
+        if (map() == null) {
+            write(listCommits());
+            return;
+        }
+        if (ids.isEmpty()) {
+            return;
+        }
+        ByteBuffer records = ByteBuffer.allocate(ids.size() * ObjectId.LENGTH);
+        for (String id : ids) {
+            records.put(bytes(id));
+        }
+        records.flip();
+        try (FileChannel channel = FileChannel.open(newFile.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            // A record cut short by a crash is overwritten.
+            long end = channel.size() - channel.size() % ObjectId.LENGTH;
+            channel.truncate(end);
+            channel.position(end);
+            while (records.hasRemaining()) {
+                channel.write(records);
+            }
+            if (end + ids.size() * ObjectId.LENGTH < MERGE_THRESHOLD * ObjectId.LENGTH) {
+                return;
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        TreeSet<String> all = new TreeSet<>(appended());
+        all.addAll(allIndexed());
+        write(all);
+    }
+
+    /** Replaces the index with one of the commit ids IDS, and empties
+     *  the file of appended ids. */
+    private void write(Collection<String> ids) {
+        TreeSet<String> sorted = new TreeSet<>(ids);
+        byte[] contents = new byte[FANOUT_BYTES + sorted.size() * ObjectId.LENGTH];
+        int[] counts = new int[256];
+        int k = 0;
+        for (String id : sorted) {
+            byte[] b = bytes(id);
+            System.arraycopy(b, 0, contents, FANOUT_BYTES + k * ObjectId.LENGTH,
+                    ObjectId.LENGTH);
+            counts[b[0] & 0xff] += 1;
+            k += 1;
+        }
+        ByteBuffer table = ByteBuffer.wrap(contents);
+        int total = 0;
+        for (int b = 0; b < counts.length; b += 1) {
+            total += counts[b];
+            table.putInt(total);
+        }
+        try {
+            File tmp = File.createTempFile(FILE_NAME, ".tmp", repo.tmpFolder());
+            Utils.writeContents(tmp, contents);
+            Files.move(tmp.toPath(), indexFile.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        // Left behind by a crash, these ids are only found twice.
+        newFile.delete();
+    }
+
+    /** Returns every id in the index file. */
+    private List<String> allIndexed() {
+        byte[] contents = Utils.readContents(indexFile);
+        ArrayList<String> result = new ArrayList<>();
+        for (int off = FANOUT_BYTES; off + ObjectId.LENGTH <= contents.length;
+             off += ObjectId.LENGTH) {
+            result.add(ObjectId.toHex(contents, off));
+        }
+        return result;
+    }
+
+    /** Returns the ids appended since the index was written, ignoring a
+     *  record cut short by a crash. */
+    private List<String> appended() {
+        ArrayList<String> result = new ArrayList<>();
+        if (!newFile.isFile()) {
+            return result;
+        }
+        byte[] contents = Utils.readContents(newFile);
+        for (int off = 0; off + ObjectId.LENGTH <= contents.length;
+             off += ObjectId.LENGTH) {
+            result.add(ObjectId.toHex(contents, off));
+        }
+        return result;
+    }
+
+    /** Returns the ids of the files in the commits folder. */
+    private List<String> listCommits() {
+        ArrayList<String> result = new ArrayList<>();
+        for (String fileName : Utils.plainFilenamesIn(repo.commitsFolder())) {
+            if (ObjectId.isHex(fileName)) {
+                result.add(fileName);
+            }
+        }
+        return result;
+    }
+
+    /** Returns entry B of the fan-out table in BUF. */
+    private static int fanout(MappedByteBuffer buf, int b) {
+        return buf.getInt(4 * b);
+    }
+
+    /** Returns the Kth id in BUF, as bytes. */
+    private static byte[] idAt(MappedByteBuffer buf, int k) {
+        byte[] id = new byte[ObjectId.LENGTH];
+        buf.get(FANOUT_BYTES + k * ObjectId.LENGTH, id);
+        return id;
+    }
+
+    /** Compares the Kth id in BUF with the id ID, as unsigned bytes. */
+    private static int compare(MappedByteBuffer buf, int k, byte[] id) {
+        int start = FANOUT_BYTES + k * ObjectId.LENGTH;
+        for (int i = 0; i < ObjectId.LENGTH; i += 1) {
+            int c = Integer.compare(buf.get(start + i) & 0xff, id[i] & 0xff);
+            if (c != 0) {
+                return c;
+            }
+        }
+        return 0;
+    }
+
+    /** Returns PREFIX extended to a full id with the digit FILL. */
+    private static String pad(String prefix, char fill) {
+        StringBuilder result = new StringBuilder(prefix);
+        while (result.length() < Utils.UID_LENGTH) {
+            result.append(fill);
+        }
+        return result.toString();
+    }
+
+    /** Returns true iff S consists of lower-case hex digits only. */
+    private static boolean isHex(String s) {
+        for (int i = 0; i < s.length(); i += 1) {
+            char c = s.charAt(i);
+            if (!(c >= '0' && c <= '9') && !(c >= 'a' && c <= 'f')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Returns the bytes of the hex id ID. */
+    private static byte[] bytes(String id) {
+        byte[] result = new byte[ObjectId.LENGTH];
+        ObjectId.fromHex(id).copyTo(result, 0);
+        return result;
+    }
+}
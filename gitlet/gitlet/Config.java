@@ -0,0 +1,110 @@
+package gitlet;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/** The settings of a repository, kept one "KEY = VALUE" per line in
+ *  .gitlet/config.  Blank lines and lines starting with "#" are ignored.
+ *  A setting that is absent has its default, which is up to the code
+ *  that reads it.
+ *
+ *  @author Nameera Faisal Akhtar
+ */
+class Config {
+
+    /** Name of the settings file inside the .gitlet directory. */
+    static final String FILE_NAME = "config";
+
+    /** The settings file. */
+    private final File file;
+
+    /** The settings, by key. */
+    private final TreeMap<String, String> values = new TreeMap<>();
+
+    private Config(File file) {
+        this.file = file;
+    }
+
+    /** Returns the settings of the repository whose .gitlet directory is
+     *  GITLETDIR. */
+    static Config load(File gitletDir) {
+        Config config = new Config(Utils.join(gitletDir, FILE_NAME));
+        if (config.file.isFile()) {
+            for (String line : Utils.readContentsAsString(config.file).split("\n")) {
+                line = line.trim();
+                int eq = line.indexOf('=');
+                if (!line.isEmpty() && !line.startsWith("#") && eq > 0) {
+                    config.values.put(line.substring(0, eq).trim(),
+                            line.substring(eq + 1).trim());
+                }
+            }
+        }
+        return config;
+    }
+
+    /** Writes the settings back to the settings file. */
+    void save() {
+        StringBuilder contents = new StringBuilder();
+        for (Map.Entry<String, String> e : values.entrySet()) {
+            contents.append(e.getKey()).append(" = ").append(e.getValue()).append('\n');
+        }
+        Utils.writeContents(file, contents.toString());
+    }
+
+    /** Returns every setting, by key. */
+    TreeMap<String, String> all() {
+        return values;
+    }
+
+    /** Returns the value of KEY, or null if it is not set. */
+    String get(String key) {
+        return values.get(key);
+    }
+
+    /** Returns the value of KEY as a number, or DEFAULTVALUE if it is not
+     *  set.  A value may end in k, m or g for multiples of 1024. */
+    long getLong(String key, long defaultValue) {
+        String value = values.get(key);
+        if (value == null) {
+            return defaultValue;
+        }
+        long unit = 1;
+        String digits = value.toLowerCase();
+        if (digits.endsWith("k") || digits.endsWith("m") || digits.endsWith("g")) {
+            unit = 1L << (10 * ("kmg".indexOf(digits.charAt(digits.length() - 1)) + 1));
+            digits = digits.substring(0, digits.length() - 1);
+        }
+        try {
+            return Long.parseLong(digits) * unit;
+        } catch (NumberFormatException excp) {
+            throw Utils.error("Bad number for %s: %s", key, value);
+        }
+    }
+
+    /** Returns the value of KEY split at commas, or an empty list if it is
+     *  not set. */
+    List<String> getList(String key) {
+        List<String> result = new ArrayList<>();
+        String value = values.get(key);
+        if (value != null) {
+            for (String item : value.split(",")) {
+                if (!item.trim().isEmpty()) {
+                    result.add(item.trim());
+                }
+            }
+        }
+        return result;
+    }
+
+    /** Sets KEY to VALUE, or removes it if VALUE is null. */
+    void set(String key, String value) {
+        if (value == null) {
+            values.remove(key);
+        } else {
+            values.put(key, value);
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/** Writes the conflicted version of a file, in which both sides appear
+ *  between conflict markers:
+ *
+ *      <<<<<<< HEAD
+ *      <the current version>
+ *      =======
+ *      <the given version>
+ *      >>>>>>>
+ *
+ *  The two versions are copied from the blob store a buffer at a time,
+ *  into the working file and into a new blob at once, while the sha1 of
+ *  the result is computed, so memory use does not depend on the sizes of
+ *  the files.  The blob is written to a temporary file in the temporary
+ *  folder and renamed to its id at the end.  A conflict too large for the
+ *  blob store is written to the working file alone, for the large-file
+ *  store to take from there.
+ *
+ *  @author Nameera Faisal Akhtar
+ */
+class ConflictWriter {
+
+    /** The lines around and between the two versions. */
+    private static final byte[] START = "<<<<<<< HEAD\n".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] MIDDLE = "=======\n".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] END = ">>>>>>>\n".getBytes(StandardCharsets.UTF_8);
+
+    /** Size of the copy buffer. */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /** The blob store, and the folder for temporary files. */
+    private final File blobsFolder, tmpFolder;
+
+    /** A writer of conflicts between blobs in BLOBSFOLDER, writing its
+     *  temporary files in TMPFOLDER. */
+    ConflictWriter(File blobsFolder, File tmpFolder) {
+        this.blobsFolder = blobsFolder;
+        this.tmpFolder = tmpFolder;
+    }
+
+    /** Returns the size in bytes of the conflict between the blobs
+     *  CURRBLOBID and GIVENBLOBID, as write would write it. */
+    long size(String currBlobId, String givenBlobId) {
+        return START.length + MIDDLE.length + END.length
+                + blobSize(currBlobId) + blobSize(givenBlobId);
+    }
+
+    /** Writes the conflict between the blobs CURRBLOBID and GIVENBLOBID,
+     *  either null if that side does not have the file, to the working
+     *  file DEST unless it is null, stores it as a blob, and returns the
+     *  blob's id.  A blob that is missing from the store counts as
+     *  empty. */
+    String write(String currBlobId, String givenBlobId, File dest) {
+        File tmp = null;
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            tmp = File.createTempFile("conflict", ".tmp", tmpFolder);
+            try (OutputStream blob = Files.newOutputStream(tmp.toPath());
+                 OutputStream work = dest == null ? OutputStream.nullOutputStream()
+                         : Files.newOutputStream(dest.toPath())) {
+                writeConflict(currBlobId, givenBlobId, new Sink(md, blob, work));
+            }
+            String id = hex(md.digest());
+            File blobFile = Utils.join(blobsFolder, id);
+            if (blobFile.exists()) {
+                tmp.delete();
+            } else {
+                Files.move(tmp.toPath(), blobFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+            return id;
+        } catch (IOException excp) {
+            if (tmp != null) {
+                tmp.delete();
+            }
+            throw Utils.error("Cannot write conflict%s: %s",
+                    dest == null ? "" : " in " + dest.getName(), excp.getMessage());
+        } catch (NoSuchAlgorithmException excp) {
+            throw new IllegalArgumentException("System does not support SHA-1");
+        }
+    }
+
+    /** Writes the conflict between the blobs CURRBLOBID and GIVENBLOBID
+     *  to the working file DEST only, storing no blob. */
+    void writeFile(String currBlobId, String givenBlobId, File dest) {
+        try (OutputStream work = Files.newOutputStream(dest.toPath())) {
+            writeConflict(currBlobId, givenBlobId, new Sink(null, OutputStream.nullOutputStream(),
+                    work));
+        } catch (IOException excp) {
+            throw Utils.error("Cannot write conflict in %s: %s", dest.getName(),
+                    excp.getMessage());
+        }
+    }
+
+    /** Writes the markers and the blobs CURRBLOBID and GIVENBLOBID to
+     *  OUT. */
+    private void writeConflict(String currBlobId, String givenBlobId, Sink out)
+        throws IOException {
+        out.write(START, START.length);
+        copy(currBlobId, out);
+        out.write(MIDDLE, MIDDLE.length);
+        copy(givenBlobId, out);
+        out.write(END, END.length);
+    }
+
+    /** Returns the size of the blob BLOBID, 0 if it is null or missing. */
+    private long blobSize(String blobId) {
+        return blobId == null ? 0 : Utils.join(blobsFolder, blobId).length();
+    }
+
+    /** Copies the blob BLOBID, if it is not null and exists, to OUT. */
+    private void copy(String blobId, Sink out) throws IOException {
+        if (blobId == null) {
+            return;
+        }
+        File blob = Utils.join(blobsFolder, blobId);
+        if (!blob.isFile()) {
+            return;
+        }
+        byte[] buffer = new byte[BUFFER_SIZE];
+        try (InputStream in = Files.newInputStream(blob.toPath())) {
+            for (int n = in.read(buffer); n >= 0; n = in.read(buffer)) {
+                out.write(buffer, n);
+            }
+        }
+    }
+
+    /** The places every byte of a conflict goes. */
+    private static class Sink {
+        /** The digest of the result, or null if none is wanted. */
+        private final MessageDigest md;
+        /** The new blob and the working file. */
+        private final OutputStream blob, work;
+
+        Sink(MessageDigest md, OutputStream blob, OutputStream work) {
+            this.md = md;
+            this.blob = blob;
+            this.work = work;
+        }
+
+        /** Writes the first N bytes of BYTES everywhere. */
+        void write(byte[] bytes, int n) throws IOException {
+            if (md != null) {
+                md.update(bytes, 0, n);
+            }
+            blob.write(bytes, 0, n);
+            work.write(bytes, 0, n);
+        }
+    }
+
+    private static String hex(byte[] digest) {
+        StringBuilder result = new StringBuilder();
+        for (byte b : digest) {
+            result.append(String.format("%02x", b));
+        }
+        return result.toString();
+    }
+}
@@ -0,0 +1,372 @@
+package gitlet;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/** An immutable, word-aligned, run-length compressed bitmap in the style
+ *  of EWAH.  The bits are stored as a sequence of 64-bit words.  Each
+ *  marker word describes a run of "clean" words (all zeros or all ones)
+ *  followed by a number of literal words copied verbatim, so long runs
+ *  of set or unset bits cost a single word.  Logical operations work
+ *  directly on the compressed form and skip over runs a whole run at
+ *  a time.
+ *
+ *  A marker word is laid out as follows:
+ *      bit 0       -- the value of the bits in the run
+ *      bits 1-32   -- the number of clean words in the run
+ *      bits 33-63  -- the number of literal words that follow the marker
+ *
+ *  @author Nameera Faisal Akhtar
+ */
+class EwahBitmap implements Serializable {
+
+    /** Largest number of clean words a single marker can describe. */
+    private static final long MAX_RUN = 0xFFFFFFFFL;
+
+    /** Largest number of literal words a single marker can describe. */
+    private static final long MAX_LITERALS = 0x7FFFFFFFL;
+
+    /** The compressed words. */
+    private long[] buffer;
+
+    /** The number of words of BUFFER in use. */
+    private int used;
+
+    /** Index in BUFFER of the last marker word. */
+    private int lastMarker;
+
+    /** The number of uncompressed words this bitmap describes. */
+    private long wordCount;
+
+    /** An empty bitmap. */
+    EwahBitmap() {
+        buffer = new long[4];
+        used = 1;
+        lastMarker = 0;
+    }
+
+    /** Returns a bitmap with exactly the bits at POSITIONS set. */
+    static EwahBitmap of(Collection<Integer> positions) {
+        int[] sorted = new int[positions.size()];
+        int k = 0;
+        for (int p : positions) {
+            sorted[k] = p;
+            k += 1;
+        }
+        Arrays.sort(sorted);
+        EwahBitmap result = new EwahBitmap();
+        int i = 0;
+        while (i < sorted.length) {
+            long word = sorted[i] >>> 6;
+            long bits = 0;
+            while (i < sorted.length && (sorted[i] >>> 6) == word) {
+                bits |= 1L << (sorted[i] & 63);
+                i += 1;
+            }
+            result.addRun(false, word - result.wordCount);
+            result.addWord(bits);
+        }
+        result.trim();
+        return result;
+    }
+
+    /** Returns a bitmap with only bit POSITION set. */
+    static EwahBitmap of(int position) {
+        ArrayList<Integer> single = new ArrayList<>();
+        single.add(position);
+        return of(single);
+    }
+
+    /** Returns true iff bit I is set. */
+    boolean get(int i) {
+        long target = i >>> 6;
+        Cursor c = new Cursor(this);
+        long pos = 0;
+        while (c.advance()) {
+            if (c.isRun) {
+                if (target < pos + c.count) {
+                    return c.bit;
+                }
+                pos += c.count;
+                c.count = 0;
+            } else {
+                if (pos == target) {
+                    return (c.word & (1L << (i & 63))) != 0;
+                }
+                pos += 1;
+                c.count = 0;
+            }
+        }
+        return false;
+    }
+
+    /** Returns the number of set bits. */
+    int cardinality() {
+        int total = 0;
+        Cursor c = new Cursor(this);
+        while (c.advance()) {
+            if (c.isRun) {
+                if (c.bit) {
+                    total += c.count * 64;
+                }
+            } else {
+                total += Long.bitCount(c.word);
+            }
+            c.count = 0;
+        }
+        return total;
+    }
+
+    /** Returns the positions of all set bits, in increasing order. */
+    List<Integer> positions() {
+        ArrayList<Integer> result = new ArrayList<>();
+        Cursor c = new Cursor(this);
+        long pos = 0;
+        while (c.advance()) {
+            if (c.isRun) {
+                if (c.bit) {
+                    for (long w = pos; w < pos + c.count; w += 1) {
+                        for (int b = 0; b < 64; b += 1) {
+                            result.add((int) (w * 64 + b));
+                        }
+                    }
+                }
+                pos += c.count;
+            } else {
+                long word = c.word;
+                while (word != 0) {
+                    result.add((int) (pos * 64 + Long.numberOfTrailingZeros(word)));
+                    word &= word - 1;
+                }
+                pos += 1;
+            }
+            c.count = 0;
+        }
+        return result;
+    }
+
+    /** Returns the bitwise AND of this and OTHER. */
+    EwahBitmap and(EwahBitmap other) {
+        return combine(this, other, AND);
+    }
+
+    /** Returns the bitwise OR of this and OTHER. */
+    EwahBitmap or(EwahBitmap other) {
+        return combine(this, other, OR);
+    }
+
+    /** Returns the bits of this that are not set in OTHER. */
+    EwahBitmap andNot(EwahBitmap other) {
+        return combine(this, other, AND_NOT);
+    }
+
+    /** Returns the number of words used by the compressed form. */
+    int sizeInWords() {
+        return used;
+    }
+
+    /* OPERATIONS */
+
+    /** Operation codes for combine. */
+    private static final int AND = 0, OR = 1, AND_NOT = 2;
+
+    /** Applies operation OP to the words A and B. */
+    private static long apply(int op, long a, long b) {
+        switch (op) {
+            case AND:
+                return a & b;
+            case OR:
+                return a | b;
+            default:
+                return a & ~b;
+        }
+    }
+
+    /** Returns the result of OP applied word by word to A and B, where
+     *  the shorter of the two is treated as padded with zeros.  Pairs of
+     *  runs are combined without expanding them. */
+    private static EwahBitmap combine(EwahBitmap a, EwahBitmap b, int op) {
+        EwahBitmap result = new EwahBitmap();
+        Cursor ca = new Cursor(a);
+        Cursor cb = new Cursor(b);
+        boolean moreA = ca.advance();
+        boolean moreB = cb.advance();
+        while (moreA || moreB) {
+            if (moreA && moreB && ca.isRun && cb.isRun) {
+                long n = Math.min(ca.count, cb.count);
+                long bits = apply(op, ca.bit ? -1L : 0L, cb.bit ? -1L : 0L);
+                result.addRun(bits != 0, n);
+                ca.count -= n;
+                cb.count -= n;
+            } else if (moreA && !moreB && ca.isRun) {
+                long bits = apply(op, ca.bit ? -1L : 0L, 0L);
+                result.addRun(bits != 0, ca.count);
+                ca.count = 0;
+            } else if (moreB && !moreA && cb.isRun) {
+                long bits = apply(op, 0L, cb.bit ? -1L : 0L);
+                result.addRun(bits != 0, cb.count);
+                cb.count = 0;
+            } else {
+                long wa = moreA ? ca.take() : 0L;
+                long wb = moreB ? cb.take() : 0L;
+                result.addWord(apply(op, wa, wb));
+            }
+            moreA = moreA && ca.advance();
+            moreB = moreB && cb.advance();
+        }
+        result.trim();
+        return result;
+    }
+
+    /* BUILDING */
+
+    /** Appends the word W, which may be clean or literal. */
+    private void addWord(long w) {
+        if (w == 0L) {
+            addRun(false, 1);
+        } else if (w == -1L) {
+            addRun(true, 1);
+        } else {
+            addLiteral(w);
+        }
+    }
+
+    /** Appends N clean words whose bits are all BIT. */
+    private void addRun(boolean bit, long n) {
+        while (n > 0) {
+            long marker = buffer[lastMarker];
+            long runLength = runLength(marker);
+            boolean canExtend = literalCount(marker) == 0
+                    && (runLength == 0 || runBit(marker) == bit)
+                    && runLength < MAX_RUN;
+            if (!canExtend) {
+                newMarker();
+                marker = 0;
+                runLength = 0;
+            }
+            long k = Math.min(n, MAX_RUN - runLength);
+            buffer[lastMarker] = marker(bit, runLength + k, 0);
+            wordCount += k;
+            n -= k;
+        }
+    }
+
+    /** Appends the literal word W. */
+    private void addLiteral(long w) {
+        long marker = buffer[lastMarker];
+        if (literalCount(marker) >= MAX_LITERALS) {
+            newMarker();
+            marker = 0;
+        }
+        buffer[lastMarker] = marker(runBit(marker), runLength(marker),
+                literalCount(marker) + 1);
+        push(w);
+        wordCount += 1;
+    }
+
+    /** Starts a new, empty marker word. */
+    private void newMarker() {
+        push(0L);
+        lastMarker = used - 1;
+    }
+
+    /** Appends W to the buffer. */
+    private void push(long w) {
+        if (used == buffer.length) {
+            buffer = Arrays.copyOf(buffer, buffer.length * 2);
+        }
+        buffer[used] = w;
+        used += 1;
+    }
+
+    /** Releases unused buffer space. */
+    private void trim() {
+        buffer = Arrays.copyOf(buffer, used);
+    }
+
+    private static long marker(boolean bit, long runLength, long literals) {
+        return (bit ? 1L : 0L) | (runLength << 1) | (literals << 33);
+    }
+
+    private static boolean runBit(long marker) {
+        return (marker & 1L) != 0;
+    }
+
+    private static long runLength(long marker) {
+        return (marker >>> 1) & MAX_RUN;
+    }
+
+    private static long literalCount(long marker) {
+        return marker >>> 33;
+    }
+
+    /** Walks the compressed words of a bitmap, presenting them either as
+     *  a run of COUNT clean words with value BIT, or as a single literal
+     *  WORD (with COUNT 1). */
+    private static class Cursor {
+        /** The bitmap being walked. */
+        private final EwahBitmap map;
+        /** Index of the next unread word of MAP's buffer. */
+        private int next;
+        /** Literal words remaining under the current marker. */
+        private long literalsLeft;
+        /** Clean words still to be reported from the current marker. */
+        private long runLeft;
+        /** True iff the current item is a run. */
+        private boolean isRun;
+        /** The value of the current run. */
+        private boolean bit;
+        /** The current literal word. */
+        private long word;
+        /** Words remaining in the current item. */
+        private long count;
+
+        Cursor(EwahBitmap map) {
+            this.map = map;
+        }
+
+        /** Moves to the next item unless the current one still has words
+         *  left.  Returns false at the end of the bitmap. */
+        boolean advance() {
+            if (count > 0) {
+                return true;
+            }
+            while (true) {
+                if (runLeft > 0) {
+                    isRun = true;
+                    count = runLeft;
+                    runLeft = 0;
+                    return true;
+                }
+                if (literalsLeft > 0) {
+                    isRun = false;
+                    word = map.buffer[next];
+                    next += 1;
+                    literalsLeft -= 1;
+                    count = 1;
+                    return true;
+                }
+                if (next >= map.used) {
+                    return false;
+                }
+                long marker = map.buffer[next];
+                next += 1;
+                bit = runBit(marker);
+                runLeft = runLength(marker);
+                literalsLeft = literalCount(marker);
+            }
+        }
+
+        /** Consumes and returns one uncompressed word of the current item. */
+        long take() {
+            count -= 1;
+            if (isRun) {
+                return bit ? -1L : 0L;
+            }
+            return word;
+        }
+    }
+}
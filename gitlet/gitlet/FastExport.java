@@ -0,0 +1,157 @@
+package gitlet;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/** Writes the history reachable from every branch as a fast-import
+ *  stream (see FastImport), parents before children, each blob once,
+ *  with each commit listing only the files that differ from its first
+ *  parent.  The stream ends with a reset for every branch.
+ *
+ *  @author Nameera Faisal Akhtar
+ */
+class FastExport {
+
+    /** The repository exported. */
+    private final Repository repo;
+
+    /** Where the stream goes. */
+    private final OutputStream out;
+
+    /** The mark given to each object written, by id. */
+    private final HashMap<String, String> marks = new HashMap<>();
+
+    /** An export of REPO to OUT. */
+    FastExport(Repository repo, OutputStream out) {
+        this.repo = repo;
+        this.out = out;
+    }
+
+    /** Writes the stream. */
+    void run() throws IOException {
+        TreeMap<String, String> branches = repo.branches();
+        String ref = "refs/heads/" + repo.headBranch();
+        Commit previous = null;
+        for (String id : order(branches.values())) {
+            Commit c = repo.commitFromId(id);
+            Commit parent = previous != null && previous.accessId().equals(c.accessParent1())
+                    ? previous : repo.commitFromId(c.accessParent1());
+            writeCommit(ref, c, parent);
+            previous = c;
+        }
+        for (Map.Entry<String, String> branch : branches.entrySet()) {
+            writeLine("reset refs/heads/" + branch.getKey());
+            writeLine("from " + marks.get(branch.getValue()));
+            writeLine("");
+        }
+        writeLine("done");
+        out.flush();
+    }
+
+    /** Returns every commit reachable from TIPS, each after its parents. */
+    private List<String> order(Iterable<String> tips) {
+        ArrayList<String> result = new ArrayList<>();
+        HashSet<String> done = new HashSet<>();
+        HashMap<String, List<String>> parents = new HashMap<>();
+        Deque<String> stack = new ArrayDeque<>();
+        for (String tip : tips) {
+            stack.push(tip);
+        }
+        while (!stack.isEmpty()) {
+            String id = stack.peek();
+            if (done.contains(id)) {
+                stack.pop();
+                continue;
+            }
+            List<String> ps = parents.get(id);
+            if (ps == null) {
+                ps = new ArrayList<>(repo.commitFromId(id).getBothParents());
+                parents.put(id, ps);
+            }
+            boolean ready = true;
+            for (String p : ps) {
+                if (!done.contains(p)) {
+                    stack.push(p);
+                    ready = false;
+                }
+            }
+            if (ready) {
+                stack.pop();
+                done.add(id);
+                parents.remove(id);
+                result.add(id);
+            }
+        }
+        return result;
+    }
+
+    /** Writes commit C, to the branch REF, with its blobs not yet
+     *  written.  PARENT is its first parent, or null. */
+    private void writeCommit(String ref, Commit c, Commit parent) throws IOException {
+        FileMap before = parent == null ? FileMap.EMPTY : parent.accessBlob();
+        FileMap after = c.accessBlob();
+        for (String blobId : after.values()) {
+            if (!marks.containsKey(blobId)) {
+                String mark = newMark(blobId);
+                writeLine("blob");
+                writeLine("mark " + mark);
+                byte[] contents = Files.readAllBytes(
+                        Utils.join(repo.blobsFolder(), blobId).toPath());
+                writeLine("data " + contents.length);
+                out.write(contents);
+                writeLine("");
+            }
+        }
+
+        if (c.accessParent1() == null) {
+            writeLine("reset " + ref);
+            writeLine("");
+        }
+        writeLine("commit " + ref);
+        writeLine("mark " + newMark(c.accessId()));
+        writeLine("date " + c.accessTimestamp());
+        byte[] message = c.accessMessage().getBytes(StandardCharsets.UTF_8);
+        writeLine("data " + message.length);
+        out.write(message);
+        writeLine("");
+        if (c.accessParent1() != null) {
+            writeLine("from " + marks.get(c.accessParent1()));
+        }
+        if (c.accessParent2() != null) {
+            writeLine("merge " + marks.get(c.accessParent2()));
+        }
+        for (String fileName : before.keySet()) {
+            if (!after.containsKey(fileName)) {
+                writeLine("D " + fileName);
+            }
+        }
+        for (Map.Entry<String, String> e : after.entrySet()) {
+            if (!e.getValue().equals(before.get(e.getKey()))) {
+                writeLine("M 100644 " + marks.get(e.getValue()) + " " + e.getKey());
+            }
+        }
+        writeLine("");
+    }
+
+    /** Gives object ID the next mark and returns it. */
+    private String newMark(String id) {
+        String mark = ":" + (marks.size() + 1);
+        marks.put(id, mark);
+        return mark;
+    }
+
+    private void writeLine(String line) throws IOException {
+        out.write(line.getBytes(StandardCharsets.UTF_8));
+        out.write('\n');
+    }
+}
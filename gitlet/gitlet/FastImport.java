@@ -0,0 +1,447 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/** Reads a fast-import stream and writes the blobs and commits it
+ *  describes, without touching the working directory.
+ *
+ *  The stream is a sequence of commands, as written by FastExport:
+ *
+ *      blob
+ *      mark :N
+ *      data SIZE
+ *      <SIZE bytes>
+ *
+ *      commit refs/heads/BRANCH
+ *      mark :N
+ *      date TIMESTAMP
+ *      data SIZE
+ *      <SIZE bytes of message>
+ *      from REF
+ *      merge REF
+ *      M 100644 REF PATH
+ *      M 100644 inline PATH
+ *      data SIZE
+ *      <SIZE bytes>
+ *      D PATH
+ *      deleteall
+ *
+ *      reset refs/heads/BRANCH
+ *      from REF
+ *
+ *  (a reset without "from" makes the branch's next commit a root)
+ *
+ *      done
+ *
+ *  A REF is a mark, a full commit or blob id, or a branch name.  Marks,
+ *  dates and "from" lines are optional: a commit without "from"
+ *  continues its branch, and one without a date gets the current time.
+ *  Lines starting with "#" are ignored.
+ *
+ *  Marks are kept in memory, and objects are written in batches of
+ *  about BATCH_BYTES, a batch at a time on all cores, each through a
+ *  temporary file renamed into place.  Branches are only collected here;
+ *  the caller updates them once, at the end.
+ *
+ *  @author Nameera Faisal Akhtar
+ */
+class FastImport {
+
+    /** Number of bytes of objects held in memory before they are
+     *  written. */
+    private static final long BATCH_BYTES = 32 << 20;
+
+    /** Number of recent commits whose blob maps are kept in memory. */
+    private static final int TREE_CACHE_SIZE = 1024;
+
+    /** The repository imported into. */
+    private final Repository repo;
+
+    /** The stream. */
+    private final BufferedInputStream in;
+
+    /** Number of the line about to be read, for error messages. */
+    private int lineNumber = 1;
+
+    /** A line read but not yet used, or null. */
+    private String pushedBack;
+
+    /** The object id of every mark. */
+    private final HashMap<String, String> marks = new HashMap<>();
+
+    /** The blob maps of recent commits, by commit id. */
+    private final LinkedHashMap<String, FileMap> trees =
+            new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(
+                        Map.Entry<String, FileMap> eldest) {
+                    return size() > TREE_CACHE_SIZE;
+                }
+            };
+
+    /** The branches set by the stream, by name; null for a branch reset
+     *  to nothing. */
+    private final TreeMap<String, String> branches = new TreeMap<>();
+
+    /** The branches the repository had, by name. */
+    private final TreeMap<String, String> oldBranches;
+
+    /** Objects waiting to be written, by file. */
+    private final LinkedHashMap<File, byte[]> pending = new LinkedHashMap<>();
+
+    /** Total size of the objects in pending. */
+    private long pendingBytes;
+
+    /** The ids of the commits queued but not yet written. */
+    private final ArrayList<String> queuedCommits = new ArrayList<>();
+
+    /** The ids of the commits written. */
+    private final ArrayList<String> newCommits = new ArrayList<>();
+
+    /** Number of blobs written. */
+    private int newBlobs;
+
+    /** The changed paths of the new commits, saved by the caller. */
+    private final ChangedPathIndex changedPaths;
+
+    /** An import of the stream IN into REPO. */
+    FastImport(Repository repo, InputStream in) {
+        this.repo = repo;
+        this.in = new BufferedInputStream(in, 1 << 16);
+        this.oldBranches = repo.branches();
+        this.changedPaths = new ChangedPathIndex(repo);
+    }
+
+    /** Reads the whole stream, writing every object it describes. */
+    void run() {
+        for (String line = readLine(); line != null; line = readLine()) {
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            } else if (line.equals("blob")) {
+                readBlob();
+            } else if (line.startsWith("commit ")) {
+                readCommit(branchName(line.substring(7)));
+            } else if (line.startsWith("reset ")) {
+                readReset(branchName(line.substring(6)));
+            } else if (line.equals("done")) {
+                break;
+            } else {
+                throw error("unknown command '%s'", line);
+            }
+        }
+        flush();
+    }
+
+    /** Returns the branches the stream set, by name; null for a branch
+     *  reset to nothing. */
+    TreeMap<String, String> branches() {
+        return branches;
+    }
+
+    /** Returns the ids of the new commits written so far, in the order
+     *  they were read.  After a failed import, these are the commits that
+     *  reached the commits folder. */
+    List<String> newCommits() {
+        return newCommits;
+    }
+
+    /** Returns the changed-path entries of the commits read, to be saved
+     *  once the import is over.  An entry of a commit that was not
+     *  written is never reached. */
+    ChangedPathIndex changedPaths() {
+        return changedPaths;
+    }
+
+    /** Returns the number of new blobs. */
+    int newBlobs() {
+        return newBlobs;
+    }
+
+    /* COMMANDS */
+
+    private void readBlob() {
+        String mark = readMark();
+        String id = storeBlob(readData());
+        if (mark != null) {
+            marks.put(mark, id);
+        }
+    }
+
+    private void readCommit(String branch) {
+        String mark = readMark();
+        String line = readLine();
+        String timestamp;
+        if (line != null && line.startsWith("date ")) {
+            timestamp = line.substring(5);
+        } else {
+            pushedBack = line;
+            timestamp = new SimpleDateFormat("EEE MMM d HH:mm:ss yyyy Z").format(new Date());
+        }
+        String message = new String(readData(), StandardCharsets.UTF_8);
+
+        String parent1 = branches.containsKey(branch) ? branches.get(branch)
+                : oldBranches.get(branch);
+        String parent2 = null;
+        line = readLine();
+        if (line != null && line.startsWith("from ")) {
+            parent1 = resolve(line.substring(5), repo.commitsFolder());
+            line = readLine();
+        }
+        if (line != null && line.startsWith("merge ")) {
+            parent2 = resolve(line.substring(6), repo.commitsFolder());
+            line = readLine();
+        }
+
+        // The changes are merged into the parent's map in one pass, rather
+        // than copying it into a tree to change.
+        FileMap base = parent1 == null ? FileMap.EMPTY : tree(parent1);
+        TreeMap<String, String> added = new TreeMap<>();
+        HashSet<String> removed = new HashSet<>();
+        // The paths named by the changes, a superset of those changed.
+        HashSet<String> changed = new HashSet<>();
+        for (; line != null && !line.isEmpty(); line = readLine()) {
+            if (line.startsWith("M ")) {
+                String[] parts = line.split(" ", 4);
+                if (parts.length != 4) {
+                    throw error("bad file change '%s'", line);
+                }
+                String blobId = parts[2].equals("inline") ? storeBlob(readData())
+                        : resolve(parts[2], repo.blobsFolder());
+                added.put(parts[3], blobId);
+                removed.remove(parts[3]);
+                changed.add(parts[3]);
+            } else if (line.startsWith("D ")) {
+                added.remove(line.substring(2));
+                removed.add(line.substring(2));
+                changed.add(line.substring(2));
+            } else if (line.equals("deleteall")) {
+                changed.addAll(base.keySet());
+                base = FileMap.EMPTY;
+                added.clear();
+                removed.clear();
+            } else {
+                pushedBack = line;
+                break;
+            }
+        }
+
+        Commit c = Commit.imported(message, timestamp, parent1, parent2,
+                base.with(added, removed));
+        String id = c.accessId();
+        File f = Utils.join(repo.commitsFolder(), id);
+        if (!f.exists() && !pending.containsKey(f)) {
+            write(f, Utils.serialize(c));
+            queuedCommits.add(id);
+            changedPaths.add(id, parent1, changed);
+        }
+        trees.put(id, c.accessBlob());
+        branches.put(branch, id);
+        if (mark != null) {
+            marks.put(mark, id);
+        }
+    }
+
+    private void readReset(String branch) {
+        String line = readLine();
+        if (line != null && line.startsWith("from ")) {
+            branches.put(branch, resolve(line.substring(5), repo.commitsFolder()));
+        } else {
+            // The branch's next commit starts a new history.
+            pushedBack = line;
+            branches.put(branch, null);
+        }
+    }
+
+    /** Reads a "mark" line if there is one, and returns the mark or
+     *  null. */
+    private String readMark() {
+        String line = readLine();
+        if (line != null && line.startsWith("mark ")) {
+            return line.substring(5);
+        }
+        pushedBack = line;
+        return null;
+    }
+
+    /** Reads a "data" command and returns the bytes that follow it. */
+    private byte[] readData() {
+        String line = readLine();
+        if (line == null || !line.startsWith("data ")) {
+            throw error("expected data");
+        }
+        try {
+            int size = Integer.parseInt(line.substring(5));
+            byte[] data = in.readNBytes(size);
+            if (data.length != size) {
+                throw error("stream ends inside data");
+            }
+            for (byte b : data) {
+                if (b == '\n') {
+                    lineNumber += 1;
+                }
+            }
+            in.mark(1);
+            if (in.read() != '\n') {
+                in.reset();
+            } else {
+                lineNumber += 1;
+            }
+            return data;
+        } catch (NumberFormatException excp) {
+            throw error("bad data size '%s'", line.substring(5));
+        } catch (IOException excp) {
+            throw error(excp.getMessage());
+        }
+    }
+
+    /* OBJECTS */
+
+    /** Stores CONTENTS as a blob unless it exists, and returns its id. */
+    private String storeBlob(byte[] contents) {
+        String id = Utils.sha1(contents);
+        File f = Utils.join(repo.blobsFolder(), id);
+        if (!pending.containsKey(f) && !f.exists()) {
+            write(f, contents);
+            newBlobs += 1;
+        }
+        return id;
+    }
+
+    /** Queues CONTENTS to be written to F, writing the queue once it
+     *  holds a full batch of bytes. */
+    private void write(File f, byte[] contents) {
+        pending.put(f, contents);
+        pendingBytes += contents.length;
+        if (pendingBytes >= BATCH_BYTES) {
+            flush();
+        }
+    }
+
+    /** Writes every queued object, in parallel, each to a temporary file
+     *  renamed into place, so that a crash never leaves a partial object
+     *  under its id.  The commits that were written are added to
+     *  newCommits even if others fail. */
+    private void flush() {
+        File tmpDir = repo.tmpFolder();
+        try {
+            pending.entrySet().parallelStream().forEach(e -> {
+                // The import holds the repository exclusively, so a name
+                // made from the object's own is not in use; one left by a
+                // crash is overwritten.
+                File f = e.getKey();
+                File tmp = Utils.join(tmpDir, f.getParentFile().getName() + "-" + f.getName());
+                try {
+                    Files.write(tmp.toPath(), e.getValue());
+                    Files.move(tmp.toPath(), f.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                } catch (IOException excp) {
+                    tmp.delete();
+                    throw new IllegalArgumentException(excp.getMessage());
+                }
+            });
+        } finally {
+            for (String id : queuedCommits) {
+                if (Utils.join(repo.commitsFolder(), id).isFile()) {
+                    newCommits.add(id);
+                }
+            }
+            queuedCommits.clear();
+            pending.clear();
+            pendingBytes = 0;
+        }
+    }
+
+    /** Returns the blob map of commit ID. */
+    private FileMap tree(String id) {
+        FileMap tree = trees.get(id);
+        if (tree == null) {
+            File f = Utils.join(repo.commitsFolder(), id);
+            if (!f.isFile()) {
+                flush();
+            }
+            if (!f.isFile()) {
+                throw error("no commit %s", id);
+            }
+            tree = Utils.readObject(f, Commit.class).accessBlob();
+            trees.put(id, tree);
+        }
+        return tree;
+    }
+
+    /** Returns the object id REF names.  A full id must name an object
+     *  in FOLDER, written or queued. */
+    private String resolve(String ref, File folder) {
+        if (ref.startsWith(":")) {
+            String id = marks.get(ref);
+            if (id == null) {
+                throw error("unknown mark %s", ref);
+            }
+            return id;
+        } else if (ref.length() == Utils.UID_LENGTH && ref.matches("[0-9a-f]+")) {
+            File f = Utils.join(folder, ref);
+            if (!f.isFile() && !pending.containsKey(f)) {
+                throw error("no %s %s", folder == repo.blobsFolder() ? "blob" : "commit", ref);
+            }
+            return ref;
+        }
+        String branch = branchName(ref);
+        String id = branches.containsKey(branch) ? branches.get(branch)
+                : oldBranches.get(branch);
+        if (id == null) {
+            throw error("unknown ref %s", ref);
+        }
+        return id;
+    }
+
+    /** Returns the branch named by REF, with or without refs/heads/. */
+    private static String branchName(String ref) {
+        return ref.startsWith("refs/heads/") ? ref.substring(11) : ref;
+    }
+
+    /* LINES */
+
+    /** Returns the next line, without its terminator, or null at the end
+     *  of the stream. */
+    private String readLine() {
+        if (pushedBack != null) {
+            String line = pushedBack;
+            pushedBack = null;
+            return line;
+        }
+        try {
+            ByteArrayOutputStream line = new ByteArrayOutputStream();
+            int b = in.read();
+            if (b < 0) {
+                return null;
+            }
+            while (b >= 0 && b != '\n') {
+                line.write(b);
+                b = in.read();
+            }
+            lineNumber += 1;
+            return line.toString(StandardCharsets.UTF_8);
+        } catch (IOException excp) {
+            throw error(excp.getMessage());
+        }
+    }
+
+    private GitletException error(String msg, Object... args) {
+        return Utils.error("fast-import: line %d: %s", lineNumber - 1,
+                String.format(msg, args));
+    }
+}
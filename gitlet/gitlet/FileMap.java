@@ -0,0 +1,282 @@
+package gitlet;
+
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/** An immutable <FileName, Sha1> map, as a commit tracks its files.
+ *
+ *  The file names are kept in one sorted array, interned so that the
+ *  commits of a history share them, and the ids in one byte array, 20
+ *  bytes each, rather than as 40-digit strings.  Looking a file up is a
+ *  binary search.  The map reads as an ordinary sorted map whose values
+ *  are hex ids; those strings are made only when asked for.
+ *
+ *  A commit's map is made from its parent's with "with", which merges in
+ *  the staged changes in one pass instead of copying the parent's map
+ *  into a tree and changing that.
+ *
+ *  @author Nameera Faisal Akhtar
+ */
+final class FileMap extends AbstractMap<String, String>
+        implements SortedMap<String, String>, Serializable {
+
+    /** The map with no files. */
+    static final FileMap EMPTY = new FileMap(new String[0], new byte[0]);
+
+    /** The file names, sorted. */
+    private final String[] paths;
+
+    /** The id of paths[i], in bytes 20 * i to 20 * i + 19. */
+    private final byte[] ids;
+
+    private FileMap(String[] paths, byte[] ids) {
+        this.paths = paths;
+        this.ids = ids;
+    }
+
+    /** Returns a FileMap with the entries of FILES, whose values are hex
+     *  ids. */
+    static FileMap of(Map<String, String> files) {
+        if (files instanceof FileMap) {
+            return (FileMap) files;
+        }
+        String[] paths = files.keySet().toArray(new String[0]);
+        if (!(files instanceof SortedMap)
+                || ((SortedMap<String, String>) files).comparator() != null) {
+            Arrays.sort(paths);
+        }
+        byte[] ids = new byte[paths.length * ObjectId.LENGTH];
+        for (int i = 0; i < paths.length; i += 1) {
+            ObjectId.fromHex(files.get(paths[i])).copyTo(ids, i * ObjectId.LENGTH);
+            paths[i] = paths[i].intern();
+        }
+        return new FileMap(paths, ids);
+    }
+
+    /** Returns this map with the entries of ADDED, whose values are hex
+     *  ids, put in, and the files in REMOVED taken out. */
+    FileMap with(SortedMap<String, String> added, Set<String> removed) {
+        if (added.comparator() != null) {
+            // new TreeMap<>(added) would keep the comparator.
+            TreeMap<String, String> natural = new TreeMap<>();
+            natural.putAll(added);
+            return with(natural, removed);
+        }
+        String[] newPaths = new String[paths.length + added.size()];
+        byte[] newIds = new byte[newPaths.length * ObjectId.LENGTH];
+        int n = 0;
+        int i = 0;
+        Iterator<Map.Entry<String, String>> adds = added.entrySet().iterator();
+        Map.Entry<String, String> add = adds.hasNext() ? adds.next() : null;
+        while (i < paths.length || add != null) {
+            int c = i == paths.length ? 1 : add == null ? -1 : paths[i].compareTo(add.getKey());
+            if (c < 0) {
+                if (!removed.contains(paths[i])) {
+                    newPaths[n] = paths[i];
+                    System.arraycopy(ids, i * ObjectId.LENGTH, newIds, n * ObjectId.LENGTH,
+                            ObjectId.LENGTH);
+                    n += 1;
+                }
+                i += 1;
+            } else {
+                if (!removed.contains(add.getKey())) {
+                    newPaths[n] = c == 0 ? paths[i] : add.getKey().intern();
+                    ObjectId.fromHex(add.getValue()).copyTo(newIds, n * ObjectId.LENGTH);
+                    n += 1;
+                }
+                if (c == 0) {
+                    i += 1;
+                }
+                add = adds.hasNext() ? adds.next() : null;
+            }
+        }
+        return new FileMap(Arrays.copyOf(newPaths, n),
+                Arrays.copyOf(newIds, n * ObjectId.LENGTH));
+    }
+
+    /** Returns the id of FILENAME, or null if it is not in the map. */
+    ObjectId id(String fileName) {
+        int i = Arrays.binarySearch(paths, fileName);
+        return i < 0 ? null : ObjectId.fromBytes(ids, i * ObjectId.LENGTH);
+    }
+
+    /** Returns true iff FILENAME has the same id here as in OTHER, or is
+     *  in neither. */
+    boolean sameId(String fileName, FileMap other) {
+        int i = Arrays.binarySearch(paths, fileName);
+        int j = Arrays.binarySearch(other.paths, fileName);
+        if (i < 0 || j < 0) {
+            return i < 0 && j < 0;
+        }
+        return Arrays.equals(ids, i * ObjectId.LENGTH, (i + 1) * ObjectId.LENGTH,
+                other.ids, j * ObjectId.LENGTH, (j + 1) * ObjectId.LENGTH);
+    }
+
+    @Override
+    public int size() {
+        return paths.length;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return key instanceof String && Arrays.binarySearch(paths, key) >= 0;
+    }
+
+    @Override
+    public String get(Object key) {
+        if (!(key instanceof String)) {
+            return null;
+        }
+        int i = Arrays.binarySearch(paths, key);
+        return i < 0 ? null : ObjectId.toHex(ids, i * ObjectId.LENGTH);
+    }
+
+    @Override
+    public Set<String> keySet() {
+        return new AbstractSet<>() {
+            @Override
+            public Iterator<String> iterator() {
+                return Arrays.asList(paths).iterator();
+            }
+
+            @Override
+            public int size() {
+                return paths.length;
+            }
+
+            @Override
+            public boolean contains(Object o) {
+                return containsKey(o);
+            }
+        };
+    }
+
+    @Override
+    public Set<Map.Entry<String, String>> entrySet() {
+        return new AbstractSet<>() {
+            @Override
+            public Iterator<Map.Entry<String, String>> iterator() {
+                return new Iterator<>() {
+                    private int next;
+
+                    @Override
+                    public boolean hasNext() {
+                        return next < paths.length;
+                    }
+
+                    @Override
+                    public Map.Entry<String, String> next() {
+                        if (next >= paths.length) {
+                            throw new NoSuchElementException();
+                        }
+                        next += 1;
+                        return new AbstractMap.SimpleImmutableEntry<>(paths[next - 1],
+                                ObjectId.toHex(ids, (next - 1) * ObjectId.LENGTH));
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return paths.length;
+            }
+        };
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (obj instanceof FileMap) {
+            FileMap other = (FileMap) obj;
+            return Arrays.equals(paths, other.paths) && Arrays.equals(ids, other.ids);
+        }
+        return super.equals(obj);
+    }
+
+    @Override
+    public int hashCode() {
+        return super.hashCode();
+    }
+
+    /* SORTEDMAP.  The maps returned share nothing that can change, so
+     * copies serve as views. */
+
+    @Override
+    public Comparator<? super String> comparator() {
+        return null;
+    }
+
+    @Override
+    public SortedMap<String, String> subMap(String fromKey, String toKey) {
+        return range(Objects.requireNonNull(fromKey), Objects.requireNonNull(toKey));
+    }
+
+    @Override
+    public SortedMap<String, String> headMap(String toKey) {
+        return range(null, Objects.requireNonNull(toKey));
+    }
+
+    @Override
+    public SortedMap<String, String> tailMap(String fromKey) {
+        return range(Objects.requireNonNull(fromKey), null);
+    }
+
+    @Override
+    public String firstKey() {
+        if (paths.length == 0) {
+            throw new NoSuchElementException();
+        }
+        return paths[0];
+    }
+
+    @Override
+    public String lastKey() {
+        if (paths.length == 0) {
+            throw new NoSuchElementException();
+        }
+        return paths[paths.length - 1];
+    }
+
+    /** Returns the entries from FROMKEY, inclusive, to TOKEY, exclusive;
+     *  a null key leaves that end open. */
+    private FileMap range(String fromKey, String toKey) {
+        int from = fromKey == null ? 0 : insertionPoint(fromKey);
+        int to = toKey == null ? paths.length : insertionPoint(toKey);
+        if (from > to) {
+            throw new IllegalArgumentException("fromKey > toKey");
+        }
+        return new FileMap(Arrays.copyOfRange(paths, from, to),
+                Arrays.copyOfRange(ids, from * ObjectId.LENGTH, to * ObjectId.LENGTH));
+    }
+
+    /** Returns the index of the first path at or after KEY. */
+    private int insertionPoint(String key) {
+        int i = Arrays.binarySearch(paths, key);
+        return i >= 0 ? i : -i - 1;
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        if (paths == null || ids == null || ids.length != paths.length * ObjectId.LENGTH) {
+            throw new InvalidObjectException("corrupt file map");
+        }
+        for (int i = 0; i < paths.length; i += 1) {
+            if (i > 0 && paths[i - 1].compareTo(paths[i]) >= 0) {
+                throw new InvalidObjectException("file map out of order");
+            }
+            paths[i] = paths[i].intern();
+        }
+    }
+}
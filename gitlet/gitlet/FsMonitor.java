@@ -0,0 +1,349 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+
+/** An optional file-system monitor that lets status look only at the
+ *  working files that changed since it last ran.
+ *
+ *  The daemon, started with "java gitlet.Main fsmonitor", watches the
+ *  working directory with a WatchService and appends the name of every
+ *  file that is created, modified or deleted to the changed log in
+ *  .gitlet/fsmonitor.  It holds a lock on daemon.lock for as long as it
+ *  runs, so a client can tell whether it is alive.  The token file names
+ *  the current log: whenever the daemon starts, loses events to an
+ *  overflow, or lets the log grow too large, it writes a new token and
+ *  then empties the log.
+ *
+ *  The client keeps a cache of the sha1 of every working file, together
+ *  with the token and the offset in the log it has read up to.  To make
+ *  sure the log is complete up to the present, it creates a cookie file
+ *  in the monitor folder and waits for the daemon to log it.  It then
+ *  rehashes only the files named in the log after its offset.  If the
+ *  daemon is not running, the cookie does not show up, or the token has
+ *  changed, it falls back to hashing every working file.
+ *
+ *  @author Nameera Faisal Akhtar
+ */
+class FsMonitor {
+
+    /** Name of the monitor folder inside the .gitlet directory. */
+    static final String DIR_NAME = "fsmonitor";
+
+    /** Log lines starting with this character name cookie files rather
+     *  than working files; it cannot appear in a file name. */
+    private static final char COOKIE_MARK = '\0';
+
+    /** Log size in bytes past which the daemon starts a new log. */
+    private static final long MAX_LOG_BYTES = 1024 * 1024;
+
+    /** Milliseconds a client waits for its cookie to be logged. */
+    private static final long COOKIE_TIMEOUT_MS = 1000;
+
+    /** Name of the file whose creation asks the daemon to stop. */
+    private static final String STOP_FILE = "stop";
+
+    /** The working directory. */
+    private final File cwd;
+
+    /** The monitor folder. */
+    private final File dir;
+
+    /** The cache brought up to date by workingFiles and not yet saved,
+     *  or null. */
+    private Cache unsaved;
+
+    /** A monitor for the working directory CWD of the repository whose
+     *  .gitlet directory is GITLETDIR. */
+    FsMonitor(File cwd, File gitletDir) {
+        this.cwd = cwd;
+        this.dir = Utils.join(gitletDir, DIR_NAME);
+    }
+
+    /* DAEMON */
+
+    /** Runs the daemon until it is asked to stop.  It is an error if
+     *  another daemon is already running for this repository. */
+    void runDaemon() {
+        dir.mkdir();
+        Utils.join(dir, STOP_FILE).delete();
+        try (FileChannel lockChannel = FileChannel.open(lockFile().toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+             WatchService watcher = FileSystems.getDefault().newWatchService()) {
+            FileLock lock = lockChannel.tryLock();
+            if (lock == null) {
+                throw Utils.error("A file-system monitor is already running.");
+            }
+            Path cwdPath = cwd.toPath();
+            Path dirPath = dir.toPath();
+            cwdPath.register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+            dirPath.register(watcher, StandardWatchEventKinds.ENTRY_CREATE);
+            startNewLog();
+            while (true) {
+                WatchKey key = watcher.take();
+                StringBuilder lines = new StringBuilder();
+                boolean overflow = false;
+                boolean stop = false;
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        overflow = true;
+                        continue;
+                    }
+                    String name = ((Path) event.context()).toString();
+                    if (key.watchable().equals(dirPath)) {
+                        if (name.equals(STOP_FILE)) {
+                            stop = true;
+                        } else if (name.startsWith("cookie-")) {
+                            lines.append(COOKIE_MARK).append(name).append('\n');
+                        }
+                    } else if (!name.equals(".gitlet")) {
+                        lines.append(name).append('\n');
+                    }
+                }
+                if (overflow || logFile().length() > MAX_LOG_BYTES) {
+                    startNewLog();
+                } else if (lines.length() > 0) {
+                    appendToLog(lines.toString());
+                }
+                if (stop || !key.reset()) {
+                    Utils.join(dir, STOP_FILE).delete();
+                    lock.release();
+                    return;
+                }
+            }
+        } catch (IOException | ClosedWatchServiceException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /** Asks a running daemon to stop.  It is an error if none is
+     *  running. */
+    void stopDaemon() {
+        if (!isDaemonRunning()) {
+            throw Utils.error("No file-system monitor is running.");
+        }
+        Utils.writeContents(Utils.join(dir, STOP_FILE), "");
+    }
+
+    /** Gives the log a new token and empties it.  The token is written
+     *  first, so a client that reads the emptied log will see the token
+     *  change before trusting what it read. */
+    private void startNewLog() {
+        Utils.writeContents(tokenFile(), UUID.randomUUID().toString());
+        Utils.writeContents(logFile(), "");
+    }
+
+    private void appendToLog(String lines) {
+        try (FileChannel log = FileChannel.open(logFile().toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+            log.write(StandardCharsets.UTF_8.encode(lines));
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /* CLIENT */
+
+    /** What a client knows about the working directory. */
+    private static class Cache implements Serializable {
+        /** The token of the log this cache is up to date with. */
+        private String token;
+        /** The offset in the log up to which this cache is up to date. */
+        private long offset;
+        /** The working files, in a <FileName, Sha1> structure. */
+        private TreeMap<String, String> files;
+    }
+
+    /** Returns every plain file in the working directory with the sha1 of
+     *  its contents, in a <FileName, Sha1> structure.  Only rehashes the
+     *  files the daemon reports as changed if it can; otherwise hashes
+     *  them all. */
+    TreeMap<String, String> workingFiles() {
+        if (!isDaemonRunning()) {
+            return fullScan();
+        }
+        String token = readToken();
+        Cache cache = readCache();
+        if (token == null || !waitForCookie()) {
+            return fullScan();
+        }
+        if (cache == null || !token.equals(cache.token)) {
+            return rescan(token);
+        }
+        String log = readLog(cache.offset);
+        if (log == null || !token.equals(readToken())) {
+            return rescan(token);
+        }
+        int complete = log.lastIndexOf('\n') + 1;
+        Set<String> changed = new HashSet<>();
+        for (String line : log.substring(0, complete).split("\n")) {
+            if (!line.isEmpty() && line.charAt(0) != COOKIE_MARK) {
+                changed.add(line);
+            }
+        }
+        for (String fileName : changed) {
+            File f = Utils.join(cwd, fileName);
+            if (f.isFile()) {
+                cache.files.put(fileName, Utils.sha1(Utils.readContents(f)));
+            } else {
+                cache.files.remove(fileName);
+            }
+        }
+        cache.offset += log.substring(0, complete).getBytes(StandardCharsets.UTF_8).length;
+        unsaved = cache;
+        return cache.files;
+    }
+
+    /** Hashes every working file and makes the result the cache for the
+     *  log with token TOKEN.  The log's length is noted before the scan,
+     *  so changes made during the scan are looked at again next time. */
+    private TreeMap<String, String> rescan(String token) {
+        Cache cache = new Cache();
+        cache.token = token;
+        cache.offset = logFile().length();
+        cache.files = fullScan();
+        unsaved = cache;
+        return cache.files;
+    }
+
+    /** Returns true iff the last call to workingFiles brought the cache
+     *  up to date, and it has not been saved. */
+    boolean cacheChanged() {
+        return unsaved != null;
+    }
+
+    /** Saves the cache brought up to date by the last call to
+     *  workingFiles, if any, so that the next call starts from it.
+     *  Must be called with the repository locked exclusively. */
+    void saveCache() {
+        if (unsaved != null) {
+            Utils.writeObject(cacheFile(), unsaved);
+            unsaved = null;
+        }
+    }
+
+    /** Returns every plain working file with its sha1, hashing them all. */
+    private TreeMap<String, String> fullScan() {
+        TreeMap<String, String> files = new TreeMap<>();
+        for (String fileName : Utils.plainFilenamesIn(cwd)) {
+            files.put(fileName, Utils.sha1(Utils.readContents(Utils.join(cwd, fileName))));
+        }
+        return files;
+    }
+
+    /** Creates a cookie file and waits for the daemon to log it, which
+     *  shows that every change made before now is in the log.  Returns
+     *  false if it does not appear in time. */
+    private boolean waitForCookie() {
+        String cookie = "cookie-" + UUID.randomUUID();
+        File cookieFile = Utils.join(dir, cookie);
+        String mark = COOKIE_MARK + cookie + "\n";
+        try {
+            Utils.writeContents(cookieFile, "");
+            long deadline = System.currentTimeMillis() + COOKIE_TIMEOUT_MS;
+            while (System.currentTimeMillis() < deadline) {
+                String log = readLog(0);
+                if (log != null && log.contains(mark)) {
+                    return true;
+                }
+                Thread.sleep(2);
+            }
+            return false;
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            cookieFile.delete();
+        }
+    }
+
+    /** Returns true iff a daemon holds the lock for this repository. */
+    boolean isDaemonRunning() {
+        if (!lockFile().isFile()) {
+            return false;
+        }
+        try (FileChannel channel = FileChannel.open(lockFile().toPath(),
+                StandardOpenOption.WRITE)) {
+            FileLock lock = channel.tryLock();
+            if (lock == null) {
+                return true;
+            }
+            lock.release();
+            return false;
+        } catch (OverlappingFileLockException excp) {
+            return true;
+        } catch (IOException excp) {
+            return false;
+        }
+    }
+
+    /** Returns the log from byte OFFSET on, or null if it is shorter. */
+    private String readLog(long offset) {
+        try (RandomAccessFile log = new RandomAccessFile(logFile(), "r")) {
+            long length = log.length();
+            if (length < offset) {
+                return null;
+            }
+            byte[] bytes = new byte[(int) (length - offset)];
+            log.seek(offset);
+            log.readFully(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        } catch (IOException excp) {
+            return null;
+        }
+    }
+
+    private String readToken() {
+        File f = tokenFile();
+        return f.isFile() ? Utils.readContentsAsString(f) : null;
+    }
+
+    private Cache readCache() {
+        File f = cacheFile();
+        if (!f.isFile()) {
+            return null;
+        }
+        try {
+            return Utils.readObject(f, Cache.class);
+        } catch (IllegalArgumentException excp) {
+            return null;
+        }
+    }
+
+    private File lockFile() {
+        return Utils.join(dir, "daemon.lock");
+    }
+
+    private File tokenFile() {
+        return Utils.join(dir, "token");
+    }
+
+    private File logFile() {
+        return Utils.join(dir, "changed");
+    }
+
+    private File cacheFile() {
+        return Utils.join(dir, "cache");
+    }
+}
@@ -0,0 +1,267 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/** Verifies the objects of a repository.
+ *
+ *  Every blob is rehashed, streaming, and compared with its name.  Every
+ *  commit is read, its id recomputed, and its parents and the blobs it
+ *  tracks looked up.  These checks run on a pool of worker threads, one
+ *  task per object.  Then the branches, the current branch and the head
+ *  commit are checked against one another, and every object that no
+ *  branch, the head or the staging area leads to is reported as
+ *  dangling.
+ *
+ *  Dangling objects are only looked for when every commit could be read
+ *  and has its parents, since otherwise what the broken ones lead to is
+ *  unknown.
+ *
+ *  In incremental mode, only the objects written since the last run that
+ *  found no problems are checked, and dangling objects are not looked
+ *  for, since that needs every commit.  The time of that run is kept in
+ *  .gitlet/fsck-state.
+ *
+ *  @author Nameera Faisal Akhtar
+ */
+class Fsck {
+
+    /** Name of the file holding the time of the last clean run. */
+    static final String STATE_FILE = "fsck-state";
+
+    /** Milliseconds subtracted from the last run's time when choosing
+     *  objects to check incrementally, for file systems that keep
+     *  modification times coarsely. */
+    private static final long CLOCK_SLACK_MS = 2000;
+
+    /** The repository checked. */
+    private final Repository repo;
+
+    /** The problems found, one line each. */
+    private final ConcurrentLinkedQueue<String> problems = new ConcurrentLinkedQueue<>();
+
+    /** True iff a commit could not be read or was corrupt, in which case
+     *  what it leads to is unknown. */
+    private volatile boolean brokenCommit;
+
+    /** The parents and blobs of every commit read successfully, by id. */
+    private final ConcurrentHashMap<String, Commit> commits = new ConcurrentHashMap<>();
+
+    /** The time the last call to run started. */
+    private long started;
+
+    Fsck(Repository repo) {
+        this.repo = repo;
+    }
+
+    /** Checks the repository, only the objects written since the last
+     *  clean run iff INCREMENTAL, and returns the problems found, sorted. */
+    List<String> run(boolean incremental) {
+        started = System.currentTimeMillis();
+        long since = incremental ? lastCleanRun() - CLOCK_SLACK_MS : Long.MIN_VALUE;
+
+        List<File> blobs = objectFiles(repo.blobsFolder(), since);
+        List<File> commitFiles = objectFiles(repo.commitsFolder(), since);
+        ExecutorService pool = Executors.newFixedThreadPool(
+                Runtime.getRuntime().availableProcessors());
+        try {
+            List<Future<?>> tasks = new ArrayList<>();
+            for (File f : blobs) {
+                tasks.add(pool.submit(() -> checkBlob(f)));
+            }
+            for (File f : commitFiles) {
+                tasks.add(pool.submit(() -> checkCommit(f)));
+            }
+            for (Future<?> task : tasks) {
+                task.get();
+            }
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+            throw Utils.error("Interrupted.");
+        } catch (ExecutionException excp) {
+            throw new IllegalArgumentException(excp.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+
+        checkRefs();
+        if (!incremental && !brokenCommit) {
+            findDangling(blobs);
+        }
+
+        List<String> result = new ArrayList<>(problems);
+        Collections.sort(result);
+        return result;
+    }
+
+    /** Records that the last call to run found no problems, so that the
+     *  next incremental run checks only what was written since it
+     *  started.  Run only reads the repository; this writes it. */
+    void recordCleanRun() {
+        Utils.writeContents(Utils.join(repo.gitletDir(), STATE_FILE), Long.toString(started));
+    }
+
+    /** Returns the objects in DIR, whose names are their ids, modified at
+     *  or after SINCE. */
+    private static List<File> objectFiles(File dir, long since) {
+        List<File> result = new ArrayList<>();
+        for (String name : Utils.plainFilenamesIn(dir)) {
+            File f = Utils.join(dir, name);
+            if (name.length() == Utils.UID_LENGTH && f.lastModified() >= since) {
+                result.add(f);
+            }
+        }
+        return result;
+    }
+
+    private void checkBlob(File f) {
+        try (InputStream in = Files.newInputStream(f.toPath())) {
+            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            byte[] buffer = new byte[64 * 1024];
+            for (int n = in.read(buffer); n >= 0; n = in.read(buffer)) {
+                md.update(buffer, 0, n);
+            }
+            StringBuilder sha1 = new StringBuilder();
+            for (byte b : md.digest()) {
+                sha1.append(String.format("%02x", b));
+            }
+            if (!sha1.toString().equals(f.getName())) {
+                problems.add("corrupt blob " + f.getName());
+            }
+        } catch (IOException excp) {
+            problems.add("unreadable blob " + f.getName());
+        } catch (NoSuchAlgorithmException excp) {
+            throw new IllegalArgumentException("System does not support SHA-1");
+        }
+    }
+
+    private void checkCommit(File f) {
+        String id = f.getName();
+        Commit c;
+        try {
+            c = Utils.readObject(f, Commit.class);
+        } catch (RuntimeException excp) {
+            c = null;
+        }
+        if (c == null || !id.equals(c.accessId()) || !id.equals(c.recomputeId())) {
+            problems.add("corrupt commit " + id);
+            brokenCommit = true;
+            return;
+        }
+        commits.put(id, c);
+        for (String parent : c.getBothParents()) {
+            if (!Utils.join(repo.commitsFolder(), parent).isFile()) {
+                problems.add("missing commit " + parent + " (parent of " + id + ")");
+                brokenCommit = true;
+            }
+        }
+        for (String blobId : c.accessBlob().values()) {
+            if (!Utils.join(repo.blobsFolder(), blobId).isFile()) {
+                problems.add("missing blob " + blobId + " (in commit " + id + ")");
+            }
+        }
+    }
+
+    /** Checks that every branch and the head name existing commits, and
+     *  that the head is the commit at the current branch. */
+    private void checkRefs() {
+        TreeMap<String, String> branches = repo.branches();
+        for (Map.Entry<String, String> branch : branches.entrySet()) {
+            if (!Utils.join(repo.commitsFolder(), branch.getValue()).isFile()) {
+                problems.add("missing commit " + branch.getValue()
+                        + " (branch " + branch.getKey() + ")");
+            }
+        }
+        String current = repo.headBranch();
+        if (!branches.containsKey(current)) {
+            problems.add("current branch " + current + " does not exist");
+        }
+        Commit head;
+        try {
+            head = Utils.readObject(Utils.join(repo.commitsFolder(), "headFile"), Commit.class);
+        } catch (RuntimeException excp) {
+            problems.add("corrupt head");
+            return;
+        }
+        if (!Utils.join(repo.commitsFolder(), head.accessId()).isFile()) {
+            problems.add("missing commit " + head.accessId() + " (head)");
+        } else if (branches.containsKey(current)
+                && !head.accessId().equals(branches.get(current))) {
+            problems.add("head " + head.accessId() + " is not at branch " + current);
+        }
+    }
+
+    /** Reports the commits read, and the blobs BLOBS, that cannot be
+     *  reached from a branch, the head or the staging area. */
+    private void findDangling(List<File> blobs) {
+        Set<String> reachable = new HashSet<>();
+        Deque<String> todo = new ArrayDeque<>(repo.branches().values());
+        try {
+            Commit head = Utils.readObject(Utils.join(repo.commitsFolder(), "headFile"),
+                    Commit.class);
+            todo.add(head.accessId());
+        } catch (RuntimeException excp) {
+            // Reported by checkRefs.
+        }
+        while (!todo.isEmpty()) {
+            String id = todo.pop();
+            Commit c = commits.get(id);
+            if (c == null || !reachable.add(id)) {
+                continue;
+            }
+            for (String parent : c.getBothParents()) {
+                todo.push(parent);
+            }
+        }
+        Set<String> usedBlobs = new HashSet<>();
+        for (String id : reachable) {
+            usedBlobs.addAll(commits.get(id).accessBlob().values());
+        }
+        StagingArea stage = StageJournal.read(repo.stagingFolder());
+        usedBlobs.addAll(stage.accessAddedFiles().values());
+
+        for (String id : commits.keySet()) {
+            if (!reachable.contains(id)) {
+                problems.add("dangling commit " + id);
+            }
+        }
+        for (File f : blobs) {
+            if (!usedBlobs.contains(f.getName())) {
+                problems.add("dangling blob " + f.getName());
+            }
+        }
+    }
+
+    /** Returns the start time of the last run that found no problems, or
+     *  0 if there was none. */
+    private long lastCleanRun() {
+        File f = Utils.join(repo.gitletDir(), STATE_FILE);
+        if (!f.isFile()) {
+            return 0;
+        }
+        try {
+            return Long.parseLong(Utils.readContentsAsString(f).trim());
+        } catch (NumberFormatException excp) {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,362 @@
+package gitlet;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/** An embedded HTTP server giving read-only access to repositories,
+ *  started with "java gitlet.Main serve PORT [DIR ...]".  It listens on
+ *  the loopback address only, and serves each repository under the name
+ *  of its directory:
+ *
+ *      GET /repos                              the repository names
+ *      GET /repos/NAME/refs                    the current branch and the
+ *                                              head of every branch
+ *      GET /repos/NAME/log?start=REV&limit=N   commit metadata, following
+ *                                              first parents from REV (a
+ *                                              commit id or branch name,
+ *                                              the current branch by
+ *                                              default)
+ *      GET /repos/NAME/commits/ID              one commit's metadata
+ *      GET /repos/NAME/commits/ID/files        its <FileName, Sha1> map
+ *      GET /repos/NAME/blobs/ID                the raw contents of a blob
+ *
+ *  Metadata is JSON.  Each request runs on its own thread: a virtual
+ *  thread where the JVM has them, so that many slow clients do not tie
+ *  up as many platform threads, and otherwise a pooled one.  Each
+ *  request uses its own Repository object, so requests only ever wait on
+ *  one another through the repository lock, which they take shared.
+ *  Blob contents are streamed from the blob file a buffer at a time, so
+ *  a large blob is never held in memory whole.  A request that fails
+ *  with a Gitlet error gets a 404; one that fails in any other way, such
+ *  as on a damaged repository file, gets a 500.
+ *
+ *  @author Nameera Faisal Akhtar
+ */
+class HttpReadService {
+
+    /** The largest number of commits one log request returns. */
+    private static final int MAX_LOG = 1000;
+
+    /** The server. */
+    private final HttpServer server;
+
+    /** The threads requests run on. */
+    private final ExecutorService executor;
+
+    /** The working directories of the repositories served, by name. */
+    private final TreeMap<String, File> repos;
+
+    /** Counted down when the server stops. */
+    private final CountDownLatch stopped = new CountDownLatch(1);
+
+    /** A server on the loopback address at PORT (0 for any free port) for
+     *  the repositories REPOS, by name. */
+    HttpReadService(int port, Map<String, File> repos) throws IOException {
+        this.repos = new TreeMap<>(repos);
+        this.server = HttpServer.create(
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        this.executor = newExecutor();
+        server.setExecutor(executor);
+        server.createContext("/repos", this::handle);
+    }
+
+    /** Starts serving. */
+    void start() {
+        server.start();
+    }
+
+    /** Stops serving, letting requests in progress finish for at most a
+     *  second. */
+    void stop() {
+        server.stop(1);
+        executor.shutdown();
+        stopped.countDown();
+    }
+
+    /** Waits until the server is stopped. */
+    void awaitStop() throws InterruptedException {
+        stopped.await();
+    }
+
+    /** Returns the port the server listens on. */
+    int port() {
+        return server.getAddress().getPort();
+    }
+
+    /** Returns an executor that runs every task on a new virtual thread
+     *  if this JVM has them, and on a cached pool of platform threads
+     *  otherwise. */
+    private static ExecutorService newExecutor() {
+        try {
+            return (ExecutorService) Executors.class
+                    .getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException excp) {
+            return Executors.newCachedThreadPool(task -> {
+                Thread t = new Thread(task, "gitlet-http");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+    }
+
+    /* REQUESTS */
+
+    /** Answers the request EXCHANGE. */
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            if (!exchange.getRequestMethod().equals("GET")
+                    && !exchange.getRequestMethod().equals("HEAD")) {
+                exchange.getResponseHeaders().set("Allow", "GET, HEAD");
+                sendError(exchange, 405, "Only GET is supported.");
+                return;
+            }
+            URI uri = exchange.getRequestURI();
+            String[] parts = uri.getPath().replaceAll("/+$", "").split("/");
+            if (parts.length < 2 || !parts[1].equals("repos")) {
+                sendError(exchange, 404, "No such resource.");
+                return;
+            } else if (parts.length == 2) {
+                sendJson(exchange, Json.array(repos.keySet()));
+                return;
+            }
+            File dir = repos.get(parts[2]);
+            if (dir == null) {
+                sendError(exchange, 404, "No repository with that name exists.");
+                return;
+            }
+            Repository repo = new Repository(dir);
+            try {
+                route(exchange, repo, parts, Json.query(uri.getRawQuery()));
+            } catch (GitletException excp) {
+                sendError(exchange, 404, excp.getMessage());
+            } catch (RuntimeException excp) {
+                // The details stay in the server's log; they may name
+                // files and state that clients have no business seeing.
+                System.err.printf("%s %s failed:%n", exchange.getRequestMethod(), uri);
+                excp.printStackTrace();
+                sendError(exchange, 500, "Internal error.");
+            }
+        }
+    }
+
+    /** Answers EXCHANGE, whose path split at slashes is PARTS and whose
+     *  query parameters are QUERY, from REPO. */
+    private void route(HttpExchange exchange, Repository repo, String[] parts,
+                       Map<String, String> query) throws IOException {
+        String what = parts.length > 3 ? parts[3] : "";
+        if (parts.length == 4 && what.equals("refs")) {
+            TreeMap<String, Object> refs = new TreeMap<>();
+            refs.put("head", repo.headBranch());
+            refs.put("branches", repo.branches());
+            sendJson(exchange, Json.object(refs));
+        } else if (parts.length == 4 && what.equals("log")) {
+            String start = query.getOrDefault("start", repo.headBranch());
+            String head = repo.branches().get(start);
+            int limit = MAX_LOG;
+            if (query.containsKey("limit")) {
+                try {
+                    limit = Math.min(MAX_LOG, Integer.parseInt(query.get("limit")));
+                } catch (NumberFormatException excp) {
+                    sendError(exchange, 400, "The limit must be a number.");
+                    return;
+                }
+            }
+            StringBuilder result = new StringBuilder("[");
+            for (Commit c : repo.history(head != null ? head : start, limit)) {
+                if (result.length() > 1) {
+                    result.append(',');
+                }
+                result.append(commitJson(c));
+            }
+            sendJson(exchange, result.append(']').toString());
+        } else if (parts.length == 5 && what.equals("commits")) {
+            sendJson(exchange, commitJson(repo.commitInfo(parts[4])));
+        } else if (parts.length == 6 && what.equals("commits") && parts[5].equals("files")) {
+            sendJson(exchange, Json.object(repo.commitInfo(parts[4]).accessBlob()));
+        } else if (parts.length == 5 && what.equals("blobs")) {
+            sendFile(exchange, repo.blobFile(parts[4]));
+        } else {
+            sendError(exchange, 404, "No such resource.");
+        }
+    }
+
+    /** Returns the metadata of commit C as a JSON object. */
+    private static String commitJson(Commit c) {
+        TreeMap<String, Object> fields = new TreeMap<>();
+        fields.put("id", c.accessId());
+        fields.put("message", c.accessMessage());
+        fields.put("timestamp", c.accessTimestamp());
+        fields.put("parents", List.copyOf(c.getBothParents()));
+        return Json.object(fields);
+    }
+
+    /* RESPONSES */
+
+    private static void sendJson(HttpExchange exchange, String json) throws IOException {
+        send(exchange, 200, "application/json", json);
+    }
+
+    private static void sendError(HttpExchange exchange, int status, String message)
+            throws IOException {
+        send(exchange, status, "application/json",
+                Json.object(Map.of("error", message)));
+    }
+
+    /** Sends BODY with status STATUS and content type TYPE. */
+    private static void send(HttpExchange exchange, int status, String type, String body)
+            throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", type + "; charset=utf-8");
+        boolean head = exchange.getRequestMethod().equals("HEAD");
+        exchange.sendResponseHeaders(status, head ? -1 : bytes.length);
+        if (!head) {
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(bytes);
+            }
+        }
+    }
+
+    /** Sends the contents of FILE.  The response body is a stream, so
+     *  transferTo copies through a buffer rather than from file to
+     *  socket directly, but the file is never read into memory whole. */
+    private static void sendFile(HttpExchange exchange, File file) throws IOException {
+        try (FileChannel in = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = in.size();
+            exchange.getResponseHeaders().set("Content-Type", "application/octet-stream");
+            if (exchange.getRequestMethod().equals("HEAD")) {
+                exchange.getResponseHeaders().set("Content-Length", Long.toString(size));
+                exchange.sendResponseHeaders(200, -1);
+                return;
+            }
+            exchange.sendResponseHeaders(200, size == 0 ? -1 : size);
+            try (WritableByteChannel out = Channels.newChannel(exchange.getResponseBody())) {
+                long sent = 0;
+                while (sent < size) {
+                    sent += in.transferTo(sent, size - sent, out);
+                }
+            }
+        }
+    }
+
+    /* THE SERVE COMMAND */
+
+    /** Serves the repositories whose working directories are DIRS on
+     *  PORT until the JVM is stopped, after printing where. */
+    static void serve(int port, List<File> dirs) {
+        TreeMap<String, File> byName = new TreeMap<>();
+        for (File dir : dirs) {
+            Repository repo = new Repository(dir);
+            if (!repo.isInitialized()) {
+                throw Utils.error("Not in an initialized Gitlet directory.");
+            }
+            File absolute = dir.getAbsoluteFile().toPath().normalize().toFile();
+            if (byName.put(absolute.getName(), absolute) != null) {
+                throw Utils.error("Two repositories are named %s.", absolute.getName());
+            }
+        }
+        try {
+            HttpReadService service = new HttpReadService(port, byName);
+            service.start();
+            System.out.println("Serving " + String.join(", ", byName.keySet())
+                    + " on http://127.0.0.1:" + service.port() + "/repos");
+            service.awaitStop();
+        } catch (IOException excp) {
+            throw Utils.error("Unable to serve on port %d: %s", port, excp.getMessage());
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /** Just enough JSON for the responses above. */
+    private static class Json {
+
+        /** Returns the JSON object with the entries of FIELDS.  Values may
+         *  be strings, maps or lists of strings. */
+        static String object(Map<String, ?> fields) {
+            StringBuilder result = new StringBuilder("{");
+            for (Map.Entry<String, ?> e : fields.entrySet()) {
+                if (result.length() > 1) {
+                    result.append(',');
+                }
+                result.append(string(e.getKey())).append(':').append(value(e.getValue()));
+            }
+            return result.append('}').toString();
+        }
+
+        /** Returns the JSON array of the strings ITEMS. */
+        static String array(Iterable<String> items) {
+            StringBuilder result = new StringBuilder("[");
+            for (String item : items) {
+                if (result.length() > 1) {
+                    result.append(',');
+                }
+                result.append(string(item));
+            }
+            return result.append(']').toString();
+        }
+
+        @SuppressWarnings("unchecked")
+        private static String value(Object v) {
+            if (v == null) {
+                return "null";
+            } else if (v instanceof Map) {
+                return object((Map<String, ?>) v);
+            } else if (v instanceof List) {
+                return array((List<String>) v);
+            }
+            return string(v.toString());
+        }
+
+        /** Returns S as a JSON string literal. */
+        static String string(String s) {
+            StringBuilder result = new StringBuilder("\"");
+            for (char c : s.toCharArray()) {
+                if (c == '"' || c == '\\') {
+                    result.append('\\').append(c);
+                } else if (c < 0x20) {
+                    result.append(String.format("\\u%04x", (int) c));
+                } else {
+                    result.append(c);
+                }
+            }
+            return result.append('"').toString();
+        }
+
+        /** Returns the parameters of the raw query string RAW, decoded. */
+        static Map<String, String> query(String raw) {
+            TreeMap<String, String> result = new TreeMap<>();
+            if (raw == null) {
+                return result;
+            }
+            for (String pair : raw.split("&")) {
+                int eq = pair.indexOf('=');
+                if (eq > 0) {
+                    result.put(decode(pair.substring(0, eq)), decode(pair.substring(eq + 1)));
+                }
+            }
+            return result;
+        }
+
+        private static String decode(String s) {
+            return java.net.URLDecoder.decode(s, StandardCharsets.UTF_8);
+        }
+    }
+}
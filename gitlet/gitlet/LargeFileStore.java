@@ -0,0 +1,252 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+
+/** Out-of-line storage for large files.
+ *
+ *  A working file larger than the lfs.threshold setting is not stored as
+ *  a blob.  Its contents go to .gitlet/lfs, named by their sha1, and the
+ *  blob tracked in its place is a short pointer:
+ *
+ *      gitlet-lfs v1
+ *      oid SHA1
+ *      size BYTES
+ *
+ *  Commits, merges and the staging area handle pointers like any other
+ *  blob, and two pointers are equal iff the contents they point to are.
+ *
+ *  If lfs.store names a directory, it is the store shared by every
+ *  repository that names it: committing a large file copies it there,
+ *  and a large file missing from .gitlet/lfs is copied from it when
+ *  needed.
+ *
+ *  Checking out a large file writes the pointer itself to the working
+ *  directory, unless the file matches one of the globs in lfs.fetch.
+ *  "lfs pull" replaces pointers with the contents later.  A working file
+ *  holding its pointer, or the contents it points to, is unchanged.
+ *
+ *  @author Nameera Faisal Akhtar
+ */
+class LargeFileStore {
+
+    /** The first line of every pointer. */
+    private static final String HEADER = "gitlet-lfs v1\n";
+
+    /** An upper bound on the size of a pointer. */
+    private static final int MAX_POINTER_SIZE = 200;
+
+    /** The place of a large file: the sha1 and size of its contents. */
+    static class Pointer {
+        /** The sha1 of the contents. */
+        final String oid;
+        /** The length of the contents. */
+        final long size;
+
+        Pointer(String oid, long size) {
+            this.oid = oid;
+            this.size = size;
+        }
+
+        /** Returns the pointer as it is stored. */
+        byte[] bytes() {
+            return (HEADER + "oid " + oid + "\nsize " + size + "\n")
+                    .getBytes(StandardCharsets.UTF_8);
+        }
+    }
+
+    /** The local store. */
+    private final File objects;
+
+    /** The shared store, or null. */
+    private final File shared;
+
+    /** Files larger than this, in bytes, are stored out of line; 0 if
+     *  none are. */
+    private final long threshold;
+
+    /** Matchers for the files whose contents checkout writes. */
+    private final List<PathMatcher> fetch = new ArrayList<>();
+
+    /** The large-file store of the repository whose .gitlet directory is
+     *  GITLETDIR, with the settings in CONFIG. */
+    LargeFileStore(File gitletDir, Config config) {
+        objects = Utils.join(gitletDir, "lfs");
+        String store = config.get("lfs.store");
+        shared = store == null ? null : new File(store);
+        threshold = config.getLong("lfs.threshold", 0);
+        for (String glob : config.getList("lfs.fetch")) {
+            fetch.add(FileSystems.getDefault().getPathMatcher("glob:" + glob));
+        }
+    }
+
+    /** Returns true iff the working file F is stored out of line. */
+    boolean isLarge(File f) {
+        return isLarge(f.length());
+    }
+
+    /** Returns true iff a file of SIZE bytes is stored out of line. */
+    boolean isLarge(long size) {
+        return threshold > 0 && size > threshold;
+    }
+
+    /** Returns true iff checkout writes the contents of the large file
+     *  FILENAME rather than its pointer. */
+    boolean fetches(String fileName) {
+        for (PathMatcher m : fetch) {
+            if (m.matches(Paths.get(fileName))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Copies the working file F into the local store, streaming, and
+     *  returns its pointer. */
+    Pointer store(File f) {
+        try {
+            objects.mkdir();
+            File tmp = File.createTempFile("object", ".tmp", objects);
+            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            long size = 0;
+            byte[] buffer = new byte[64 * 1024];
+            try (InputStream in = Files.newInputStream(f.toPath());
+                 OutputStream out = Files.newOutputStream(tmp.toPath())) {
+                for (int n = in.read(buffer); n >= 0; n = in.read(buffer)) {
+                    md.update(buffer, 0, n);
+                    out.write(buffer, 0, n);
+                    size += n;
+                }
+            }
+            String oid = hex(md.digest());
+            File object = Utils.join(objects, oid);
+            if (object.exists()) {
+                tmp.delete();
+            } else {
+                Files.move(tmp.toPath(), object.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+            return new Pointer(oid, size);
+        } catch (IOException excp) {
+            throw Utils.error("Cannot store %s: %s", f.getName(), excp.getMessage());
+        } catch (NoSuchAlgorithmException excp) {
+            throw new IllegalArgumentException("System does not support SHA-1");
+        }
+    }
+
+    /** Returns the pointer held by BLOB, or null if it is an ordinary
+     *  blob. */
+    static Pointer pointer(File blob) {
+        if (!blob.isFile() || blob.length() > MAX_POINTER_SIZE) {
+            return null;
+        }
+        return parse(Utils.readContents(blob));
+    }
+
+    /** Returns the pointer CONTENTS hold, or null if they are not one. */
+    static Pointer parse(byte[] contents) {
+        String text = new String(contents, StandardCharsets.UTF_8);
+        if (contents.length > MAX_POINTER_SIZE || !text.startsWith(HEADER)) {
+            return null;
+        }
+        String[] lines = text.substring(HEADER.length()).split("\n");
+        if (lines.length != 2 || !lines[0].startsWith("oid ")
+                || !lines[1].startsWith("size ")) {
+            return null;
+        }
+        try {
+            return new Pointer(lines[0].substring(4), Long.parseLong(lines[1].substring(5)));
+        } catch (NumberFormatException excp) {
+            return null;
+        }
+    }
+
+    /** Returns the local copy of the contents P points to, copying it
+     *  from the shared store if need be. */
+    File object(Pointer p) {
+        File object = Utils.join(objects, p.oid);
+        if (!object.isFile()) {
+            File remote = shared == null ? null : new File(shared, p.oid);
+            if (remote == null || !remote.isFile()) {
+                throw Utils.error("Large file %s is not in any store.", p.oid);
+            }
+            copy(remote, object);
+        }
+        return object;
+    }
+
+    /** Copies the contents P points to into the shared store, if there is
+     *  one and they are not there yet. */
+    void upload(Pointer p) {
+        if (shared == null) {
+            return;
+        }
+        File remote = new File(shared, p.oid);
+        if (!remote.isFile()) {
+            shared.mkdirs();
+            copy(Utils.join(objects, p.oid), remote);
+        }
+    }
+
+    /** Writes the contents P points to into the working file F. */
+    void materialize(Pointer p, File f) {
+        try {
+            Files.copy(object(p).toPath(), f.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException excp) {
+            throw Utils.error("Cannot write %s: %s", f.getName(), excp.getMessage());
+        }
+    }
+
+    /** Returns true iff the working file F holds the contents P points
+     *  to. */
+    static boolean holds(File f, Pointer p) {
+        if (f.length() != p.size) {
+            return false;
+        }
+        try (InputStream in = Files.newInputStream(f.toPath())) {
+            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            byte[] buffer = new byte[64 * 1024];
+            for (int n = in.read(buffer); n >= 0; n = in.read(buffer)) {
+                md.update(buffer, 0, n);
+            }
+            return hex(md.digest()).equals(p.oid);
+        } catch (IOException excp) {
+            return false;
+        } catch (NoSuchAlgorithmException excp) {
+            throw new IllegalArgumentException("System does not support SHA-1");
+        }
+    }
+
+    /** Copies FROM to TO through a temporary file, so that TO is never
+     *  seen half written. */
+    private static void copy(File from, File to) {
+        try {
+            to.getParentFile().mkdirs();
+            File tmp = File.createTempFile("object", ".tmp", to.getParentFile());
+            Files.copy(from.toPath(), tmp.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            Files.move(tmp.toPath(), to.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException excp) {
+            throw Utils.error("Cannot copy large file %s: %s", from.getName(),
+                    excp.getMessage());
+        }
+    }
+
+    private static String hex(byte[] digest) {
+        StringBuilder result = new StringBuilder();
+        for (byte b : digest) {
+            result.append(String.format("%02x", b));
+        }
+        return result.toString();
+    }
+}
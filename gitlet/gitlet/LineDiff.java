@@ -0,0 +1,157 @@
+package gitlet;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/** Line diffs with Myers' O(ND) algorithm, in its linear-space form.
+ *
+ *  Rather than keep the furthest-reaching paths for every edit distance
+ *  in order to walk back from the end, which takes O((N+M)^2) space, each
+ *  step searches forward from the start and backward from the end at
+ *  once until the two meet.  Where they meet is the middle snake of a
+ *  shortest edit script; the parts before and after it are then diffed
+ *  the same way.  Space is O(N+M) and time is still O((N+M)D).  Lines are
+ *  numbered first, so comparing two is comparing two ints.
+ *
+ *  @author Nameera Faisal Akhtar
+ */
+class LineDiff {
+
+    /** Returns the lines of CONTENTS, without their line terminators. */
+    static List<String> lines(String contents) {
+        List<String> result = new ArrayList<>(Arrays.asList(contents.split("\n", -1)));
+        if (result.get(result.size() - 1).isEmpty()) {
+            result.remove(result.size() - 1);
+        }
+        return result;
+    }
+
+    /** Returns an array that gives, for each line of B, the index of the
+     *  line of A it is kept from in a shortest edit script turning A into
+     *  B, or -1 if it is inserted. */
+    static int[] match(List<String> a, List<String> b) {
+        HashMap<String, Integer> numbers = new HashMap<>();
+        int[] x = number(a, numbers);
+        int[] y = number(b, numbers);
+        int[] result = new int[y.length];
+        Arrays.fill(result, -1);
+        int size = 2 * ((x.length + y.length + 1) / 2) + 3;
+        new LineDiff(x, y, result, new int[size], new int[size])
+            .compare(0, x.length, 0, y.length);
+        return result;
+    }
+
+    /** Returns the numbers, from NUMBERS, of LINES, giving new lines new
+     *  numbers. */
+    private static int[] number(List<String> lines, HashMap<String, Integer> numbers) {
+        int[] result = new int[lines.size()];
+        int i = 0;
+        for (String line : lines) {
+            Integer n = numbers.putIfAbsent(line, numbers.size());
+            result[i] = n == null ? numbers.size() - 1 : n;
+            i += 1;
+        }
+        return result;
+    }
+
+    /** The two sequences of line numbers. */
+    private final int[] a, b;
+
+    /** For each line of B, the line of A it is kept from, or -1. */
+    private final int[] result;
+
+    /** The furthest-reaching x on each diagonal, forward and backward,
+     *  shared by all the steps. */
+    private final int[] forward, backward;
+
+    private LineDiff(int[] a, int[] b, int[] result, int[] forward, int[] backward) {
+        this.a = a;
+        this.b = b;
+        this.result = result;
+        this.forward = forward;
+        this.backward = backward;
+    }
+
+    /** Matches the lines ALO..AHI-1 of A with BLO..BHI-1 of B. */
+    private void compare(int aLo, int aHi, int bLo, int bHi) {
+        while (aLo < aHi && bLo < bHi && a[aLo] == b[bLo]) {
+            result[bLo] = aLo;
+            aLo += 1;
+            bLo += 1;
+        }
+        while (aLo < aHi && bLo < bHi && a[aHi - 1] == b[bHi - 1]) {
+            aHi -= 1;
+            bHi -= 1;
+            result[bHi] = aHi;
+        }
+        if (aLo == aHi || bLo == bHi) {
+            return;
+        }
+        int[] snake = middleSnake(aLo, aHi, bLo, bHi);
+        compare(aLo, snake[0], bLo, snake[1]);
+        for (int x = snake[0], y = snake[1]; x < snake[2]; x += 1, y += 1) {
+            result[y] = x;
+        }
+        compare(snake[2], aHi, snake[3], bHi);
+    }
+
+    /** Returns the start x and y and the end x and y of the middle snake
+     *  of a shortest edit script turning A[ALO..AHI-1] into
+     *  B[BLO..BHI-1], which differ in their first and last lines. */
+    private int[] middleSnake(int aLo, int aHi, int bLo, int bHi) {
+        int n = aHi - aLo;
+        int m = bHi - bLo;
+        int delta = n - m;
+        boolean odd = (delta & 1) != 0;
+        // Diagonal k is x - y, stored at OFFSET + k.  Backward, x and y
+        // count from the ends, so backward diagonal k is forward
+        // diagonal DELTA - k.
+        int offset = forward.length / 2;
+        forward[offset + 1] = 0;
+        backward[offset + 1] = 0;
+        for (int d = 0; d <= (n + m + 1) / 2; d += 1) {
+            for (int k = -d; k <= d; k += 2) {
+                int x = next(forward, offset, k, d);
+                int y = x - k;
+                int startX = x, startY = y;
+                while (x < n && y < m && a[aLo + x] == b[bLo + y]) {
+                    x += 1;
+                    y += 1;
+                }
+                forward[offset + k] = x;
+                int back = delta - k;
+                if (odd && back >= -(d - 1) && back <= d - 1
+                        && x + backward[offset + back] >= n) {
+                    return new int[] {aLo + startX, bLo + startY, aLo + x, bLo + y};
+                }
+            }
+            for (int k = -d; k <= d; k += 2) {
+                int x = next(backward, offset, k, d);
+                int y = x - k;
+                int startX = x, startY = y;
+                while (x < n && y < m && a[aHi - 1 - x] == b[bHi - 1 - y]) {
+                    x += 1;
+                    y += 1;
+                }
+                backward[offset + k] = x;
+                int fore = delta - k;
+                if (!odd && fore >= -d && fore <= d
+                        && x + forward[offset + fore] >= n) {
+                    return new int[] {aHi - x, bHi - y, aHi - startX, bHi - startY};
+                }
+            }
+        }
+        throw new IllegalStateException("no middle snake");
+    }
+
+    /** Returns the x at which the path on diagonal K with D edits starts
+     *  its snake, given the paths V with D - 1 edits. */
+    private static int next(int[] v, int offset, int k, int d) {
+        if (k == -d || (k != d && v[offset + k - 1] < v[offset + k + 1])) {
+            return v[offset + k + 1];
+        }
+        return v[offset + k - 1] + 1;
+    }
+}
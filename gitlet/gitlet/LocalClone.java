@@ -0,0 +1,83 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/** Brings the files of one repository into a new one on the same
+ *  machine, for clone.
+ *
+ *  Blobs, commits and large files are named by their sha1 and never
+ *  written again once they exist, so the two repositories can share
+ *  them: each is hard-linked, which takes no space and no time to copy.
+ *  If the file system cannot link them (the two repositories are on
+ *  different file systems, say), they are copied instead.  Files that
+ *  change, such as branches and indexes, are always copied.
+ *
+ *  @author Nameera Faisal Akhtar
+ */
+class LocalClone {
+
+    /** Number of files linked and copied so far. */
+    private int linked, copied;
+
+    /** True once a link has failed; the rest are copied. */
+    private boolean copying;
+
+    /** Links or copies every object in the folder FROM, a file named by a
+     *  sha1, into the folder TO.  Anything else there, such as temporary
+     *  files, is left behind. */
+    void shareObjects(File from, File to) {
+        if (!from.isDirectory()) {
+            return;
+        }
+        to.mkdirs();
+        for (String name : Utils.plainFilenamesIn(from)) {
+            if (ObjectId.isHex(name)) {
+                share(Utils.join(from, name), Utils.join(to, name));
+            }
+        }
+    }
+
+    /** Copies the file FROM, if it exists, to TO. */
+    void copy(File from, File to) {
+        if (!from.isFile()) {
+            return;
+        }
+        try {
+            Files.copy(from.toPath(), to.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            copied += 1;
+        } catch (IOException excp) {
+            throw Utils.error("Cannot copy %s: %s", from, excp.getMessage());
+        }
+    }
+
+    /** Returns the number of files linked. */
+    int linked() {
+        return linked;
+    }
+
+    /** Returns the number of files copied. */
+    int copied() {
+        return copied;
+    }
+
+    /** Links TO to the object FROM, or copies it if links cannot be
+     *  made. */
+    private void share(File from, File to) {
+        if (!copying) {
+            try {
+                Files.createLink(to.toPath(), from.toPath());
+                linked += 1;
+                return;
+            } catch (UnsupportedOperationException | FileSystemException excp) {
+                copying = true;
+            } catch (IOException excp) {
+                throw Utils.error("Cannot link %s: %s", from, excp.getMessage());
+            }
+        }
+        copy(from, to);
+    }
+}
@@ -1,8 +1,13 @@
 package gitlet;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 /** Driver class for Gitlet, a subset of the Git version-control system.
+ *  A thin adapter from the command line to a Repository for the current
+ *  directory: errors the repository reports are printed here.
  *  @author Nameera Faisal Akhtar
  */
 public class Main {
@@ -16,118 +21,308 @@ public class Main {
         }
 
         else {
-            String firstArg = args[0];
-            switch(firstArg) {
-                case "init":
-                    if (args.length == 1) {
-                        Repository.init();
-                    } else {
-                        System.out.println("Incorrect operands.");
-                    }
-                    break;
-                case "add":
-                    if (args.length == 2) {
-                        Repository.add(args[1]);
-                    } else {
-                        System.out.println("Incorrect operands.");
-                    }
-                    break;
-                case "commit":
-                    if (args.length == 2) {
-                        Repository.commit(args[1]);
-                    } else {
-                        System.out.println("Incorrect operands.");
-                    }
-                    break;
-                case "rm":
-                    if (args.length == 2) {
-                        Repository.rm(args[1]);
-                    } else {
-                        System.out.println("Incorrect operands.");
-                    }
-                    break;
-                case "log":
-                    if (args.length == 1) {
-                        Repository.log();
-                    } else {
-                        System.out.println("Incorrect operands.");
-                    }
-                    break;
-                case "global-log":
-                    if (args.length == 1) {
-                        Repository.globalLog();
-                    } else {
-                        System.out.println("Incorrect operands.");
-                    }
-                    break;
-                case "find":
-                    if (args.length == 2) {
-                        Repository.find(args[1]);
-                    } else {
-                        System.out.println("Incorrect operands.");
-                    }
-                    break;
-                case "status":
-                    checkForExistence();
-                    if (args.length == 1) {
-                        Repository.status();
-                    } else {
-                        System.out.println("Incorrect operands.");
-                    }
-                    break;
-                case "checkout":
-                    if (args.length == 3 && args[1].equals("--")) {
-                        Repository.checkoutFileName(args[2]);
-                    }
-                    else if (args.length == 4 && args[2].equals("--")) {
-                        Repository.checkoutCommitIdFileName(args[1], args[3]);
-                    }
-                    else if (args.length == 2) {
-                        Repository.checkoutBranchName(args[1]);
-                    }
-                    else {
-                        System.out.println("Incorrect operands.");
-                    }
-                    break;
-                case "branch":
-                    if (args.length == 2) {
-                        Repository.branch(args[1]);
-                    } else {
-                        System.out.println("Incorrect operands.");
-                    }
-                    break;
-                case "rm-branch":
-                    if (args.length == 2) {
-                        Repository.rmBranch(args[1]);
-                    } else {
-                        System.out.println("Incorrect operands.");
-                    }
-                    break;
-                case "reset":
-                    if (args.length == 2) {
-                        Repository.reset(args[1]);
-                    } else {
-                        System.out.println("Incorrect operands.");
+            Repository repo = new Repository(new File(System.getProperty("user.dir")));
+            repo.setCommandLine(String.join(" ", args));
+            try {
+                run(repo, args);
+            } catch (GitletException excp) {
+                System.out.println(excp.getMessage());
+            }
+        }
+        System.exit(0);
+    }
+
+    /** Runs the command ARGS on REPO. */
+    private static void run(Repository repo, String[] args) {
+        String firstArg = args[0];
+        switch(firstArg) {
+            case "init":
+                if (args.length == 1) {
+                    repo.init();
+                } else {
+                    System.out.println("Incorrect operands.");
+                }
+                break;
+            case "clone":
+                if (args.length == 2) {
+                    repo.cloneFrom(new File(args[1]));
+                } else {
+                    System.out.println("Incorrect operands.");
+                }
+                break;
+            case "add":
+                if (args.length == 2 && !isBulkAdd(args[1])) {
+                    repo.add(args[1]);
+                } else if (args.length >= 2) {
+                    repo.add(Arrays.asList(args).subList(1, args.length));
+                } else {
+                    System.out.println("Incorrect operands.");
+                }
+                break;
+            case "commit":
+                if (args.length == 2) {
+                    repo.commit(args[1]);
+                } else {
+                    System.out.println("Incorrect operands.");
+                }
+                break;
+            case "rm":
+                if (args.length == 2) {
+                    repo.rm(args[1]);
+                } else {
+                    System.out.println("Incorrect operands.");
+                }
+                break;
+            case "log":
+                if (args.length == 1) {
+                    repo.log();
+                } else if (args.length == 3 && args[1].equals("--")) {
+                    repo.log(args[2]);
+                } else {
+                    System.out.println("Incorrect operands.");
+                }
+                break;
+            case "blame":
+                if (args.length == 2) {
+                    repo.blame(args[1]);
+                } else {
+                    System.out.println("Incorrect operands.");
+                }
+                break;
+            case "global-log":
+                if (args.length == 1) {
+                    repo.globalLog();
+                } else {
+                    System.out.println("Incorrect operands.");
+                }
+                break;
+            case "find":
+                if (args.length == 2) {
+                    repo.find(args[1]);
+                } else {
+                    System.out.println("Incorrect operands.");
+                }
+                break;
+            case "status":
+                checkForExistence(repo);
+                if (args.length == 1) {
+                    repo.status();
+                } else if (args.length == 2 && args[1].equals("-M")) {
+                    repo.status(true);
+                } else {
+                    System.out.println("Incorrect operands.");
+                }
+                break;
+            case "checkout":
+                if (args.length == 3 && args[1].equals("--")) {
+                    repo.checkoutFileName(args[2]);
+                }
+                else if (args.length == 4 && args[2].equals("--")) {
+                    repo.checkoutCommitIdFileName(args[1], args[3]);
+                }
+                else if (args.length == 2) {
+                    repo.checkoutBranchName(args[1]);
+                }
+                else {
+                    System.out.println("Incorrect operands.");
+                }
+                break;
+            case "branch":
+                if (args.length == 2) {
+                    repo.branch(args[1]);
+                } else {
+                    System.out.println("Incorrect operands.");
+                }
+                break;
+            case "rm-branch":
+                if (args.length == 2) {
+                    repo.rmBranch(args[1]);
+                } else {
+                    System.out.println("Incorrect operands.");
+                }
+                break;
+            case "fsmonitor":
+                checkForExistence(repo);
+                if (args.length == 1) {
+                    repo.fsmonitor("start");
+                } else if (args.length == 2 && args[1].equals("stop")) {
+                    repo.fsmonitor("stop");
+                } else {
+                    System.out.println("Incorrect operands.");
+                }
+                break;
+            case "pack-refs":
+                checkForExistence(repo);
+                if (args.length == 1) {
+                    repo.packRefs();
+                } else {
+                    System.out.println("Incorrect operands.");
+                }
+                break;
+            case "serve":
+                if (args.length >= 2 && args[1].matches("[0-9]+")) {
+                    List<File> dirs = new ArrayList<>();
+                    for (int i = 2; i < args.length; i += 1) {
+                        dirs.add(new File(args[i]));
                     }
-                    break;
-                case "merge":
-                    if (args.length == 2) {
-                        Repository.merge(args[1]);
-                    } else {
-                        System.out.println("Incorrect operands.");
+                    if (dirs.isEmpty()) {
+                        dirs.add(new File(System.getProperty("user.dir")));
                     }
-                    break;
-                default:
-                    System.out.println("No command with that name exists.");
+                    HttpReadService.serve(Integer.parseInt(args[1]), dirs);
+                } else {
+                    System.out.println("Incorrect operands.");
+                }
+                break;
+            case "sparse-checkout":
+                checkForExistence(repo);
+                if (args.length >= 3 && (args[1].equals("set") || args[1].equals("add"))) {
+                    repo.sparseCheckout(args[1], Arrays.asList(args).subList(2, args.length));
+                } else if (args.length == 2
+                        && (args[1].equals("list") || args[1].equals("disable"))) {
+                    repo.sparseCheckout(args[1], List.of());
+                } else {
+                    System.out.println("Incorrect operands.");
+                }
+                break;
+            case "cherry-pick":
+                if (args.length == 2) {
+                    repo.cherryPick(args[1]);
+                } else {
+                    System.out.println("Incorrect operands.");
+                }
+                break;
+            case "rebase":
+                if (args.length == 2) {
+                    repo.rebase(args[1]);
+                } else {
+                    System.out.println("Incorrect operands.");
+                }
+                break;
+            case "archive":
+                checkForExistence(repo);
+                archive(repo, args);
+                break;
+            case "config":
+                checkForExistence(repo);
+                if (args.length == 1) {
+                    repo.config(null, null, false);
+                } else if (args.length == 2 && !args[1].startsWith("-")) {
+                    repo.config(args[1], null, false);
+                } else if (args.length == 3 && args[1].equals("--unset")) {
+                    repo.config(args[2], null, true);
+                } else if (args.length == 3) {
+                    repo.config(args[1], args[2], false);
+                } else {
+                    System.out.println("Incorrect operands.");
+                }
+                break;
+            case "lfs":
+                checkForExistence(repo);
+                if (args.length >= 2 && args[1].equals("pull")) {
+                    repo.lfs("pull", Arrays.asList(args).subList(2, args.length));
+                } else if (args.length == 2 && args[1].equals("ls-files")) {
+                    repo.lfs("ls-files", List.of());
+                } else {
+                    System.out.println("Incorrect operands.");
+                }
+                break;
+            case "fast-import":
+                checkForExistence(repo);
+                if (args.length == 1) {
+                    repo.fastImport(System.in);
+                } else {
+                    System.out.println("Incorrect operands.");
+                }
+                break;
+            case "fast-export":
+                checkForExistence(repo);
+                if (args.length == 1) {
+                    repo.fastExport();
+                } else {
+                    System.out.println("Incorrect operands.");
+                }
+                break;
+            case "reflog":
+                checkForExistence(repo);
+                if (args.length <= 2) {
+                    repo.reflog(args.length == 2 ? args[1] : RefLog.HEAD);
+                } else {
+                    System.out.println("Incorrect operands.");
+                }
+                break;
+            case "merge-base":
+                checkForExistence(repo);
+                if (args.length == 3) {
+                    repo.mergeBase(args[1], args[2], false);
+                } else if (args.length == 4 && args[1].equals("--all")) {
+                    repo.mergeBase(args[2], args[3], true);
+                } else {
+                    System.out.println("Incorrect operands.");
+                }
+                break;
+            case "fsck":
+                checkForExistence(repo);
+                if (args.length == 1) {
+                    repo.fsck(false);
+                } else if (args.length == 2 && args[1].equals("--incremental")) {
+                    repo.fsck(true);
+                } else {
+                    System.out.println("Incorrect operands.");
+                }
+                break;
+            case "reset":
+                if (args.length == 2) {
+                    repo.reset(args[1]);
+                } else {
+                    System.out.println("Incorrect operands.");
+                }
+                break;
+            case "merge":
+                if (args.length == 2) {
+                    repo.merge(args[1]);
+                } else {
+                    System.out.println("Incorrect operands.");
+                }
+                break;
+            default:
+                System.out.println("No command with that name exists.");
+        }
+    }
+
+    /** Returns true iff the single operand ARG of add names more than
+     *  one file: "-A", "." or a glob pattern. */
+    private static boolean isBulkAdd(String arg) {
+        return arg.equals("-A") || arg.equals(".") || arg.indexOf('*') >= 0
+                || arg.indexOf('?') >= 0 || arg.indexOf('[') >= 0
+                || arg.indexOf('{') >= 0;
+    }
+
+    /** Runs "archive COMMIT [--format=tar|zip] [-o FILE]" on REPO. */
+    private static void archive(Repository repo, String[] args) {
+        String format = "tar";
+        File output = null;
+        int i = 2;
+        for (; i < args.length; i += 1) {
+            if (args[i].startsWith("--format=")) {
+                format = args[i].substring(9);
+            } else if (args[i].equals("-o") && i + 1 < args.length) {
+                i += 1;
+                output = new File(args[i]);
+            } else {
+                break;
             }
         }
-        System.exit(0);
+        if (args.length < 2 || i < args.length
+                || !(format.equals("tar") || format.equals("zip"))) {
+            System.out.println("Incorrect operands.");
+            return;
+        }
+        repo.archive(args[1], format, output);
     }
 
-    private static void checkForExistence() {
-        if (!Repository.GITLET_DIR.isDirectory()) {
-            System.out.println("Not in an initialized Gitlet directory.");
-            System.exit(0);
+    private static void checkForExistence(Repository repo) {
+        if (!repo.isInitialized()) {
+            throw new GitletException("Not in an initialized Gitlet directory.");
         }
     }
 }
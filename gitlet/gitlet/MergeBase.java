@@ -0,0 +1,293 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.function.BinaryOperator;
+import java.util.function.Function;
+
+/** The merge bases of two commits: their common ancestors that are not
+ *  ancestors of other common ancestors.
+ *
+ *  Every commit is given a generation number, one more than the largest
+ *  of its parents' (1 for a root), so a commit's generation is always
+ *  greater than any of its ancestors'.  The generations and parents of
+ *  the commits seen so far are kept in .gitlet/commit-graph, so walks
+ *  need not read the commits themselves again.
+ *
+ *  The bases are found as git does, by painting the ancestors of one
+ *  commit with one color and those of the other with a second, visiting
+ *  commits in decreasing generation.  A commit reached with both colors
+ *  is a base, and everything below it is marked stale.  Since a commit is
+ *  only visited once all its descendants in the walk have been, a common
+ *  ancestor below a base is always stale by the time it is visited, and
+ *  the walk stops as soon as only stale commits remain.
+ *
+ *  After criss-cross merges there can be several bases.  Merge then uses
+ *  a virtual base, as git's recursive strategy does: the bases are merged
+ *  with each other, oldest first, each pair over its own merge base, and
+ *  a file that conflicts there keeps its conflict markers in the virtual
+ *  base.
+ *
+ *  @author Nameera Faisal Akhtar
+ */
+class MergeBase implements Serializable {
+
+    /** Name of the file holding the graph inside the .gitlet directory. */
+    static final String FILE_NAME = "commit-graph";
+
+    /** Colors of the painting walk. */
+    private static final int PARENT1 = 1, PARENT2 = 2, STALE = 4;
+
+    /** Prefix of the ids given to virtual commits. */
+    private static final String VIRTUAL = "virtual-";
+
+    /** What is known about one commit. */
+    private static class Node implements Serializable {
+        /** The ids of its parents. */
+        private final String[] parents;
+        /** Its generation number. */
+        private final int generation;
+
+        Node(String[] parents, int generation) {
+            this.parents = parents;
+            this.generation = generation;
+        }
+    }
+
+    /** A commit waiting in the painting walk. */
+    private static class Item implements Comparable<Item> {
+        /** The commit's id. */
+        private final String id;
+        /** Its generation number. */
+        private final int generation;
+
+        Item(String id, int generation) {
+            this.id = id;
+            this.generation = generation;
+        }
+
+        @Override
+        public int compareTo(Item other) {
+            // Highest generation first; ties by id, so walks are repeatable.
+            if (generation != other.generation) {
+                return Integer.compare(other.generation, generation);
+            }
+            return id.compareTo(other.id);
+        }
+    }
+
+    /** The nodes, by commit id. */
+    private final HashMap<String, Node> nodes = new HashMap<>();
+
+    /** The parents of a commit not yet in NODES. */
+    private transient Function<String, List<String>> parentsOf;
+
+    /** The repository the graph is saved in, or null. */
+    private transient Repository repo;
+
+    /** True iff nodes were added since the graph was read. */
+    private transient boolean changed;
+
+    /** The virtual commits made by base, and their files. */
+    private transient HashMap<String, Node> virtualNodes;
+    private transient HashMap<String, FileMap> virtualFiles;
+
+    /** A graph, not saved anywhere, in which PARENTSOF gives the parents
+     *  of each commit. */
+    MergeBase(Function<String, List<String>> parentsOf) {
+        this.parentsOf = parentsOf;
+        this.virtualNodes = new HashMap<>();
+        this.virtualFiles = new HashMap<>();
+    }
+
+    /** Returns the graph stored in REPO, or an empty one. */
+    static MergeBase load(Repository repo) {
+        File f = Utils.join(repo.gitletDir(), FILE_NAME);
+        MergeBase graph = f.isFile() ? Utils.readObject(f, MergeBase.class) : new MergeBase(null);
+        graph.parentsOf = id -> {
+            Commit c = repo.commitFromId(id);
+            List<String> parents = new ArrayList<>();
+            if (c.accessParent1() != null) {
+                parents.add(c.accessParent1());
+            }
+            if (c.accessParent2() != null) {
+                parents.add(c.accessParent2());
+            }
+            return parents;
+        };
+        graph.repo = repo;
+        graph.virtualNodes = new HashMap<>();
+        graph.virtualFiles = new HashMap<>();
+        return graph;
+    }
+
+    /** Saves this graph in its repository if nodes were added, through a
+     *  temporary file renamed into place.  Only a session that holds the
+     *  repository exclusively saves it. */
+    void save() {
+        if (!changed || repo == null || !repo.canWrite()) {
+            return;
+        }
+        File f = Utils.join(repo.gitletDir(), FILE_NAME);
+        try {
+            File tmp = File.createTempFile(FILE_NAME, ".tmp", repo.tmpFolder());
+            Utils.writeObject(tmp, this);
+            Files.move(tmp.toPath(), f.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        changed = false;
+    }
+
+    /** Returns true iff nodes were added since the graph was read or
+     *  saved. */
+    boolean changed() {
+        return changed;
+    }
+
+    /** Returns the generation number of the commit ID. */
+    int generation(String id) {
+        return node(id).generation;
+    }
+
+    /** Returns the merge bases of the commits A and B, newest first. */
+    List<String> bases(String a, String b) {
+        List<String> result = new ArrayList<>();
+        if (a.equals(b)) {
+            result.add(a);
+            return result;
+        }
+        HashMap<String, Integer> colors = new HashMap<>();
+        PriorityQueue<Item> queue = new PriorityQueue<>();
+        colors.put(a, PARENT1);
+        colors.put(b, PARENT2);
+        queue.add(new Item(a, generation(a)));
+        queue.add(new Item(b, generation(b)));
+        // Each commit is queued once, when first painted: everything that
+        // paints it has a higher generation, so it is still waiting.
+        int live = 2;
+        while (live > 0) {
+            Item item = queue.remove();
+            int color = colors.get(item.id);
+            if ((color & STALE) == 0) {
+                live -= 1;
+                if (color == (PARENT1 | PARENT2)) {
+                    result.add(item.id);
+                    color |= STALE;
+                }
+            }
+            for (String parent : node(item.id).parents) {
+                Integer old = colors.get(parent);
+                if (old == null) {
+                    colors.put(parent, color);
+                    queue.add(new Item(parent, generation(parent)));
+                    if ((color & STALE) == 0) {
+                        live += 1;
+                    }
+                } else if ((old | color) != old) {
+                    colors.put(parent, old | color);
+                    if ((old & STALE) == 0 && (color & STALE) != 0) {
+                        live -= 1;
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    /** Returns the files of the base to merge the commits A and B over,
+     *  or null if they have no common ancestor.  FILES gives the files of
+     *  a commit, and CONFLICT the blob to use for a file whose versions in
+     *  two merge bases, OURS and THEIRS (either null if absent), conflict
+     *  while making a virtual base. */
+    FileMap base(String a, String b, Function<String, FileMap> files,
+                 BinaryOperator<String> conflict) {
+        List<String> bases = bases(a, b);
+        if (bases.isEmpty()) {
+            return null;
+        }
+        Collections.reverse(bases);
+        String merged = bases.get(0);
+        FileMap mergedFiles = filesOf(merged, files);
+        for (String other : bases.subList(1, bases.size())) {
+            FileMap inner = base(merged, other, files, conflict);
+            FileMap otherFiles = filesOf(other, files);
+            ThreeWayMerge merge = new ThreeWayMerge(inner == null ? FileMap.EMPTY : inner,
+                    mergedFiles, otherFiles);
+            TreeMap<String, String> result = merge.result();
+            for (String fileName : merge.conflicts()) {
+                result.put(fileName, conflict.apply(mergedFiles.get(fileName),
+                        otherFiles.get(fileName)));
+            }
+            String id = VIRTUAL + virtualNodes.size();
+            virtualNodes.put(id, new Node(new String[] {merged, other},
+                    Math.max(generation(merged), generation(other)) + 1));
+            mergedFiles = FileMap.of(result);
+            virtualFiles.put(id, mergedFiles);
+            merged = id;
+        }
+        return mergedFiles;
+    }
+
+    /** Returns the files of the commit ID, real or virtual, using FILES
+     *  for real ones. */
+    private FileMap filesOf(String id, Function<String, FileMap> files) {
+        FileMap result = virtualFiles.get(id);
+        return result != null ? result : files.apply(id);
+    }
+
+    /** Returns the node of ID, first adding it and any ancestors that are
+     *  missing.  The walk keeps its own stack, as histories can be far
+     *  deeper than the call stack. */
+    private Node node(String id) {
+        Node result = virtualNodes.get(id);
+        if (result == null) {
+            result = nodes.get(id);
+        }
+        if (result != null) {
+            return result;
+        }
+        HashMap<String, String[]> pending = new HashMap<>();
+        Deque<String> stack = new ArrayDeque<>();
+        stack.push(id);
+        while (!stack.isEmpty()) {
+            String top = stack.peek();
+            if (nodes.containsKey(top)) {
+                stack.pop();
+                continue;
+            }
+            String[] parents = pending.computeIfAbsent(top,
+                k -> parentsOf.apply(k).toArray(new String[0]));
+            int generation = 0;
+            boolean ready = true;
+            for (String parent : parents) {
+                Node p = nodes.get(parent);
+                if (p == null) {
+                    stack.push(parent);
+                    ready = false;
+                } else {
+                    generation = Math.max(generation, p.generation);
+                }
+            }
+            if (ready) {
+                stack.pop();
+                pending.remove(top);
+                nodes.put(top, new Node(parents, generation + 1));
+                changed = true;
+            }
+        }
+        return nodes.get(id);
+    }
+}
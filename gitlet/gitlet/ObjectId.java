@@ -0,0 +1,131 @@
+package gitlet;
+
+/** A sha1 object id held as its 20 bytes rather than 40 hex digits.
+ *
+ *  @author Nameera Faisal Akhtar
+ */
+final class ObjectId implements Comparable<ObjectId> {
+
+    /** The number of bytes in an id. */
+    static final int LENGTH = 20;
+
+    /** Bytes 0-7, 8-15 and 16-19 of the id, big-endian. */
+    private final long first;
+    private final long second;
+    private final int third;
+
+    private ObjectId(long first, long second, int third) {
+        this.first = first;
+        this.second = second;
+        this.third = third;
+    }
+
+    /** Returns the id whose hex digits are HEX. */
+    static ObjectId fromHex(String hex) {
+        if (hex.length() != 2 * LENGTH) {
+            throw new IllegalArgumentException("not an object id: " + hex);
+        }
+        return new ObjectId(parseHex(hex, 0, 16), parseHex(hex, 16, 32),
+                (int) parseHex(hex, 32, 40));
+    }
+
+    /** Returns the id held in the LENGTH bytes of BYTES from OFFSET. */
+    static ObjectId fromBytes(byte[] bytes, int offset) {
+        return new ObjectId(readLong(bytes, offset, 8), readLong(bytes, offset + 8, 8),
+                (int) readLong(bytes, offset + 16, 4));
+    }
+
+    /** Writes the LENGTH bytes of this id into BYTES at OFFSET. */
+    void copyTo(byte[] bytes, int offset) {
+        writeLong(first, bytes, offset, 8);
+        writeLong(second, bytes, offset + 8, 8);
+        writeLong(third, bytes, offset + 16, 4);
+    }
+
+    /** Returns the 40 hex digits of the id held in BYTES from OFFSET,
+     *  without making an ObjectId. */
+    static String toHex(byte[] bytes, int offset) {
+        char[] hex = new char[2 * LENGTH];
+        for (int i = 0; i < LENGTH; i += 1) {
+            int b = bytes[offset + i] & 0xff;
+            hex[2 * i] = Character.forDigit(b >>> 4, 16);
+            hex[2 * i + 1] = Character.forDigit(b & 0xf, 16);
+        }
+        return new String(hex);
+    }
+
+    /** Returns true iff S is the 40 lower-case hex digits of an id. */
+    static boolean isHex(String s) {
+        if (s.length() != 2 * LENGTH) {
+            return false;
+        }
+        for (int i = 0; i < s.length(); i += 1) {
+            char c = s.charAt(i);
+            if (!(c >= '0' && c <= '9' || c >= 'a' && c <= 'f')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        byte[] bytes = new byte[LENGTH];
+        copyTo(bytes, 0);
+        return toHex(bytes, 0);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof ObjectId)) {
+            return false;
+        }
+        ObjectId other = (ObjectId) obj;
+        return first == other.first && second == other.second && third == other.third;
+    }
+
+    @Override
+    public int hashCode() {
+        // The bytes of a sha1 are already well mixed.
+        return (int) first;
+    }
+
+    @Override
+    public int compareTo(ObjectId other) {
+        int c = Long.compareUnsigned(first, other.first);
+        if (c == 0) {
+            c = Long.compareUnsigned(second, other.second);
+        }
+        if (c == 0) {
+            c = Integer.compareUnsigned(third, other.third);
+        }
+        return c;
+    }
+
+    private static long parseHex(String hex, int start, int end) {
+        long result = 0;
+        for (int i = start; i < end; i += 1) {
+            int digit = Character.digit(hex.charAt(i), 16);
+            if (digit < 0) {
+                throw new IllegalArgumentException("not an object id: " + hex);
+            }
+            result = (result << 4) | digit;
+        }
+        return result;
+    }
+
+    private static long readLong(byte[] bytes, int offset, int n) {
+        long result = 0;
+        for (int i = 0; i < n; i += 1) {
+            result = (result << 8) | (bytes[offset + i] & 0xff);
+        }
+        return result;
+    }
+
+    private static void writeLong(long value, byte[] bytes, int offset, int n) {
+        for (int i = n - 1; i >= 0; i -= 1) {
+            bytes[offset + i] = (byte) value;
+            value >>>= 8;
+        }
+    }
+}
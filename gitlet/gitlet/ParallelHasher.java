@@ -0,0 +1,73 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/** Hashes working files and stores them as blobs on a pool of worker
+ *  threads, one task per file.
+ *
+ *  @author Nameera Faisal Akhtar
+ */
+class ParallelHasher {
+
+    /** Returns the sha1 of each of the files FILENAMES in DIR, in a
+     *  <FileName, Sha1> structure, after storing the contents of each as
+     *  a blob in BLOBSDIR.  Blobs that already exist are not rewritten.
+     *  New blobs are written to a temporary file in TMPDIR and renamed
+     *  into place, so two identical files hashed at the same time cannot
+     *  interleave their writes, and a crash cannot leave a partial file
+     *  among the blobs. */
+    static TreeMap<String, String> hashAndStore(File dir, Collection<String> fileNames,
+                                                File blobsDir, File tmpDir) {
+        TreeMap<String, String> result = new TreeMap<>();
+        if (fileNames.isEmpty()) {
+            return result;
+        }
+        int workers = Math.min(fileNames.size(),
+                Runtime.getRuntime().availableProcessors());
+        ExecutorService pool = Executors.newFixedThreadPool(workers);
+        try {
+            List<String> names = new ArrayList<>(fileNames);
+            List<Future<String>> hashes = new ArrayList<>();
+            for (String fileName : names) {
+                hashes.add(pool.submit(() -> store(Utils.join(dir, fileName), blobsDir, tmpDir)));
+            }
+            for (int i = 0; i < names.size(); i += 1) {
+                result.put(names.get(i), hashes.get(i).get());
+            }
+            return result;
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+            throw new IllegalArgumentException(excp.getMessage());
+        } catch (ExecutionException excp) {
+            throw new IllegalArgumentException(excp.getCause().getMessage());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /** Stores the contents of FILE as a blob in BLOBSDIR, through a
+     *  temporary file in TMPDIR, and returns its sha1. */
+    private static String store(File file, File blobsDir, File tmpDir)
+        throws IOException {
+        byte[] contents = Utils.readContents(file);
+        String sha1 = Utils.sha1(contents);
+        File blobFile = Utils.join(blobsDir, sha1);
+        if (!blobFile.exists()) {
+            File tmp = File.createTempFile(sha1, ".tmp", tmpDir);
+            Utils.writeContents(tmp, contents);
+            Files.move(tmp.toPath(), blobFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        return sha1;
+    }
+}
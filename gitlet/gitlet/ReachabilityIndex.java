@@ -0,0 +1,296 @@
+package gitlet;
+
+import java.io.File;
+import java.io.Serializable;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+
+/** Reachability bitmaps over the objects of a repository.
+ *  Every commit and blob is given a position in a sorted list of object
+ *  ids.  For a commit C, its reachability bitmap has a bit set for C, for
+ *  every blob C tracks and, recursively, for everything reachable from
+ *  its parents.  Bitmaps are stored for the branch tips and for a
+ *  selection of other commits, so ancestry tests, commit counts and
+ *  "reachable from A but not from B" queries become bitmap operations
+ *  instead of walks over the commit graph.
+ *
+ *  Objects written after the index was built are given positions past
+ *  the end of the sorted list for the duration of a session, and the
+ *  bitmaps of new commits are computed from those of their nearest
+ *  indexed ancestors.  Once enough such objects accumulate, the index
+ *  is rebuilt.
+ *
+ *  @author Nameera Faisal Akhtar
+ */
+class ReachabilityIndex implements Serializable {
+
+    /** Name of the file holding the index inside the .gitlet directory. */
+    static final String FILE_NAME = "bitmaps";
+
+    /** Besides the branch tips, a bitmap is kept for every commit whose
+     *  position in the build order is a multiple of this. */
+    private static final int SELECTION_INTERVAL = 16;
+
+    /** Number of commits not covered by the index after which it is
+     *  rebuilt. */
+    private static final int REBUILD_THRESHOLD = 64;
+
+    /** All object ids known when the index was built, sorted. */
+    private final String[] objects;
+
+    /** The positions of the commits among OBJECTS. */
+    private final EwahBitmap commitMask;
+
+    /** The stored bitmaps, by commit id. */
+    private final HashMap<String, EwahBitmap> bitmaps;
+
+    /** Positions given to objects not in OBJECTS during this session. */
+    private transient HashMap<String, Integer> extraPositions;
+
+    /** Bitmaps computed during this session, by commit id. */
+    private transient HashMap<String, EwahBitmap> computed;
+
+    /** Number of commits that were not in OBJECTS seen this session. */
+    private transient int uncoveredCommits;
+
+    /** The repository this index describes. */
+    private transient Repository repo;
+
+    private ReachabilityIndex(String[] objects, EwahBitmap commitMask,
+                              HashMap<String, EwahBitmap> bitmaps) {
+        this.objects = objects;
+        this.commitMask = commitMask;
+        this.bitmaps = bitmaps;
+    }
+
+    /** Returns the index stored in REPO, building and saving a new one
+     *  if there is none.  A session that only reads REPO builds one
+     *  without saving it. */
+    static ReachabilityIndex load(Repository repo) {
+        File f = Utils.join(repo.gitletDir(), FILE_NAME);
+        if (f.isFile()) {
+            ReachabilityIndex index = Utils.readObject(f, ReachabilityIndex.class);
+            index.repo = repo;
+            return index;
+        }
+        ReachabilityIndex index = build(repo);
+        index.save();
+        return index;
+    }
+
+    /** Returns a new index over every commit and blob in REPO, storing
+     *  bitmaps for its branch tips and a selection of other commits. */
+    static ReachabilityIndex build(Repository repo) {
+        ArrayList<String> all = new ArrayList<>();
+        for (String id : Utils.plainFilenamesIn(repo.commitsFolder())) {
+            if (!id.equals("headFile")) {
+                all.add(id);
+            }
+        }
+        HashSet<String> commitIds = new HashSet<>(all);
+        all.addAll(Utils.plainFilenamesIn(repo.blobsFolder()));
+        String[] objects = all.toArray(new String[0]);
+        Arrays.sort(objects);
+
+        ArrayList<Integer> commitPositions = new ArrayList<>();
+        for (int i = 0; i < objects.length; i += 1) {
+            if (commitIds.contains(objects[i])) {
+                commitPositions.add(i);
+            }
+        }
+        ReachabilityIndex index = new ReachabilityIndex(objects,
+                EwahBitmap.of(commitPositions), new HashMap<>());
+        index.repo = repo;
+
+        HashSet<String> selected = new HashSet<>(repo.branchTips());
+        List<String> order = index.computeAll(commitIds);
+        for (int i = 0; i < order.size(); i += SELECTION_INTERVAL) {
+            selected.add(order.get(i));
+        }
+        for (String id : selected) {
+            EwahBitmap b = index.computed().get(id);
+            if (b != null) {
+                index.bitmaps.put(id, b);
+            }
+        }
+        index.computed = null;
+        return index;
+    }
+
+    /** Saves this index in its repository, if the session holds it
+     *  exclusively. */
+    void save() {
+        if (!repo.canWrite()) {
+            return;
+        }
+        Utils.writeObject(Utils.join(repo.gitletDir(), FILE_NAME), this);
+    }
+
+    /** Rebuilds and saves the index if too many commits seen this session
+     *  were not covered by it.  Returns the index that should be used
+     *  from now on. */
+    ReachabilityIndex refreshIfStale() {
+        if (uncoveredCommits < REBUILD_THRESHOLD) {
+            return this;
+        }
+        ReachabilityIndex fresh = build(repo);
+        fresh.save();
+        return fresh;
+    }
+
+    /** Returns true iff the commit ANCESTORID is reachable from the commit
+     *  DESCENDANTID (every commit is reachable from itself). */
+    boolean isAncestor(String ancestorId, String descendantId) {
+        return reachable(descendantId).get(position(ancestorId));
+    }
+
+    /** Returns the number of commits reachable from the commit ID. */
+    int countCommits(String id) {
+        return reachable(id).and(commitMaskWithExtras()).cardinality();
+    }
+
+    /** Returns the ids of the objects, commits and blobs alike, that are
+     *  reachable from commit A but not from commit B. */
+    List<String> reachableOnlyFrom(String a, String b) {
+        ArrayList<String> result = new ArrayList<>();
+        for (int pos : reachable(a).andNot(reachable(b)).positions()) {
+            result.add(objectAt(pos));
+        }
+        return result;
+    }
+
+    /** Returns the reachability bitmap of the commit ID. */
+    EwahBitmap reachable(String id) {
+        EwahBitmap b = lookup(id);
+        if (b != null) {
+            return b;
+        }
+        computeAll(List.of(id));
+        return computed().get(id);
+    }
+
+    /** Computes the bitmaps of the commits IDS and everything they need
+     *  that is not already known, parents before children.  Returns the
+     *  commits computed, in the order they were finished. */
+    private List<String> computeAll(Collection<String> ids) {
+        ArrayList<String> finished = new ArrayList<>();
+        HashMap<String, Commit> loaded = new HashMap<>();
+        Deque<String> stack = new ArrayDeque<>(ids);
+        while (!stack.isEmpty()) {
+            String id = stack.peek();
+            if (lookup(id) != null) {
+                stack.pop();
+                continue;
+            }
+            Commit c = loaded.get(id);
+            if (c == null) {
+                c = repo.commitFromId(id);
+                loaded.put(id, c);
+            }
+            boolean ready = true;
+            for (String parent : c.getBothParents()) {
+                if (lookup(parent) == null) {
+                    stack.push(parent);
+                    ready = false;
+                }
+            }
+            if (!ready) {
+                continue;
+            }
+            stack.pop();
+            ArrayList<Integer> own = new ArrayList<>();
+            own.add(commitPosition(id));
+            for (String blobId : c.accessBlob().values()) {
+                own.add(position(blobId));
+            }
+            EwahBitmap b = EwahBitmap.of(own);
+            for (String parent : c.getBothParents()) {
+                b = b.or(lookup(parent));
+            }
+            computed().put(id, b);
+            loaded.remove(id);
+            finished.add(id);
+        }
+        return finished;
+    }
+
+    /** Returns the stored or computed bitmap of commit ID, or null. */
+    private EwahBitmap lookup(String id) {
+        EwahBitmap b = bitmaps.get(id);
+        if (b == null) {
+            b = computed().get(id);
+        }
+        return b;
+    }
+
+    /** Returns the position of the commit ID, noting if it is new. */
+    private int commitPosition(String id) {
+        if (Arrays.binarySearch(objects, id) < 0
+                && !extraPositions().containsKey(id)) {
+            uncoveredCommits += 1;
+        }
+        return position(id);
+    }
+
+    /** Returns the position of object ID, giving it a new one past the
+     *  end of the sorted list if it was not known when the index was
+     *  built. */
+    private int position(String id) {
+        int k = Arrays.binarySearch(objects, id);
+        if (k >= 0) {
+            return k;
+        }
+        Integer extra = extraPositions().get(id);
+        if (extra == null) {
+            extra = objects.length + extraPositions().size();
+            extraPositions().put(id, extra);
+        }
+        return extra;
+    }
+
+    /** Returns the id of the object at position POS. */
+    private String objectAt(int pos) {
+        if (pos < objects.length) {
+            return objects[pos];
+        }
+        for (String id : extraPositions().keySet()) {
+            if (extraPositions().get(id) == pos) {
+                return id;
+            }
+        }
+        return null;
+    }
+
+    /** Returns the commit mask extended with the new commits seen this
+     *  session. */
+    private EwahBitmap commitMaskWithExtras() {
+        ArrayList<Integer> extraCommits = new ArrayList<>();
+        for (String id : computed().keySet()) {
+            int pos = position(id);
+            if (pos >= objects.length) {
+                extraCommits.add(pos);
+            }
+        }
+        return commitMask.or(EwahBitmap.of(extraCommits));
+    }
+
+    private HashMap<String, Integer> extraPositions() {
+        if (extraPositions == null) {
+            extraPositions = new HashMap<>();
+        }
+        return extraPositions;
+    }
+
+    private HashMap<String, EwahBitmap> computed() {
+        if (computed == null) {
+            computed = new HashMap<>();
+        }
+        return computed;
+    }
+}
@@ -0,0 +1,201 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/** The reflogs: for the head and for each branch, every value it has
+ *  had, newest last, so that "REF@{N}", the value N changes ago, can be
+ *  found after a bad reset or merge.
+ *
+ *  Each log is a file of fixed-width 80-byte records, appended to:
+ *
+ *      bytes  0-19   the old commit id (all zero if there was none)
+ *      bytes 20-39   the new commit id
+ *      bytes 40-47   the time of the change, in milliseconds, big-endian
+ *      bytes 48-79   the command that made it, UTF-8, padded with zeros
+ *
+ *  so REF@{N} is one read at a computed offset, however long the log.
+ *  A partial record left by a crash is ignored and written over.  Once a
+ *  log reaches MAX_RECORDS it is compacted to its newest KEEP_RECORDS,
+ *  through a temporary file renamed into place.
+ *
+ *  The head's log is .gitlet/logs/HEAD, and a branch's is
+ *  .gitlet/logs/branches/NAME.
+ *
+ *  @author Nameera Faisal Akhtar
+ */
+class RefLog {
+
+    /** The name of the head's log. */
+    static final String HEAD = "HEAD";
+
+    /** Size of a record, and of its parts. */
+    static final int RECORD_SIZE = 80;
+    private static final int TIME_OFFSET = 2 * ObjectId.LENGTH;
+    private static final int COMMAND_OFFSET = TIME_OFFSET + 8;
+    private static final int COMMAND_SIZE = RECORD_SIZE - COMMAND_OFFSET;
+
+    /** A log is compacted when it reaches this many records ... */
+    private static final int MAX_RECORDS = 4096;
+
+    /** ... down to this many. */
+    private static final int KEEP_RECORDS = 1024;
+
+    /** One change to a ref. */
+    static class Entry {
+        /** The old and new commit ids; OLDID is null if there was none. */
+        final String oldId, newId;
+        /** When it was made, in milliseconds since the epoch. */
+        final long time;
+        /** The command that made it. */
+        final String command;
+
+        Entry(String oldId, String newId, long time, String command) {
+            this.oldId = oldId;
+            this.newId = newId;
+            this.time = time;
+            this.command = command;
+        }
+    }
+
+    /** The folder of logs. */
+    private final File logsDir;
+
+    /** The logs of the repository whose .gitlet directory is GITLETDIR. */
+    RefLog(File gitletDir) {
+        logsDir = Utils.join(gitletDir, "logs");
+    }
+
+    /** Records that REF, HEAD or a branch name, changed from OLDID (null
+     *  if it did not exist) to NEWID by COMMAND, unless that is no
+     *  change. */
+    void append(String ref, String oldId, String newId, String command) {
+        if (newId.equals(oldId)) {
+            return;
+        }
+        File log = file(ref);
+        log.getParentFile().mkdirs();
+        ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+        if (oldId != null) {
+            ObjectId.fromHex(oldId).copyTo(record.array(), 0);
+        }
+        ObjectId.fromHex(newId).copyTo(record.array(), ObjectId.LENGTH);
+        record.putLong(TIME_OFFSET, System.currentTimeMillis());
+        byte[] text = truncate(command);
+        System.arraycopy(text, 0, record.array(), COMMAND_OFFSET, text.length);
+        try (FileChannel channel = FileChannel.open(log.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long records = channel.size() / RECORD_SIZE;
+            channel.truncate(records * RECORD_SIZE);
+            channel.write(record, records * RECORD_SIZE);
+            if (records + 1 >= MAX_RECORDS) {
+                compact(log, channel, records + 1);
+            }
+        } catch (IOException excp) {
+            throw Utils.error("Cannot write the log of %s: %s", ref, excp.getMessage());
+        }
+    }
+
+    /** Returns the value REF had N changes ago, or null if its log does
+     *  not go back that far. */
+    String lookup(String ref, int n) {
+        File log = file(ref);
+        if (n < 0 || !log.isFile()) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(log.toPath(), StandardOpenOption.READ)) {
+            long records = channel.size() / RECORD_SIZE;
+            if (n >= records) {
+                return null;
+            }
+            ByteBuffer id = ByteBuffer.allocate(ObjectId.LENGTH);
+            channel.read(id, (records - 1 - n) * RECORD_SIZE + ObjectId.LENGTH);
+            return ObjectId.toHex(id.array(), 0);
+        } catch (IOException excp) {
+            throw Utils.error("Cannot read the log of %s: %s", ref, excp.getMessage());
+        }
+    }
+
+    /** Returns the value REF has now according to its log, or null if
+     *  the log is empty. */
+    String last(String ref) {
+        return lookup(ref, 0);
+    }
+
+    /** Returns every entry in the log of REF, newest first. */
+    List<Entry> entries(String ref) {
+        List<Entry> result = new ArrayList<>();
+        File log = file(ref);
+        if (!log.isFile()) {
+            return result;
+        }
+        byte[] bytes = Utils.readContents(log);
+        for (int i = bytes.length / RECORD_SIZE - 1; i >= 0; i -= 1) {
+            result.add(decode(bytes, i * RECORD_SIZE));
+        }
+        return result;
+    }
+
+    /** Deletes the log of REF. */
+    void delete(String ref) {
+        file(ref).delete();
+    }
+
+    /** Returns the log file of REF. */
+    private File file(String ref) {
+        return ref.equals(HEAD) ? Utils.join(logsDir, HEAD)
+                : Utils.join(logsDir, "branches", ref);
+    }
+
+    /** Replaces LOG, open as CHANNEL with RECORDS records, by its newest
+     *  KEEP_RECORDS records. */
+    private static void compact(File log, FileChannel channel, long records)
+        throws IOException {
+        ByteBuffer kept = ByteBuffer.allocate(KEEP_RECORDS * RECORD_SIZE);
+        channel.read(kept, (records - KEEP_RECORDS) * RECORD_SIZE);
+        File tmp = File.createTempFile("reflog", ".tmp", log.getParentFile());
+        Files.write(tmp.toPath(), kept.array());
+        Files.move(tmp.toPath(), log.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /** Returns the record of BYTES at OFFSET. */
+    private static Entry decode(byte[] bytes, int offset) {
+        boolean hasOld = false;
+        for (int i = 0; i < ObjectId.LENGTH; i += 1) {
+            hasOld |= bytes[offset + i] != 0;
+        }
+        int end = offset + COMMAND_OFFSET;
+        while (end < offset + RECORD_SIZE && bytes[end] != 0) {
+            end += 1;
+        }
+        return new Entry(hasOld ? ObjectId.toHex(bytes, offset) : null,
+                ObjectId.toHex(bytes, offset + ObjectId.LENGTH),
+                ByteBuffer.wrap(bytes, offset + TIME_OFFSET, 8).getLong(),
+                new String(bytes, offset + COMMAND_OFFSET, end - offset - COMMAND_OFFSET,
+                        StandardCharsets.UTF_8));
+    }
+
+    /** Returns COMMAND in UTF-8, cut to COMMAND_SIZE bytes without
+     *  splitting a character. */
+    private static byte[] truncate(String command) {
+        byte[] bytes = command.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length <= COMMAND_SIZE) {
+            return bytes;
+        }
+        int n = COMMAND_SIZE;
+        while (n > 0 && (bytes[n] & 0xc0) == 0x80) {
+            n -= 1;
+        }
+        return Arrays.copyOf(bytes, n);
+    }
+}
@@ -0,0 +1,190 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/** The single place branches are read and written.
+ *  A branch is either a loose file in the branches folder whose contents
+ *  are the id of the commit it points to, or a line of the packed-refs
+ *  file.  The packed-refs file holds one "ID NAME" line per branch,
+ *  sorted by name, and is searched in place through a memory mapping.
+ *  A loose file always overrides a packed entry of the same name, so
+ *  moving a branch only ever writes its loose file.
+ *
+ *  @author Nameera Faisal Akhtar
+ */
+class RefStore {
+
+    /** Name of the packed-refs file inside the .gitlet directory. */
+    static final String PACKED_FILE_NAME = "packed-refs";
+
+    /** The folder of loose branch files. */
+    private final File branchesDir;
+
+    /** The packed-refs file. */
+    private final File packedFile;
+
+    /** A ref store for the repository whose .gitlet directory is GITLETDIR
+     *  and whose loose branches live in BRANCHESDIR. */
+    RefStore(File gitletDir, File branchesDir) {
+        this.branchesDir = branchesDir;
+        this.packedFile = Utils.join(gitletDir, PACKED_FILE_NAME);
+    }
+
+    /** Returns the commit id the branch NAME points to, or null if there
+     *  is no such branch. */
+    String read(String name) {
+        File loose = Utils.join(branchesDir, name);
+        if (loose.isFile()) {
+            return Utils.readContentsAsString(loose);
+        }
+        return readPacked(name);
+    }
+
+    /** Returns true iff the branch NAME exists. */
+    boolean exists(String name) {
+        return read(name) != null;
+    }
+
+    /** Points the branch NAME at the commit ID, creating it if needed. */
+    void write(String name, String id) {
+        Utils.writeContents(Utils.join(branchesDir, name), id);
+    }
+
+    /** Deletes the branch NAME.  Returns false if it did not exist. */
+    boolean delete(String name) {
+        boolean deleted = Utils.join(branchesDir, name).delete();
+        if (readPacked(name) != null) {
+            TreeMap<String, String> packed = readAllPacked();
+            packed.remove(name);
+            writePacked(packed);
+            deleted = true;
+        }
+        return deleted;
+    }
+
+    /** Returns the names of all branches, sorted. */
+    List<String> list() {
+        return new ArrayList<>(all().keySet());
+    }
+
+    /** Returns every branch, in a <BranchName, CommitId> structure. */
+    TreeMap<String, String> all() {
+        TreeMap<String, String> result = readAllPacked();
+        for (String name : Utils.plainFilenamesIn(branchesDir)) {
+            result.put(name, Utils.readContentsAsString(Utils.join(branchesDir, name)));
+        }
+        return result;
+    }
+
+    /** Moves every loose branch into the packed-refs file. */
+    void pack() {
+        TreeMap<String, String> everything = all();
+        writePacked(everything);
+        for (String name : Utils.plainFilenamesIn(branchesDir)) {
+            Utils.join(branchesDir, name).delete();
+        }
+    }
+
+    /** Returns the id of the packed branch NAME, or null.  Binary
+     *  searches the mapped file: each probe backs up to the start of the
+     *  line containing the midpoint and compares its name. */
+    private String readPacked(String name) {
+        if (!packedFile.isFile()) {
+            return null;
+        }
+        byte[] target = name.getBytes(StandardCharsets.UTF_8);
+        try (FileChannel channel = FileChannel.open(packedFile.toPath(),
+                StandardOpenOption.READ)) {
+            MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY,
+                    0, channel.size());
+            int lo = 0;
+            int hi = buf.limit();
+            while (lo < hi) {
+                int start = (lo + hi) >>> 1;
+                while (start > lo && buf.get(start - 1) != '\n') {
+                    start -= 1;
+                }
+                int nameStart = start + Utils.UID_LENGTH + 1;
+                int end = nameStart;
+                while (end < buf.limit() && buf.get(end) != '\n') {
+                    end += 1;
+                }
+                int cmp = compare(target, buf, nameStart, end);
+                if (cmp == 0) {
+                    byte[] id = new byte[Utils.UID_LENGTH];
+                    buf.get(start, id);
+                    return new String(id, StandardCharsets.US_ASCII);
+                } else if (cmp < 0) {
+                    hi = start;
+                } else {
+                    lo = end + 1;
+                }
+            }
+            return null;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns the packed branches, in a <BranchName, CommitId> structure. */
+    private TreeMap<String, String> readAllPacked() {
+        TreeMap<String, String> result = new TreeMap<>();
+        if (!packedFile.isFile()) {
+            return result;
+        }
+        for (String line : Utils.readContentsAsString(packedFile).split("\n")) {
+            if (line.length() > Utils.UID_LENGTH) {
+                result.put(line.substring(Utils.UID_LENGTH + 1),
+                        line.substring(0, Utils.UID_LENGTH));
+            }
+        }
+        return result;
+    }
+
+    /** Replaces the packed-refs file with the branches in REFS.  The new
+     *  file is written beside the old one and renamed over it, so readers
+     *  never see a partial file. */
+    private void writePacked(Map<String, String> refs) {
+        TreeMap<byte[], String> sorted = new TreeMap<>(Arrays::compareUnsigned);
+        for (Map.Entry<String, String> e : refs.entrySet()) {
+            sorted.put(e.getKey().getBytes(StandardCharsets.UTF_8), e.getValue());
+        }
+        StringBuilder contents = new StringBuilder();
+        for (Map.Entry<byte[], String> e : sorted.entrySet()) {
+            contents.append(e.getValue()).append(' ')
+                    .append(new String(e.getKey(), StandardCharsets.UTF_8)).append('\n');
+        }
+        File tmp = Utils.join(packedFile.getParentFile(), PACKED_FILE_NAME + ".lock");
+        Utils.writeContents(tmp, contents.toString());
+        try {
+            Files.move(tmp.toPath(), packedFile.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Compares TARGET with bytes [START, END) of BUF as unsigned bytes. */
+    private static int compare(byte[] target, MappedByteBuffer buf, int start, int end) {
+        int n = Math.min(target.length, end - start);
+        for (int i = 0; i < n; i += 1) {
+            int c = Integer.compare(target[i] & 0xff, buf.get(start + i) & 0xff);
+            if (c != 0) {
+                return c;
+            }
+        }
+        return Integer.compare(target.length, end - start);
+    }
+}
@@ -0,0 +1,282 @@
+package gitlet;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Function;
+
+/** Finds the files of one <FileName, Sha1> map that were renamed or
+ *  copied to files of another.
+ *
+ *  Files with the same blob id are paired first.  The rest are compared
+ *  by content similarity, estimated from MinHash sketches of their sets
+ *  of lines: the chance that two sketches agree at one position is the
+ *  Jaccard similarity of the two sets.  Rather than compare every pair
+ *  of sketches, each sketch is cut into bands and only files that agree
+ *  on a whole band are compared, which finds pairs above the threshold
+ *  with high probability.  Pairs are then taken best first, each file
+ *  taking part in at most one rename.
+ *
+ *  @author Nameera Faisal Akhtar
+ */
+class RenameDetector {
+
+    /** Least similarity, in percent, for two different files to be
+     *  paired. */
+    static final int MIN_SCORE = 50;
+
+    /** Number of hash functions in a sketch. */
+    private static final int SKETCH_SIZE = 64;
+
+    /** Number of sketch values in each band. */
+    private static final int ROWS_PER_BAND = 2;
+
+    /** The seed of each hash function. */
+    private static final long[] SEEDS = new long[SKETCH_SIZE];
+
+    static {
+        long seed = 0x9E3779B97F4A7C15L;
+        for (int i = 0; i < SKETCH_SIZE; i += 1) {
+            seed = mix(seed + i);
+            SEEDS[i] = seed;
+        }
+    }
+
+    /** A file SOURCE paired with a file TARGET whose contents are SCORE
+     *  percent similar. */
+    static class Match {
+        /** The file in the old map. */
+        final String source;
+        /** The file in the new map. */
+        final String target;
+        /** Estimated similarity in percent; 100 for identical blobs. */
+        final int score;
+
+        Match(String source, String target, int score) {
+            this.source = source;
+            this.target = target;
+            this.score = score;
+        }
+
+        @Override
+        public String toString() {
+            return source + " -> " + target + " (" + score + "%)";
+        }
+    }
+
+    /** Gives the contents of a blob id. */
+    private final Function<String, byte[]> contents;
+
+    /** The sketch of every blob looked at, by id; null for blobs with no
+     *  lines. */
+    private final HashMap<String, long[]> sketches = new HashMap<>();
+
+    /** A detector for blobs stored in BLOBSDIR. */
+    RenameDetector(File blobsDir) {
+        this(id -> Utils.readContents(Utils.join(blobsDir, id)));
+    }
+
+    /** A detector that reads the blob with id ID as CONTENTS(ID). */
+    RenameDetector(Function<String, byte[]> contents) {
+        this.contents = contents;
+    }
+
+    /** Returns the renames from the map BEFORE to the map AFTER: each
+     *  file that is only in BEFORE paired with at most one file that is
+     *  only in AFTER, sorted by target. */
+    List<Match> renames(Map<String, String> before, Map<String, String> after) {
+        TreeMap<String, String> deleted = new TreeMap<>();
+        TreeMap<String, String> added = new TreeMap<>();
+        for (String fileName : before.keySet()) {
+            if (!after.containsKey(fileName)) {
+                deleted.put(fileName, before.get(fileName));
+            }
+        }
+        for (String fileName : after.keySet()) {
+            if (!before.containsKey(fileName)) {
+                added.put(fileName, after.get(fileName));
+            }
+        }
+        return pair(deleted, added, true);
+    }
+
+    /** Returns the files of TARGETS that are copies of files of SOURCES,
+     *  each paired with its most similar source, sorted by target. */
+    List<Match> copies(Map<String, String> sources, Map<String, String> targets) {
+        return pair(sources, targets, false);
+    }
+
+    /** Returns old name -> new name for the renames from BEFORE to AFTER. */
+    Map<String, String> renameMap(Map<String, String> before, Map<String, String> after) {
+        HashMap<String, String> result = new HashMap<>();
+        for (Match m : renames(before, after)) {
+            result.put(m.source, m.target);
+        }
+        return result;
+    }
+
+    /** Pairs files of SOURCES with files of TARGETS, both <FileName, Sha1>
+     *  maps.  Each source is used at most once iff ONCE. */
+    private List<Match> pair(Map<String, String> sources, Map<String, String> targets,
+                             boolean once) {
+        ArrayList<Match> result = new ArrayList<>();
+        HashSet<String> usedSources = new HashSet<>();
+        TreeMap<String, String> unmatched = new TreeMap<>();
+
+        HashMap<String, List<String>> sourcesByBlob = new HashMap<>();
+        for (Map.Entry<String, String> e : new TreeMap<>(sources).entrySet()) {
+            sourcesByBlob.computeIfAbsent(e.getValue(), k -> new ArrayList<>()).add(e.getKey());
+        }
+        for (Map.Entry<String, String> e : new TreeMap<>(targets).entrySet()) {
+            String source = null;
+            for (String candidate : sourcesByBlob.getOrDefault(e.getValue(), List.of())) {
+                if (!once || !usedSources.contains(candidate)) {
+                    source = candidate;
+                    break;
+                }
+            }
+            if (source == null) {
+                unmatched.put(e.getKey(), e.getValue());
+            } else {
+                usedSources.add(source);
+                result.add(new Match(source, e.getKey(), 100));
+            }
+        }
+
+        ArrayList<String> sourceNames = new ArrayList<>();
+        for (String fileName : new TreeMap<>(sources).keySet()) {
+            if ((!once || !usedSources.contains(fileName))
+                    && sketch(sources.get(fileName)) != null) {
+                sourceNames.add(fileName);
+            }
+        }
+        if (!sourceNames.isEmpty() && !unmatched.isEmpty()) {
+            result.addAll(pairSimilar(sources, sourceNames, unmatched, once));
+        }
+        result.sort(Comparator.comparing(m -> m.target));
+        return result;
+    }
+
+    /** Pairs files of TARGETS with similar files among SOURCENAMES, files
+     *  of SOURCES, best pairs first. */
+    private List<Match> pairSimilar(Map<String, String> sources, List<String> sourceNames,
+                                    Map<String, String> targets, boolean once) {
+        HashMap<Long, List<Integer>> buckets = new HashMap<>();
+        for (int s = 0; s < sourceNames.size(); s += 1) {
+            long[] sketch = sketch(sources.get(sourceNames.get(s)));
+            for (int band = 0; band < SKETCH_SIZE / ROWS_PER_BAND; band += 1) {
+                buckets.computeIfAbsent(bandKey(sketch, band), k -> new ArrayList<>()).add(s);
+            }
+        }
+
+        ArrayList<Match> candidates = new ArrayList<>();
+        for (Map.Entry<String, String> e : targets.entrySet()) {
+            long[] sketch = sketch(e.getValue());
+            if (sketch == null) {
+                continue;
+            }
+            HashSet<Integer> seen = new HashSet<>();
+            for (int band = 0; band < SKETCH_SIZE / ROWS_PER_BAND; band += 1) {
+                for (int s : buckets.getOrDefault(bandKey(sketch, band), List.of())) {
+                    if (!seen.add(s)) {
+                        continue;
+                    }
+                    int score = similarity(sketch, sketch(sources.get(sourceNames.get(s))));
+                    if (score >= MIN_SCORE) {
+                        candidates.add(new Match(sourceNames.get(s), e.getKey(), score));
+                    }
+                }
+            }
+        }
+
+        candidates.sort(Comparator.comparingInt((Match m) -> -m.score)
+                .thenComparing(m -> m.target).thenComparing(m -> m.source));
+        ArrayList<Match> result = new ArrayList<>();
+        HashSet<String> usedSources = new HashSet<>();
+        HashSet<String> usedTargets = new HashSet<>();
+        for (Match m : candidates) {
+            if (usedTargets.contains(m.target) || (once && usedSources.contains(m.source))) {
+                continue;
+            }
+            usedTargets.add(m.target);
+            usedSources.add(m.source);
+            result.add(m);
+        }
+        return result;
+    }
+
+    /** Returns the estimated similarity of the files with sketches A and
+     *  B, in percent. */
+    private static int similarity(long[] a, long[] b) {
+        int same = 0;
+        for (int i = 0; i < SKETCH_SIZE; i += 1) {
+            if (a[i] == b[i]) {
+                same += 1;
+            }
+        }
+        return same * 100 / SKETCH_SIZE;
+    }
+
+    /** Returns a key for the values of SKETCH in band BAND. */
+    private static long bandKey(long[] sketch, int band) {
+        long key = band;
+        for (int i = band * ROWS_PER_BAND; i < (band + 1) * ROWS_PER_BAND; i += 1) {
+            key = mix(key ^ sketch[i]);
+        }
+        return key;
+    }
+
+    /** Returns the MinHash sketch of the lines of blob ID, or null if it
+     *  has none. */
+    private long[] sketch(String id) {
+        if (sketches.containsKey(id)) {
+            return sketches.get(id);
+        }
+        byte[] bytes = contents.apply(id);
+        long[] sketch = null;
+        HashSet<Long> lines = new HashSet<>();
+        int start = 0;
+        for (int i = 0; i <= bytes.length; i += 1) {
+            if (i == bytes.length ? i > start : bytes[i] == '\n') {
+                lines.add(hashLine(bytes, start, i));
+                start = i + 1;
+            }
+        }
+        if (!lines.isEmpty()) {
+            sketch = new long[SKETCH_SIZE];
+            Arrays.fill(sketch, Long.MAX_VALUE);
+            for (long line : lines) {
+                for (int i = 0; i < SKETCH_SIZE; i += 1) {
+                    long v = mix(line ^ SEEDS[i]);
+                    if (v < sketch[i]) {
+                        sketch[i] = v;
+                    }
+                }
+            }
+        }
+        sketches.put(id, sketch);
+        return sketch;
+    }
+
+    /** Returns the FNV-1a hash of BYTES[START..END). */
+    private static long hashLine(byte[] bytes, int start, int end) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = start; i < end; i += 1) {
+            h = (h ^ (bytes[i] & 0xff)) * 0x100000001b3L;
+        }
+        return h;
+    }
+
+    /** The splitmix64 finalizer: a cheap, well-distributed hash of X. */
+    private static long mix(long x) {
+        x = (x ^ (x >>> 30)) * 0xbf58476d1ce4e5b9L;
+        x = (x ^ (x >>> 27)) * 0x94d049bb133111ebL;
+        return x ^ (x >>> 31);
+    }
+}
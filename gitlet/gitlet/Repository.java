@@ -1,7 +1,18 @@
 package gitlet;
 
 import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileSystems;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
+import java.util.function.Supplier;
 
 /** Represents a gitlet repository.
  * The structure is as follows:
@@ -12,6 +23,14 @@ import java.util.*;
  *          - BLOBS_FOLDER -- folder containing all the blobs
  *          - BRANCHES_FOLDER -- folder containing the branches
  *
+ *  A Repository is bound to the working directory it was created for and
+ *  holds no static state, so one JVM can work with many repositories at
+ *  once.  Every public command runs as one session: the head commit, the
+ *  staging area and the current branch are read at most once per session
+ *  and shared by any commands it calls.  Errors are reported by throwing
+ *  a GitletException whose message is the error to show the user, and
+ *  ordinary output goes to the PrintStream given when it was created.
+ *
  *  @author Nameera Faisal Akhtar
  */
 public class Repository {
@@ -19,440 +38,1141 @@ public class Repository {
     /**
      * The current working directory.
      */
-    public static final File CWD = new File(System.getProperty("user.dir"));
+    private final File cwd;
 
     /**
      * The .gitlet directory.
      */
-    public static final File GITLET_DIR = Utils.join(CWD, ".gitlet");
+    private final File gitletDir;
 
     /**
      * The commits folder.
      */
-    public static final File COMMITS_FOLDER = Utils.join(GITLET_DIR, "commits");
+    private final File commitsFolder;
 
     /**
      * The staging area folder
      */
-    public static final File STAGING_FOLDER = Utils.join(GITLET_DIR, "staging");
+    private final File stagingFolder;
 
     /**
      * The blob folder.
      */
-    public static final File BLOBS_FOLDER = Utils.join(GITLET_DIR, "blobs");
+    private final File blobsFolder;
 
     /**
      * The branches folder.
      */
-    public static final File BRANCHES_FOLDER = Utils.join(GITLET_DIR, "branches");
+    private final File branchesFolder;
 
     /**
      * The current branch folder.
      */
-    public static final File CURRBRANCH_FOLDER = Utils.join(GITLET_DIR, "currBranch");
+    private final File currBranchFolder;
+
+    /**
+     * The folder temporary files are written in before being renamed
+     * into place, so that none is ever left among the objects.
+     */
+    private final File tmpFolder;
 
     /**
-     * The current branch.
+     * Where the output of commands goes.
      */
-    static String currentBranchName;
+    private final PrintStream out;
 
     /**
-     * The head pointer points to the latest commit.
+     * The logs of the head and branches.
      */
-    static Commit head;
+    private final RefLog reflog;
 
     /**
-     * A staging area.
+     * The command line being run, as the reflogs record it.
      */
-    static StagingArea ourStage;
+    private String commandLine = "";
+
+    /**
+     * The current branch, or null if it has not been read this session.
+     */
+    private String currentBranchName;
+
+    /**
+     * The head pointer points to the latest commit,
+     * or null if it has not been read this session.
+     */
+    private Commit head;
+
+    /**
+     * A staging area, or null if it has not been read this session.
+     */
+    private StagingArea ourStage;
+
+    /**
+     * The sparse-checkout patterns, or null if they have not been read
+     * this session.
+     */
+    private SparseCheckout sparse;
+
+    /**
+     * The large-file store, or null if it has not been set up this
+     * session.
+     */
+    private LargeFileStore lfs;
+
+    /**
+     * How many sessions are in progress; commands that call other commands
+     * nest their sessions.
+     */
+    private int sessionDepth;
+
+    /** True iff the outermost session in progress holds the lock
+     *  exclusively, so that derived indexes may be written. */
+    private boolean exclusiveSession;
+
+    /** A repository whose working directory is ROOT, printing to System.out. */
+    public Repository(File root) {
+        this(root, System.out);
+    }
+
+    /** A repository whose working directory is ROOT, printing to OUT. */
+    public Repository(File root, PrintStream out) {
+        this.cwd = root.getAbsoluteFile();
+        this.out = out;
+        gitletDir = Utils.join(cwd, ".gitlet");
+        commitsFolder = Utils.join(gitletDir, "commits");
+        stagingFolder = Utils.join(gitletDir, "staging");
+        blobsFolder = Utils.join(gitletDir, "blobs");
+        branchesFolder = Utils.join(gitletDir, "branches");
+        currBranchFolder = Utils.join(gitletDir, "currBranch");
+        tmpFolder = Utils.join(gitletDir, "tmp");
+        reflog = new RefLog(gitletDir);
+    }
+
+    /** Sets the command line the reflogs record for the changes made
+     *  from now on to COMMANDLINE. */
+    public void setCommandLine(String commandLine) {
+        this.commandLine = commandLine;
+    }
 
+    /** Returns true iff there is a Gitlet repository in the working directory. */
+    public boolean isInitialized() {
+        return gitletDir.isDirectory();
+    }
 
-    public static void init() {
+    public void init() {
 
-        if (GITLET_DIR.isDirectory()) {
-            System.out.println("A Gitlet version-control system "
+        if (isInitialized()) {
+            throw Utils.error("A Gitlet version-control system "
                     + "already exists in the current directory.");
-            System.exit(0);
-        } else {
-            GITLET_DIR.mkdir();
-            COMMITS_FOLDER.mkdir();
-            STAGING_FOLDER.mkdir();
-            BLOBS_FOLDER.mkdir();
-            BRANCHES_FOLDER.mkdir();
-            CURRBRANCH_FOLDER.mkdir();
+        }
+        gitletDir.mkdir();
+        session(() -> {
+            commitsFolder.mkdir();
+            stagingFolder.mkdir();
+            blobsFolder.mkdir();
+            branchesFolder.mkdir();
+            currBranchFolder.mkdir();
 
             // Create and save the initial commit in a file.
             // Adjust the head pointer to point to this commit.
             Commit initialCommitObject = new Commit();
             String initialSha1Id = initialCommitObject.accessId();
-            File initialCommitFile = Utils.join(COMMITS_FOLDER, initialSha1Id);
-            Utils.writeObject(initialCommitFile, initialCommitObject);
+            saveCommit(initialCommitObject);
             head = initialCommitObject;
             saveHead();
 
             // Create a file containing master and
             // put the sha1 id the of the initial commit in the file.
-            File masterBranch = Utils.join(BRANCHES_FOLDER, "master");
-            Utils.writeContents(masterBranch, initialSha1Id);
+            writeRef("master", initialSha1Id);
 
             // Create a file containing the current branch and
             // put the name of the current branch in the file.
             currentBranchName = "master";
-            File currentBranch = Utils.join(CURRBRANCH_FOLDER, "currBranch");
-            Utils.writeContents(currentBranch, currentBranchName);
+            saveCurrBranchName();
 
             // Create and save the Staging Area in a file.
             ourStage = new StagingArea();
             saveStage();
-            saveCurrBranchName();
+        });
+    }
+
+    /** Makes the working directory a clone of the repository at SOURCE,
+     *  its working directory or its .gitlet directory, with the same
+     *  branches, the same current branch, an empty stage, and the head's
+     *  files checked out.  Objects are hard-linked rather than copied
+     *  where the file system allows (see LocalClone), so a clone of a
+     *  large repository takes little time or space. */
+    public void cloneFrom(File source) {
+        if (isInitialized()) {
+            throw Utils.error("A Gitlet version-control system "
+                    + "already exists in the current directory.");
         }
+        File root = source.toPath().toAbsolutePath().normalize().toFile();
+        Repository origin = new Repository(root.getName().equals(".gitlet")
+                ? root.getParentFile() : root, out);
+        if (!origin.isInitialized() || origin.gitletDir.equals(gitletDir)) {
+            throw Utils.error("Not a Gitlet repository: %s.", source);
+        }
+        origin.readSession(() -> {
+            Commit originHead = origin.head();
+            for (String fileName : originHead.accessBlob().keySet()) {
+                if (Utils.join(cwd, fileName).exists()) {
+                    throw Utils.error("There is an untracked file in the way; "
+                            + "delete it, or add and commit it first.");
+                }
+            }
+            gitletDir.mkdir();
+            session(() -> {
+                commitsFolder.mkdir();
+                stagingFolder.mkdir();
+                blobsFolder.mkdir();
+                branchesFolder.mkdir();
+                currBranchFolder.mkdir();
+
+                LocalClone objects = new LocalClone();
+                objects.shareObjects(origin.commitsFolder, commitsFolder);
+                objects.shareObjects(origin.blobsFolder, blobsFolder);
+                objects.shareObjects(Utils.join(origin.gitletDir, "lfs"),
+                        Utils.join(gitletDir, "lfs"));
+                for (String cache : new String[] {CommitIndex.FILE_NAME,
+                    CommitIndex.NEW_FILE_NAME, ReachabilityIndex.FILE_NAME,
+                    MergeBase.FILE_NAME}) {
+                    objects.copy(Utils.join(origin.gitletDir, cache),
+                            Utils.join(gitletDir, cache));
+                }
+                File segments = Utils.join(origin.gitletDir, ChangedPathIndex.FILE_NAME);
+                if (segments.isDirectory()) {
+                    Utils.join(gitletDir, ChangedPathIndex.FILE_NAME).mkdir();
+                    for (String name : Utils.plainFilenamesIn(segments)) {
+                        objects.copy(Utils.join(segments, name),
+                                Utils.join(gitletDir, ChangedPathIndex.FILE_NAME, name));
+                    }
+                }
+
+                for (Map.Entry<String, String> branch : origin.refs().all().entrySet()) {
+                    writeRef(branch.getKey(), branch.getValue());
+                }
+                currentBranchName = origin.currentBranch();
+                saveCurrBranchName();
+                head = originHead;
+                saveHead();
+                ourStage = new StagingArea();
+                saveStage();
+
+                writeWorkingFiles(new TreeMap<>(head.accessBlob()));
+                out.printf("Cloned %s: %d objects linked, %d files copied.%n",
+                        origin.cwd, objects.linked(), objects.copied());
+            });
+        });
     }
 
-    public static void add(String fileName) {
+    public void add(String fileName) {
+        session(() -> addFile(fileName));
+    }
 
-        // Reading in the staging area and the head.
-        ourStage = readStage();
-        head = readHead();
+    /** Adds every file named by ARGS, which may be file names, glob
+     *  patterns, or "-A" or "." for every change in the working directory,
+     *  including deletions of tracked files.  The files are hashed and
+     *  stored in parallel and the stage is saved once, with the same
+     *  result as adding each file in turn. */
+    public void add(List<String> args) {
+        session(() -> addAll(args));
+    }
 
-        // If a file with the given name does not exist, print out an error message.
-        if (!Utils.join(CWD, fileName).exists()) {
-            System.out.println("File does not exist.");
-            System.exit(0);
-        }
+    public void commit(String message) {
+        session(() -> commitStaged(message));
+    }
 
-        File needToAdd = Utils.join(CWD, fileName);
-        String sha1OfContents = Utils.sha1(Utils.readContents(needToAdd));
+    public void rm(String fileName) {
+        session(() -> remove(fileName));
+    }
 
-        // If the current working version of file has the same sha1 id
-        // as the file passed in, they are identical.
-        // In that case, do not stage it to be added and
-        // remove it from the staging area if it is there.
-        // Update the staging area in our file.
-        if (head.accessBlob().containsKey(fileName)) {
-            if (head.accessBlob().get(fileName).equals(sha1OfContents)) {
-                if (ourStage.accessRemovedFiles().containsKey(fileName)) {
-                    ourStage.removeFromStagedForRemoval(fileName);
-                    saveStage();
+    public void log() {
+        readSession(() -> {
+            Commit pointer = head();
+            while (pointer != null) {
+                printCommit(pointer);
+                pointer = commitFromId(pointer.accessParent1());
+            }
+        });
+    }
+
+    /** Prints, as log does, the commits in the history of the head
+     *  commit that changed PATH from their first parent.  Commits whose
+     *  changed-path filter rules PATH out are not read at all. */
+    public void log(String path) {
+        readSession(() -> {
+            ChangedPathIndex index = new ChangedPathIndex(this);
+            String id = head().accessId();
+            Commit pointer = head();
+            while (id != null) {
+                String parentId = index.parent1(id);
+                if (index.mayHaveChanged(id, path)) {
+                    if (pointer == null) {
+                        pointer = readCommit(id);
+                    }
+                    Commit parent = commitFromId(parentId);
+                    String before = parent == null ? null : parent.accessBlob().get(path);
+                    if (!Objects.equals(before, pointer.accessBlob().get(path))) {
+                        printCommit(pointer);
+                    }
+                    pointer = parent;
+                } else {
+                    pointer = null;
                 }
-                if (ourStage.accessAddedFiles().containsKey(fileName)) {
-                    ourStage.removeFromStagedForAddition(fileName);
-                    saveStage();
+                id = parentId;
+            }
+        });
+    }
+
+    /** Prints each line of the file PATH in the head commit with the
+     *  commit that last changed it.  Lines are followed back through the
+     *  first-parent history by diffing each version of the file that
+     *  differs from its parent's, skipping the commits whose
+     *  changed-path filter rules PATH out. */
+    public void blame(String path) {
+        readSession(() -> {
+            String blobId = head().accessBlob().get(path);
+            if (blobId == null) {
+                throw Utils.error("File does not exist in that commit.");
+            }
+            List<String> lines = LineDiff.lines(
+                    Utils.readContentsAsString(Utils.join(blobsFolder, blobId)));
+
+            // For each line not yet blamed, its index in CURRENT; -1 once
+            // it has been blamed on OWNER.
+            Commit[] owner = new Commit[lines.size()];
+            int[] position = new int[lines.size()];
+            for (int i = 0; i < position.length; i += 1) {
+                position[i] = i;
+            }
+            int remaining = lines.size();
+            List<String> current = lines;
+
+            ChangedPathIndex index = new ChangedPathIndex(this);
+            String id = head().accessId();
+            Commit pointer = head();
+            while (remaining > 0) {
+                String parentId = index.parent1(id);
+                if (parentId != null && !index.mayHaveChanged(id, path)) {
+                    id = parentId;
+                    pointer = null;
+                    continue;
+                }
+                if (pointer == null) {
+                    pointer = readCommit(id);
                 }
-                System.exit(0);
+                Commit parent = commitFromId(parentId);
+                String parentBlobId = parent == null ? null : parent.accessBlob().get(path);
+                if (!blobId.equals(parentBlobId)) {
+                    List<String> parentLines = parentBlobId == null ? List.of()
+                            : LineDiff.lines(Utils.readContentsAsString(
+                                    Utils.join(blobsFolder, parentBlobId)));
+                    int[] kept = LineDiff.match(parentLines, current);
+                    for (int i = 0; i < position.length; i += 1) {
+                        if (position[i] < 0) {
+                            continue;
+                        }
+                        position[i] = kept[position[i]];
+                        if (position[i] < 0) {
+                            owner[i] = pointer;
+                            remaining -= 1;
+                        }
+                    }
+                    current = parentLines;
+                    blobId = parentBlobId;
+                }
+                id = parentId;
+                pointer = parent;
             }
+
+            for (int i = 0; i < lines.size(); i += 1) {
+                out.println(shortenedId(owner[i].accessId()) + " ("
+                        + owner[i].accessTimestamp() + " " + (i + 1) + ") " + lines.get(i));
+            }
+        });
+    }
+
+    /** Prints every commit ever made, once each, in no particular
+     *  order. */
+    public void globalLog() {
+        readSession(() -> {
+            for (String fileName : Utils.plainFilenamesIn(commitsFolder)) {
+                if (fileName.length() == Utils.UID_LENGTH) {
+                    printCommit(readCommit(fileName));
+                }
+            }
+        });
+    }
+
+    public void find(String commitMsg) {
+        readSession(() -> {
+            //  Print out the ids of all commits in the commits folder
+            //  that have the given commit message
+            int numCommitsWithMsg = 0;
+            for (String fileName : Utils.plainFilenamesIn(commitsFolder)) {
+                Commit commit = readCommit(fileName);
+                String msg = commit.accessMessage();
+                if (msg.equals(commitMsg)) {
+                    if (!fileName.equals("headFile")) {
+                        out.println(fileName);
+                        numCommitsWithMsg += 1;
+                    }
+                }
+            }
+
+            // If no such commit exists, print out an error message.
+            if (numCommitsWithMsg == 0) {
+                throw Utils.error("Found no commit with that message.");
+            }
+        });
+    }
+
+    public void status() {
+        status(false);
+    }
+
+    /** Prints the status, followed by the renames and copies found among
+     *  the changes iff DETECTRENAMES. */
+    public void status(boolean detectRenames) {
+        FsMonitor monitor = new FsMonitor(cwd, gitletDir);
+        readSession(() -> printStatus(detectRenames, monitor));
+        if (monitor.cacheChanged()) {
+            saveDerived(monitor::saveCache);
         }
+    }
 
-        ourStage.stageForAddition(fileName, sha1OfContents);
-        saveStage();
-        saveHead();
-        File blobFile = Utils.join(BLOBS_FOLDER, sha1OfContents);
-        Utils.writeContents(blobFile, Utils.readContents(needToAdd));
+    public void checkoutFileName(String fileName) {
+        session(() -> checkoutFile(head().accessId(), fileName));
     }
 
-    public static void commit(String message) {
+    public void checkoutCommitIdFileName(String commitId, String fileName) {
+        session(() -> checkoutFile(commitId, fileName));
+    }
 
-        ourStage = readStage();
-        head = readHead();
-        currentBranchName = readCurrBranchName();
+    public void checkoutBranchName(String branchName) {
+        session(() -> checkoutBranch(branchName));
+    }
 
+    public void branch(String branchName) {
+        session(() -> {
+            // If a branch with the given name already exists, print error.
+            if (refs().exists(branchName)) {
+                throw Utils.error("A branch with that name already exists.");
+            }
 
-        // If no files have been staged, print out an error message.
-        if (ourStage.accessRemovedFiles().isEmpty()
-                && ourStage.accessAddedFiles().isEmpty()) {
-            System.out.println("No changes added to the commit.");
-            System.exit(0);
-            // If the commit has a blank message, print out an error message.
-        } else if (message.equals("")) {
-            System.out.println("Please enter a commit message.");
-            System.exit(0);
-        } else {
-            // Create a new blob that has the blobs of the current commit...
-            // plus the blobs of the files staged for addition...
-            // minus the blobs of the files staged for removal.
-            TreeMap<String, String> blobsOriginal = head.accessBlob();
-            TreeMap<String, String> blobsNew = (TreeMap<String, String>) blobsOriginal.clone();
+            // Create a new branch with the given name,
+            // and point it at the current head commit
+            writeRef(branchName, head().accessId());
+        });
+    }
 
-            for (String fileToRemove : ourStage.accessRemovedFiles().keySet()) {
-                blobsNew.remove(fileToRemove, ourStage.accessRemovedFiles().get(fileToRemove));
+    public void rmBranch(String branchName) {
+        session(() -> {
+            // If you try to remove the branch you're currently on, print error.
+            if (currentBranch().equals(branchName)) {
+                throw Utils.error("Cannot remove the current branch.");
             }
-            for (String fileToAdd : ourStage.accessAddedFiles().keySet()) {
-                blobsNew.put(fileToAdd, ourStage.accessAddedFiles().get(fileToAdd));
+
+            // If a branch with the given name does not exist, print error.
+            if (!refs().delete(branchName)) {
+                throw Utils.error("A branch with that name does not exist.");
             }
+            reflog.delete(branchName);
+        });
+    }
 
-            // Create a new commit with these blobs, save it, and adjust the head pointer.
-            Commit newCommit = new Commit(message, head.accessId(), null, blobsNew);
-            saveCommit(newCommit);
+    public void reset(String commitId) {
+        session(() -> resetTo(commitId));
+    }
 
-            head = newCommit;
-            saveHead();
-            saveCurrBranchName();
-            updateCurrBranch();
+    public void merge(String branchName) {
+        session(() -> mergeBranch(branchName));
+    }
 
-            // Update the stage.
-            ourStage.clear();
-            saveStage();
+    public void fsmonitor(String action) {
+        // The daemon runs until stopped, so it must not hold the
+        // repository lock; it only touches its own folder.
+        if (!isInitialized()) {
+            throw Utils.error("Not in an initialized Gitlet directory.");
+        }
+        FsMonitor monitor = new FsMonitor(cwd, gitletDir);
+        if (action.equals("stop")) {
+            monitor.stopDaemon();
+        } else {
+            // Runs until stopped; start it in the background.
+            monitor.runDaemon();
         }
+    }
 
+    public void packRefs() {
+        // Move every loose branch file into the single sorted packed-refs file.
+        session(() -> refs().pack());
     }
 
-    public static void rm(String fileName) {
+    /** Applies the changes the commit COMMITID made to its first parent
+     *  to the head commit, as a new commit with the same message. */
+    public void cherryPick(String commitId) {
+        session(() -> cherryPickCommit(commitId));
+    }
 
-        // Reading in the staging area and the head.
-        ourStage = readStage();
-        head = readHead();
+    /** Replays the commits of the current branch that are not in the
+     *  branch BRANCHNAME on top of it. */
+    public void rebase(String branchName) {
+        session(() -> rebaseOnto(branchName));
+    }
 
-        // Create booleans for if the file is tracked in the current commit,
-        // and if it is staged for addition.
-        boolean isStagedForAddition = ourStage.accessAddedFiles().containsKey(fileName);
-        boolean isTracked = head.accessBlob().containsKey(fileName);
-        boolean isStagedForRemoval = ourStage.accessRemovedFiles().containsKey(fileName);
+    /** Writes the blobs and commits described by the fast-import stream
+     *  IN, without touching the working directory, and then moves the
+     *  branches it names.  If the current branch moves, so does the head,
+     *  and the working directory is left as it was. */
+    public void fastImport(InputStream in) {
+        session(() -> {
+            FastImport stream = new FastImport(this, in);
+            try {
+                stream.run();
+            } finally {
+                // Commits written before a failure are indexed too, so
+                // that short ids and walks find them.
+                new CommitIndex(this).addAll(stream.newCommits());
+                stream.changedPaths().save();
+            }
+            for (Map.Entry<String, String> branch : stream.branches().entrySet()) {
+                if (branch.getValue() != null) {
+                    writeRef(branch.getKey(), branch.getValue());
+                }
+            }
+            String headId = stream.branches().get(currentBranch());
+            if (headId != null && !headId.equals(head().accessId())) {
+                head = readCommit(headId);
+                saveHead();
+            }
+            out.println("Imported " + stream.newCommits().size() + " commits and "
+                    + stream.newBlobs() + " blobs.");
+        });
+    }
 
-        // If the file is neither staged nor tracked by the head commit, print out an error message.
-        if (!isStagedForAddition && !isStagedForRemoval && !isTracked) {
-            System.out.println("No reason to remove the file.");
-            System.exit(0);
-        } else {
-            // Unstage the file if it is currently staged for addition.
-            if (isStagedForAddition) {
-                ourStage.removeFromStagedForAddition(fileName);
-                saveStage();
+    /** Prints the history reachable from every branch as a fast-import
+     *  stream. */
+    public void fastExport() {
+        readSession(() -> {
+            try {
+                new FastExport(this, out).run();
+            } catch (IOException excp) {
+                throw Utils.error("fast-export: %s", excp.getMessage());
             }
+        });
+    }
+
+    /** Prints the log of REF, the head if it is HEAD, newest first. */
+    public void reflog(String ref) {
+        readSession(() -> {
+            if (!ref.equals(RefLog.HEAD) && !refs().exists(ref)) {
+                throw Utils.error("A branch with that name does not exist.");
+            }
+            List<RefLog.Entry> entries = reflog.entries(ref);
+            for (int i = 0; i < entries.size(); i += 1) {
+                RefLog.Entry e = entries.get(i);
+                out.println(shortenedId(e.newId) + " " + ref + "@{" + i + "}: " + e.command);
+            }
+        });
+    }
 
-            // If the file is tracked in the current commit, stage it for removal
-            // remove the file from the working directory if the user has not already done so.
-            // Also, unstage the file if it is currently staged for addition.
-            if (isTracked) {
-                if (!ourStage.accessRemovedFiles().containsKey(fileName)) {
-                    ourStage.stageForRemoval(fileName, head.accessBlob().get(fileName));
+    /** Prints the merge base of the commits A and B, each of which may
+     *  also be a branch name, or every merge base if ALL. */
+    public void mergeBase(String a, String b, boolean all) {
+        MergeBase graph = readSession(() -> {
+            MergeBase g = MergeBase.load(this);
+            List<String> bases = g.bases(revision(a), revision(b));
+            for (String id : all ? bases : bases.subList(0, Math.min(1, bases.size()))) {
+                out.println(id);
+            }
+            return g;
+        });
+        if (graph.changed()) {
+            saveDerived(graph::save);
+        }
+    }
+
+    /** Writes the files of the commit COMMITID, which may also be a
+     *  branch name, as an archive in FORMAT ("tar" or "zip") to the file
+     *  OUTPUT, or to standard output if OUTPUT is null.  The working
+     *  directory is not touched. */
+    public void archive(String commitId, String format, File output) {
+        readSession(() -> {
+            Commit c = readCommit(revision(commitId));
+            try {
+                if (output == null) {
+                    // Standard output is left open for error messages.
+                    out.flush();
+                    new Archive(this::contentsFile,
+                            new FileOutputStream(FileDescriptor.out).getChannel()).write(c, format);
+                } else {
+                    try (FileChannel dest = FileChannel.open(output.toPath(),
+                            StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                            StandardOpenOption.WRITE)) {
+                        new Archive(this::contentsFile, dest).write(c, format);
+                    }
                 }
-                Utils.restrictedDelete(fileName);
-                saveStage();
+            } catch (IOException excp) {
+                throw Utils.error("archive: %s", excp.getMessage());
+            }
+        });
+    }
+
+    /** Prints every setting, or the value of KEY if it is not null, or
+     *  sets KEY to VALUE if neither is null.  UNSET removes KEY. */
+    public void config(String key, String value, boolean unset) {
+        session(key != null && (value != null || unset), () -> {
+            Config config = Config.load(gitletDir);
+            if (key == null) {
+                for (Map.Entry<String, String> e : config.all().entrySet()) {
+                    out.println(e.getKey() + " = " + e.getValue());
+                }
+            } else if (unset || value != null) {
+                config.set(key, value);
+                config.save();
+            } else if (config.get(key) != null) {
+                out.println(config.get(key));
+            }
+            return null;
+        });
+    }
+
+    /** Runs the large-file command ACTION.  "pull" replaces the pointers
+     *  in the working directory of the head's large files matching one of
+     *  PATTERNS, or of all of them if there are none, with their
+     *  contents.  "ls-files" lists the head's large files, marking with
+     *  "*" those whose contents are in the working directory and with "-"
+     *  those that are pointers. */
+    public void lfs(String action, List<String> patterns) {
+        session(action.equals("pull"), () -> {
+            List<PathMatcher> matchers = new ArrayList<>();
+            for (String pattern : patterns) {
+                matchers.add(FileSystems.getDefault().getPathMatcher("glob:" + pattern));
             }
+            for (Map.Entry<String, String> e : head().accessBlob().entrySet()) {
+                String fileName = e.getKey();
+                LargeFileStore.Pointer large =
+                        LargeFileStore.pointer(Utils.join(blobsFolder, e.getValue()));
+                File f = Utils.join(cwd, fileName);
+                if (large == null) {
+                    continue;
+                } else if (action.equals("ls-files")) {
+                    String mark = f.isFile() && LargeFileStore.holds(f, large) ? "*" : "-";
+                    out.println(large.oid.substring(0, 10) + " " + mark + " " + fileName);
+                } else if (f.isFile() && Utils.sha1(Utils.readContents(f)).equals(e.getValue())
+                        && (matchers.isEmpty() || matchers.stream().anyMatch(
+                                m -> m.matches(Paths.get(fileName))))) {
+                    lfs().materialize(large, f);
+                }
+            }
+            return null;
+        });
+    }
+
+    /** Verifies every object, or only those written since the last clean
+     *  run iff INCREMENTAL, and prints the problems found. */
+    public void fsck(boolean incremental) {
+        Fsck check = new Fsck(this);
+        List<String> problems = readSession(() -> check.run(incremental));
+        for (String problem : problems) {
+            out.println(problem);
+        }
+        if (problems.isEmpty()) {
+            saveDerived(check::recordCleanRun);
         }
     }
 
-    public static void log() {
+    /** Changes or lists the sparse-checkout patterns.  ACTION "set"
+     *  replaces them with PATTERNS and "add" appends PATTERNS to them;
+     *  both then write the tracked files that are now included and delete
+     *  the unchanged ones that are not.  "disable" writes every tracked
+     *  file again, and "list" prints the patterns. */
+    public void sparseCheckout(String action, List<String> patterns) {
+        if (action.equals("list")) {
+            readSession(() -> {
+                for (String pattern : sparse().patterns()) {
+                    out.println(pattern);
+                }
+            });
+            return;
+        }
+        session(() -> {
+            List<String> newPatterns = null;
+            if (action.equals("set")) {
+                newPatterns = patterns;
+            } else if (action.equals("add")) {
+                newPatterns = new ArrayList<>(sparse().patterns());
+                newPatterns.addAll(patterns);
+            }
+            SparseCheckout.save(gitletDir, newPatterns);
+            sparse = null;
+            applySparse();
+        });
+    }
 
-        head = readHead();
+    /**
+     * Read-only queries, for programs that embed a Repository.  Like the
+     * read-only commands, they take the repository lock shared.
+     */
+
+    /** Returns the name of the current branch. */
+    public String headBranch() {
+        return readSession(this::currentBranch);
+    }
 
-        Commit pointer = head;
-        while (pointer != null) {
-            System.out.println("===");
-            System.out.println("commit " + pointer.accessId());
-            if (pointer.accessParent1() != null && pointer.accessParent2() != null) {
-                System.out.println("Merge: " + shortenedId(pointer.accessParent1())
-                        + " " + shortenedId(pointer.accessParent2()));
+    /** Returns the id of the commit at the head of each branch, by name. */
+    public TreeMap<String, String> branches() {
+        return readSession(() -> refs().all());
+    }
+
+    /** Returns the commit whose id is or starts with COMMITID. */
+    public Commit commitInfo(String commitId) {
+        return readSession(() -> {
+            String id = fullId(commitId);
+            if (id.equals("")) {
+                throw Utils.error("No commit with that id exists.");
             }
-            System.out.println("Date: " + pointer.accessTimestamp().toString());
-            System.out.println(pointer.accessMessage());
-            System.out.println();
+            return readCommit(id);
+        });
+    }
 
-            pointer = commitFromId(pointer.accessParent1());
+    /** Returns at most LIMIT commits, starting at the commit whose id is
+     *  or starts with COMMITID and following first parents, as log does. */
+    public List<Commit> history(String commitId, int limit) {
+        return readSession(() -> {
+            ArrayList<Commit> result = new ArrayList<>();
+            Commit pointer = commitInfo(commitId);
+            while (pointer != null && result.size() < limit) {
+                result.add(pointer);
+                pointer = commitFromId(pointer.accessParent1());
+            }
+            return result;
+        });
+    }
+
+    /** Returns the file holding the contents of blob BLOBID.  Blobs are
+     *  never changed once written, so it can be read without a lock. */
+    public File blobFile(String blobId) {
+        File f = Utils.join(blobsFolder, blobId);
+        if (!blobId.matches("[0-9a-f]{40}") || !f.isFile()) {
+            throw Utils.error("No blob with that id exists.");
         }
+        return f;
     }
 
+    /**
+     * Command implementations.  These run inside a session and may call
+     * one another.
+     */
 
-    public static void globalLog() {
+    private void addFile(String fileName) {
 
-        head = readHead();
-        ourStage = readStage();
+        // If a file with the given name does not exist, print out an error message.
+        if (!Utils.join(cwd, fileName).exists()) {
+            throw Utils.error("File does not exist.");
+        }
 
-        for (String fileName : Utils.plainFilenamesIn(COMMITS_FOLDER)) {
+        File needToAdd = Utils.join(cwd, fileName);
+        if (lfs().isLarge(needToAdd)) {
+            stageFile(fileName, storeLarge(needToAdd));
+            saveStage();
+            return;
+        }
+        String sha1OfContents = Utils.sha1(Utils.readContents(needToAdd));
 
-            if (!fileName.equals("headFile")) {
+        if (!stageFile(fileName, sha1OfContents)) {
+            saveStage();
+            return;
+        }
+        saveStage();
+        // Blobs may be hard-linked into clones, so one is never rewritten.
+        File blobFile = Utils.join(blobsFolder, sha1OfContents);
+        if (!blobFile.exists()) {
+            Utils.writeContents(blobFile, Utils.readContents(needToAdd));
+        }
+    }
 
-                Commit pointer = readCommit(fileName);
+    private void addAll(List<String> args) {
+
+        List<String> filesInCWD = Utils.plainFilenamesIn(cwd);
+        TreeSet<String> toAdd = new TreeSet<>();
+        boolean all = false;
+        for (String arg : args) {
+            if (arg.equals("-A") || arg.equals(".")) {
+                all = true;
+                toAdd.addAll(filesInCWD);
+            } else if (isGlob(arg)) {
+                PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + arg);
+                boolean matched = false;
+                for (String fileName : filesInCWD) {
+                    if (matcher.matches(Paths.get(fileName))) {
+                        toAdd.add(fileName);
+                        matched = true;
+                    }
+                }
+                if (!matched) {
+                    throw Utils.error("File does not exist.");
+                }
+            } else if (!Utils.join(cwd, arg).exists()) {
+                throw Utils.error("File does not exist.");
+            } else {
+                toAdd.add(arg);
+            }
+        }
 
-                while (pointer != null) {
-                    System.out.println("===");
-                    System.out.println("commit " + pointer.accessId());
-                    if (pointer.accessParent1() != null && pointer.accessParent2() != null) {
-                        System.out.println("Merge: " + shortenedId(pointer.accessParent1())
-                                + " " + shortenedId(pointer.accessParent2()));
+        TreeSet<String> large = new TreeSet<>();
+        for (String fileName : toAdd) {
+            if (lfs().isLarge(Utils.join(cwd, fileName))) {
+                large.add(fileName);
+            }
+        }
+        toAdd.removeAll(large);
+        TreeMap<String, String> hashes = ParallelHasher.hashAndStore(cwd, toAdd, blobsFolder,
+                tmpFolder());
+        for (String fileName : large) {
+            hashes.put(fileName, storeLarge(Utils.join(cwd, fileName)));
+        }
+        for (Map.Entry<String, String> entry : hashes.entrySet()) {
+            stageFile(entry.getKey(), entry.getValue());
+        }
+
+        // With -A, tracked files that are gone from the working directory
+        // are staged for removal, as rm would do.
+        if (all) {
+            for (String fileName : head().accessBlob().keySet()) {
+                if (!Utils.join(cwd, fileName).exists() && sparse().includes(fileName)) {
+                    stage().removeFromStagedForAddition(fileName);
+                    if (!stage().accessRemovedFiles().containsKey(fileName)) {
+                        stage().stageForRemoval(fileName, head().accessBlob().get(fileName));
                     }
-                    System.out.println("Date: " + pointer.accessTimestamp().toString());
-                    System.out.println(pointer.accessMessage());
-                    System.out.println();
+                }
+            }
+        }
+        saveStage();
+    }
 
-                    pointer = commitFromId(pointer.accessParent1());
+    /** Stages the working file FILENAME, whose contents hash to SHA1, for
+     *  addition.  If it is identical to the version in the head commit,
+     *  it is instead removed from the staging area if it is there, and
+     *  false is returned. */
+    private boolean stageFile(String fileName, String sha1) {
+        // If the current working version of file has the same sha1 id
+        // as the file passed in, they are identical.
+        // In that case, do not stage it to be added and
+        // remove it from the staging area if it is there.
+        if (head().accessBlob().containsKey(fileName)) {
+            if (head().accessBlob().get(fileName).equals(sha1)) {
+                if (stage().accessRemovedFiles().containsKey(fileName)) {
+                    stage().removeFromStagedForRemoval(fileName);
+                }
+                if (stage().accessAddedFiles().containsKey(fileName)) {
+                    stage().removeFromStagedForAddition(fileName);
                 }
+                return false;
             }
         }
+        stage().stageForAddition(fileName, sha1);
+        return true;
     }
 
-    public static void find(String commitMsg) {
+    /** Stores the working file F in the large-file store and its pointer
+     *  as a blob, and returns the pointer's blob id. */
+    private String storeLarge(File f) {
+        byte[] pointer = lfs().store(f).bytes();
+        String id = Utils.sha1(pointer);
+        File blobFile = Utils.join(blobsFolder, id);
+        if (!blobFile.exists()) {
+            Utils.writeContents(blobFile, (Object) pointer);
+        }
+        return id;
+    }
 
-        //  Print out the ids of all commits in COMMITS_FOLDER that have the given commit message
-        int numCommitsWithMsg = 0;
-        for (String fileName : Utils.plainFilenamesIn(COMMITS_FOLDER)) {
-            Commit commit = readCommit(fileName);
-            String msg = commit.accessMessage();
-            if (msg.equals(commitMsg)) {
-                if (!fileName.equals("headFile")) {
-                    System.out.println(fileName);
-                    numCommitsWithMsg += 1;
-                }
+    /** Returns true iff ARG contains glob metacharacters. */
+    private static boolean isGlob(String arg) {
+        return arg.indexOf('*') >= 0 || arg.indexOf('?') >= 0
+                || arg.indexOf('[') >= 0 || arg.indexOf('{') >= 0;
+    }
+
+    private void commitStaged(String message) {
+        commitStaged(message, null);
+    }
+
+    /** Commits the staged changes with MESSAGE, and with PARENT2 as the
+     *  second parent if it is not null.  The second parent is set before
+     *  the commit is saved, so walks of the commits folder see it. */
+    private void commitStaged(String message, String parent2) {
+
+        StagingArea ourStage = stage();
+
+        // If no files have been staged, print out an error message.
+        if (ourStage.accessRemovedFiles().isEmpty()
+                && ourStage.accessAddedFiles().isEmpty()) {
+            throw Utils.error("No changes added to the commit.");
+            // If the commit has a blank message, print out an error message.
+        } else if (message.equals("")) {
+            throw Utils.error("Please enter a commit message.");
+        }
+
+        // Create a new blob that has the blobs of the current commit...
+        // plus the blobs of the files staged for addition...
+        // minus the blobs of the files staged for removal.
+        Set<String> removed = new HashSet<>();
+        for (Map.Entry<String, String> e : ourStage.accessRemovedFiles().entrySet()) {
+            if (e.getValue().equals(head().accessBlob().get(e.getKey()))) {
+                removed.add(e.getKey());
+            }
+        }
+        for (String blobId : ourStage.accessAddedFiles().values()) {
+            LargeFileStore.Pointer large = LargeFileStore.pointer(Utils.join(blobsFolder, blobId));
+            if (large != null) {
+                lfs().upload(large);
             }
         }
+        FileMap blobsNew = head().accessBlob().with(ourStage.accessAddedFiles(), removed);
+
+        // Create a new commit with these blobs, save it, and adjust the head pointer.
+        Commit newCommit = new Commit(message, head().accessId(), parent2, blobsNew);
+        saveCommit(newCommit);
+
+        currentBranch();
+        head = newCommit;
+        saveHead();
+        saveCurrBranchName();
+        updateCurrBranch();
+
+        // Update the stage.
+        ourStage.clear();
+        saveStage();
+    }
+
+    private void remove(String fileName) {
+
+        // Create booleans for if the file is tracked in the current commit,
+        // and if it is staged for addition.
+        boolean isStagedForAddition = stage().accessAddedFiles().containsKey(fileName);
+        boolean isTracked = head().accessBlob().containsKey(fileName);
+        boolean isStagedForRemoval = stage().accessRemovedFiles().containsKey(fileName);
+
+        // If the file is neither staged nor tracked by the head commit, print out an error message.
+        if (!isStagedForAddition && !isStagedForRemoval && !isTracked) {
+            throw Utils.error("No reason to remove the file.");
+        }
 
-        // If no such commit exists, print out an error message.
-        if (numCommitsWithMsg == 0) {
-            System.out.println("Found no commit with that message.");
-            System.exit(0);
+        // Unstage the file if it is currently staged for addition.
+        if (isStagedForAddition) {
+            stage().removeFromStagedForAddition(fileName);
+            saveStage();
+        }
+
+        // If the file is tracked in the current commit, stage it for removal
+        // remove the file from the working directory if the user has not already done so.
+        // Also, unstage the file if it is currently staged for addition.
+        if (isTracked) {
+            if (!stage().accessRemovedFiles().containsKey(fileName)) {
+                stage().stageForRemoval(fileName, head().accessBlob().get(fileName));
+            }
+            Utils.restrictedDelete(Utils.join(cwd, fileName));
+            saveStage();
         }
     }
 
-    public static void status() {
+    private void printCommit(Commit pointer) {
+        out.println("===");
+        out.println("commit " + pointer.accessId());
+        if (pointer.accessParent1() != null && pointer.accessParent2() != null) {
+            out.println("Merge: " + shortenedId(pointer.accessParent1())
+                    + " " + shortenedId(pointer.accessParent2()));
+        }
+        out.println("Date: " + pointer.accessTimestamp());
+        out.println(pointer.accessMessage());
+        out.println();
+    }
 
-        head = readHead();
-        ourStage = readStage();
-        currentBranchName = readCurrBranchName();
+    /** Prints the status, with the sha1s of the working files from
+     *  MONITOR. */
+    private void printStatus(boolean detectRenames, FsMonitor monitor) {
+        // Read before printing anything, so that a damaged stage is
+        // reported on its own.
+        stage();
 
         // Branches
-        List<String> branches = Utils.plainFilenamesIn(BRANCHES_FOLDER);
-        Collections.sort(branches);
+        List<String> branches = refs().list();
 
-        System.out.println("=== Branches ===");
+        out.println("=== Branches ===");
         for (String branchName : branches) {
-            if (currentBranchName.equals(branchName)) {
-                System.out.print("*");
+            if (currentBranch().equals(branchName)) {
+                out.print("*");
             }
-            System.out.println(branchName);
+            out.println(branchName);
         }
-        System.out.println();
+        out.println();
 
         // Staged Files
 
         ArrayList<String> stagedFiles = new ArrayList<String>();
-        stagedFiles.addAll(ourStage.accessAddedFiles().keySet());
+        stagedFiles.addAll(stage().accessAddedFiles().keySet());
         Collections.sort(stagedFiles);
 
-        System.out.println("=== Staged Files ===");
+        out.println("=== Staged Files ===");
         for (String stagedFileName : stagedFiles) {
-            System.out.println(stagedFileName);
+            out.println(stagedFileName);
         }
-        System.out.println();
+        out.println();
 
 
         // Removed files
         ArrayList<String> removedFiles = new ArrayList<String>();
-        removedFiles.addAll(ourStage.accessRemovedFiles().keySet());
+        removedFiles.addAll(stage().accessRemovedFiles().keySet());
         Collections.sort(removedFiles);
 
-        System.out.println("=== Removed Files ===");
+        out.println("=== Removed Files ===");
         for (String removedFileName : removedFiles) {
-            System.out.println(removedFileName);
+            out.println(removedFileName);
         }
-        System.out.println();
+        out.println();
+
+        // The sha1 of every working file, from the file-system monitor
+        // when one is running.
+        TreeMap<String, String> workingFiles = monitor.workingFiles();
 
         // Modifications not staged for commits
-        System.out.println("=== Modifications Not Staged For Commit ===");
-        Map<String, String> modifiedUnstagedFiles = findModifiedUnstagedFiles();
+        out.println("=== Modifications Not Staged For Commit ===");
+        Map<String, String> modifiedUnstagedFiles = findModifiedUnstagedFiles(workingFiles);
         for (String modifiedUnstagedFileName : modifiedUnstagedFiles.keySet()) {
-            System.out.println(modifiedUnstagedFileName + "("
+            out.println(modifiedUnstagedFileName + "("
                     + modifiedUnstagedFiles.get(modifiedUnstagedFileName) + ")");
         }
-        System.out.println();
+        out.println();
 
         // Untracked files
-        System.out.println("=== Untracked Files ===");
-        ArrayList<String> untrackedFiles = findUntrackedFiles();
+        out.println("=== Untracked Files ===");
+        ArrayList<String> untrackedFiles = findUntrackedFiles(workingFiles);
         for (String untrackedFileName : untrackedFiles) {
-            System.out.println(untrackedFileName);
+            out.println(untrackedFileName);
         }
-        System.out.println();
-    }
+        out.println();
 
-    public static void checkoutFileName(String fileName) {
-
-        head = readHead();
-        ourStage = readStage();
-
-        checkoutCommitIdFileName(head.accessId(), fileName);
+        if (detectRenames) {
+            printRenames(workingFiles, untrackedFiles);
+        }
     }
 
+    /** Prints the renames and copies from the head commit to the staging
+     *  area, and the renames of tracked files deleted from the working
+     *  directory to UNTRACKEDFILES, given the sha1 of every working file
+     *  in WORKINGFILES. */
+    private void printRenames(TreeMap<String, String> workingFiles,
+                              List<String> untrackedFiles) {
+        FileMap tracked = head().accessBlob();
+        TreeMap<String, String> staged = new TreeMap<>(tracked);
+        staged.keySet().removeAll(stage().accessRemovedFiles().keySet());
+        staged.putAll(stage().accessAddedFiles());
+
+        // Untracked files are not blobs yet, so read them where they are.
+        HashMap<String, String> workingNames = new HashMap<>();
+        for (String fileName : workingFiles.keySet()) {
+            workingNames.put(workingFiles.get(fileName), fileName);
+        }
+        RenameDetector detector = new RenameDetector(id -> {
+            File blobFile = Utils.join(blobsFolder, id);
+            return blobFile.isFile() ? Utils.readContents(blobFile)
+                    : Utils.readContents(Utils.join(cwd, workingNames.get(id)));
+        });
+
+        TreeMap<String, String> deleted = new TreeMap<>();
+        for (String fileName : tracked.keySet()) {
+            if (!workingFiles.containsKey(fileName)
+                    && !stage().accessRemovedFiles().containsKey(fileName)) {
+                deleted.put(fileName, tracked.get(fileName));
+            }
+        }
+        TreeMap<String, String> untracked = new TreeMap<>();
+        for (String fileName : untrackedFiles) {
+            untracked.put(fileName, workingFiles.get(fileName));
+        }
 
-    public static void checkoutCommitIdFileName(String commitId, String fileName) {
+        out.println("=== Renamed Files ===");
+        List<RenameDetector.Match> renames = detector.renames(tracked, staged);
+        HashSet<String> renamedTo = new HashSet<>();
+        for (RenameDetector.Match m : renames) {
+            renamedTo.add(m.target);
+            out.println(m);
+        }
+        for (RenameDetector.Match m : detector.renames(deleted, untracked)) {
+            out.println(m + " (not staged)");
+        }
+        out.println();
+
+        out.println("=== Copied Files ===");
+        TreeMap<String, String> sources = new TreeMap<>();
+        TreeMap<String, String> added = new TreeMap<>();
+        for (String fileName : staged.keySet()) {
+            if (tracked.containsKey(fileName)) {
+                sources.put(fileName, tracked.get(fileName));
+            } else if (!renamedTo.contains(fileName)) {
+                added.put(fileName, staged.get(fileName));
+            }
+        }
+        for (RenameDetector.Match m : detector.copies(sources, added)) {
+            out.println(m);
+        }
+        out.println();
+    }
 
-        head = readHead();
-        ourStage = readStage();
+    private void checkoutFile(String commitId, String fileName) {
 
         commitId = fullId(commitId);
         // If no commit with the given id exists, print out an error message.
 
         if (commitId.equals("")
-                || !Utils.join(COMMITS_FOLDER, commitId).exists()) {
-            System.out.println("No commit with that id exists.");
-            System.exit(0);
+                || !Utils.join(commitsFolder, commitId).exists()) {
+            throw Utils.error("No commit with that id exists.");
         }
 
         Commit givenCommit = commitFromId(commitId);
 
         if (!givenCommit.accessBlob().containsKey(fileName)) {
-            System.out.println("File does not exist in that commit.");
-            System.exit(0);
+            throw Utils.error("File does not exist in that commit.");
         }
 
         // Else...
         // takes the version of the file as it exists in the commit with the given id,
         // and puts it in the working directory
-        if (Utils.join(CWD, fileName).exists()) {
-            Utils.restrictedDelete(fileName);
+        File newFile = Utils.join(cwd, fileName);
+        if (newFile.exists()) {
+            Utils.restrictedDelete(newFile);
         }
-        String versionWantedId = givenCommit.accessBlob().get(fileName);
-        File versionWantedFile = Utils.join(BLOBS_FOLDER, versionWantedId);
-        byte[] versionWantedContents = Utils.readContents(versionWantedFile);
-        File newFile = Utils.join(CWD, fileName);
-        Utils.writeContents(newFile, versionWantedContents);
-
-        saveHead();
-        saveStage();
+        writeWorkingFile(fileName, givenCommit.accessBlob().get(fileName));
     }
 
-    public static void checkoutBranchName(String branchName) {
-
-        head = readHead();
-        ourStage = readStage();
-        currentBranchName = readCurrBranchName();
+    private void checkoutBranch(String branchName) {
 
         // If no branch with that name exists, print error message
-        if (!Utils.join(BRANCHES_FOLDER, branchName).exists()) {
-            System.out.println("No such branch exists.");
-            System.exit(0);
+        String newBranchSha1 = refs().read(branchName);
+        if (newBranchSha1 == null) {
+            throw Utils.error("No such branch exists.");
             // If that branch is the current branch, print error message
-        } else if (branchName.equals(currentBranchName)) {
-            System.out.println("No need to checkout the current branch.");
-            System.exit(0);
+        } else if (branchName.equals(currentBranch())) {
+            throw Utils.error("No need to checkout the current branch.");
         }
 
         // If a working file is untracked in the current branch and
         // would be overwritten by the checkout, print error message
-        File newBranchFile = Utils.join(BRANCHES_FOLDER, branchName);
-        String newBranchSha1 = Utils.readContentsAsString(newBranchFile);
-        File newBranchCommitFile = Utils.join(COMMITS_FOLDER, newBranchSha1);
-        Commit newBranchCommit = Utils.readObject(newBranchCommitFile, Commit.class);
-
-        for (String fileName : Utils.plainFilenamesIn(CWD)) {
-            if (!head.accessBlob().containsKey(fileName)) {
-                String sha1InCWD = Utils.sha1(Utils.readContents(Utils.join(CWD, fileName)));
+        Commit newBranchCommit = readCommit(newBranchSha1);
+
+        for (String fileName : Utils.plainFilenamesIn(cwd)) {
+            if (!head().accessBlob().containsKey(fileName)) {
+                String sha1InCWD = Utils.sha1(Utils.readContents(Utils.join(cwd, fileName)));
                 String sha1InCheckedOut = newBranchCommit.accessId();
                 if (!sha1InCheckedOut.equals(sha1InCWD)) {
-                    System.out.println("There is an untracked file in the way; "
+                    throw Utils.error("There is an untracked file in the way; "
                             + "delete it, or add and commit it first.");
-                    System.exit(0);
                 }
             }
         }
 
-        // Any files that are tracked in the current branch
-        // but are not present in the checked-out branch are deleted.
-        for (String fileName : Utils.plainFilenamesIn(CWD)) {
-            if (!newBranchCommit.accessBlob().containsKey(fileName)
-                    && head.accessBlob().containsKey(fileName)) {
-                Utils.restrictedDelete(fileName);
-            }
-        }
-
         // Takes all files in the commit at the head of the given branch,
         // and puts them in the working directory.
         // If you're currently on branch1 and there is a file f.txt,
@@ -460,16 +1180,25 @@ public class Repository {
         // which has a different version of f.txt,
         // you should be updating your CWD with master's version
         // of f.txt.
+        TreeMap<String, String> toWrite = new TreeMap<>();
         for (String fileName : newBranchCommit.accessBlob().keySet()) {
-            String versionWantedId = newBranchCommit.accessBlob().get(fileName);
-            File versionWantedFile = Utils.join(BLOBS_FOLDER, versionWantedId);
-            byte[] versionWantedContents = Utils.readContents(versionWantedFile);
-            File newFile = Utils.join(CWD, fileName);
-            Utils.writeContents(newFile, versionWantedContents);
+            if (sparse().includes(fileName)) {
+                toWrite.put(fileName, newBranchCommit.accessBlob().get(fileName));
+            }
         }
+        writeWorkingFiles(toWrite);
 
-        if (!currentBranchName.equals(branchName)) {
-            ourStage.clear();
+        // Any files that are tracked in the current branch
+        // but are not present in the checked-out branch are deleted.
+        for (String fileName : Utils.plainFilenamesIn(cwd)) {
+            if (!newBranchCommit.accessBlob().containsKey(fileName)
+                    && head().accessBlob().containsKey(fileName)) {
+                Utils.restrictedDelete(Utils.join(cwd, fileName));
+            }
+        }
+
+        if (!currentBranch().equals(branchName)) {
+            stage().clear();
             saveStage();
         }
 
@@ -480,89 +1209,54 @@ public class Repository {
         updateCurrBranch();
     }
 
-    public static void branch(String branchName) {
-        head = readHead();
-
-        // If a branch with the given name already exists, print error.
-        if (Utils.join(BRANCHES_FOLDER, branchName).exists()) {
-            System.out.println("A branch with that name already exists.");
-            System.exit(0);
-        }
-
-        // Create a new branch with the given name,
-        // and point it at the current head commit
-        File branchFile = Utils.join(BRANCHES_FOLDER, branchName);
-        Utils.writeContents(branchFile, head.accessId());
-
-    }
-
-    public static void rmBranch(String branchName) {
-        currentBranchName = readCurrBranchName();
+    private void resetTo(String commitId) {
 
-        // If you try to remove the branch you’re currently on, print error.
-        if (currentBranchName.equals(branchName)) {
-            System.out.println("Cannot remove the current branch.");
-            System.exit(0);
-        }
+        commitId = revision(commitId);
 
-        // If a branch with the given name does not exist, print error.
-        File branchFile = Utils.join(BRANCHES_FOLDER, branchName);
-        if (!branchFile.delete()) {
-            System.out.println("A branch with that name does not exist.");
-            System.exit(0);
-        }
-    }
-
-    public static void reset(String commitId) {
-        ourStage = readStage();
-        head = readHead();
-        currentBranchName = readCurrBranchName();
-
-        commitId = fullId(commitId);
-
-        if (commitId.equals("")
-                || !Utils.join(COMMITS_FOLDER, commitId).exists()) {
-            System.out.println("No commit with that id exists.");
-            System.exit(0);
+        if (!Utils.join(commitsFolder, commitId).exists()) {
+            throw Utils.error("No commit with that id exists.");
         }
 
         Commit givenCommit = readCommit(commitId);
 
         //  If a working file is untracked in the current branch
         //  and would be overwritten by the reset, print error
-        for (String fileName : Utils.plainFilenamesIn(CWD)) {
+        for (String fileName : Utils.plainFilenamesIn(cwd)) {
             if (givenCommit.accessBlob().containsKey(fileName)
-                    && !head.accessBlob().containsKey(fileName)) {
-                String sha1InCWD = Utils.sha1(Utils.readContents(Utils.join(CWD, fileName)));
+                    && !head().accessBlob().containsKey(fileName)) {
+                String sha1InCWD = Utils.sha1(Utils.readContents(Utils.join(cwd, fileName)));
                 String sha1InCheckedOut = givenCommit.accessId();
                 if (!sha1InCheckedOut.equals(sha1InCWD)) {
-                    System.out.println("There is an untracked file in the way; "
+                    throw Utils.error("There is an untracked file in the way; "
                             + "delete it, or add and commit it first.");
-                    System.exit(0);
                 }
             }
         }
 
-        // Removes tracked files that are not present in given commit
-        for (String fileName : Utils.plainFilenamesIn(CWD)) {
-            if (!givenCommit.accessBlob().containsKey(fileName)) {
-                Utils.restrictedDelete(fileName);
-            }
-        }
-
         // Checks out all the files tracked by the given commit
+        // that sparse checkout includes.
+        TreeMap<String, String> toWrite = new TreeMap<>();
         for (String fileName : givenCommit.accessBlob().keySet()) {
-            checkoutCommitIdFileName(commitId, fileName);
+            if (sparse().includes(fileName)) {
+                toWrite.put(fileName, givenCommit.accessBlob().get(fileName));
+            }
         }
+        writeWorkingFiles(toWrite);
 
+        // Removes tracked files that are not present in given commit
+        for (String fileName : Utils.plainFilenamesIn(cwd)) {
+            if (!givenCommit.accessBlob().containsKey(fileName)) {
+                Utils.restrictedDelete(Utils.join(cwd, fileName));
+            }
+        }
 
+        currentBranch();
         head = givenCommit;
-        ourStage.clear();
+        stage().clear();
         saveStage();
         saveHead();
         updateCurrBranch();
         saveCurrBranchName();
-
     }
 
     /**
@@ -583,19 +1277,44 @@ public class Repository {
      * Case 5 : SPLIT == NULL, CURR == NULL, GIVEN =/= NULL
      * check out and stage!
      */
-
-    public static void merge(String branchName) {
-        ourStage = readStage();
-        head = readHead();
-        currentBranchName = readCurrBranchName();
+    private void mergeBranch(String branchName) {
         checkMergeFailureCases(branchName);
         Commit givenCommit = branchCommit(branchName);
-        Commit currentCommit = head;
-        Commit splitPoint = findSplitPoint3(givenCommit, currentCommit, branchName);
+        Commit currentCommit = head();
+
+        // Ancestry is answered from the reachability bitmaps, so neither
+        // case needs a walk over the history of either branch.
+        ReachabilityIndex reach = ReachabilityIndex.load(this);
+        boolean currentIsAncestor = reach.isAncestor(currentCommit.accessId(),
+                givenCommit.accessId());
+        boolean givenIsAncestor = reach.isAncestor(givenCommit.accessId(),
+                currentCommit.accessId());
+        reach.refreshIfStale();
+        if (currentIsAncestor) {
+            checkoutBranch(branchName);
+            out.println("Current branch fast-forwarded.");
+            return;
+        }
+        if (givenIsAncestor) {
+            out.println("Given branch is an ancestor of the current branch.");
+            return;
+        }
 
+        // With several best common ancestors, as after criss-cross
+        // merges, the base is their recursive merge.
+        MergeBase graph = MergeBase.load(this);
+        FileMap splitPoint = graph.base(currentCommit.accessId(), givenCommit.accessId(),
+                id -> readCommit(id).accessBlob(), this::conflictBlob);
+        graph.save();
         if (splitPoint == null) {
             return;
         }
+        // Files renamed on one side are merged under their new name first,
+        // so that an edit on the other side is not taken for a conflict
+        // with a deletion.
+        HashSet<String> renamed = new HashSet<>();
+        boolean mergeConflict = mergeRenames(splitPoint, currentCommit, givenCommit, renamed);
+
         HashSet<String> allFileNames = new HashSet<>();
         for (String fileName : givenCommit.accessBlob().keySet()) {
             allFileNames.add(fileName);
@@ -603,66 +1322,41 @@ public class Repository {
         for (String fileName : currentCommit.accessBlob().keySet()) {
             allFileNames.add(fileName);
         }
-        for (String fileName : splitPoint.accessBlob().keySet()) {
+        for (String fileName : splitPoint.keySet()) {
             allFileNames.add(fileName);
         }
-        boolean mergeConflict = false;
+        allFileNames.removeAll(renamed);
         for (String fileName : allFileNames) {
-            String splitPointContents = splitPoint.accessBlob().get(fileName);
+            String splitPointContents = splitPoint.get(fileName);
             String currCommitContents = currentCommit.accessBlob().get(fileName);
             String givenCommitContents = givenCommit.accessBlob().get(fileName);
             if (splitPointContents != null) {
                 if (currCommitContents != null && givenCommitContents != null) {
                     if (!splitPointContents.equals(givenCommitContents)
                             && splitPointContents.equals(currCommitContents)) {
-                        checkoutCommitIdFileName(givenCommit.accessId(), fileName);
-                        add(fileName);
+                        takeFile(fileName, givenCommitContents);
                     }
                 } else if (givenCommitContents == null && currCommitContents != null) {
                     if (splitPointContents.equals(currCommitContents)) {
-                        rm(fileName);
+                        remove(fileName);
                     }
                 }
             } else {
                 if (currCommitContents == null && givenCommitContents != null) {
-                    checkoutCommitIdFileName(givenCommit.accessId(), fileName);
-                    add(fileName);
+                    takeFile(fileName, givenCommitContents);
                 }
             }
             if (isInConflict(givenCommit, currentCommit, splitPoint, fileName)) {
                 mergeConflict = true;
-                String givenContent = "";
-                String currContent = "";
-                String sha1OfGivenContents = givenCommit.accessBlob().get(fileName);
-                String sha1OfCurrContents = currentCommit.accessBlob().get(fileName);
-                if (sha1OfGivenContents != null) {
-                    File givenBlobFile = Utils.join(BLOBS_FOLDER, sha1OfGivenContents);
-                    if (givenBlobFile.exists()) {
-                        givenContent = Utils.readContentsAsString(givenBlobFile);
-                    }
-                }
-                if (sha1OfCurrContents != null) {
-                    File currBlobFile = Utils.join(BLOBS_FOLDER, sha1OfCurrContents);
-                    if (currBlobFile.exists()) {
-                        currContent = Utils.readContentsAsString(currBlobFile);
-                    }
-                }
-                String newContents = "<<<<<<< HEAD\n" + currContent + "=======\n"
-                        + givenContent + ">>>>>>>\n";
-                File f = Utils.join(CWD, fileName);
-                Utils.writeContents(f, newContents);
-                add(f.getName());
+                writeConflict(fileName, currentCommit.accessBlob().get(fileName),
+                        givenCommit.accessBlob().get(fileName));
             }
         }
-        String logMsg = "Merged " + branchName + " into " + currentBranchName + ".";
-        commit(logMsg);
-        head.setParent1(currentCommit.accessId());
-        head.setParent2(givenCommit.accessId());
+        String logMsg = "Merged " + branchName + " into " + currentBranch() + ".";
+        commitStaged(logMsg, givenCommit.accessId());
         if (mergeConflict) {
-            System.out.println("Encountered a merge conflict.");
+            out.println("Encountered a merge conflict.");
         }
-        saveHead();
-        saveStage();
     }
 
     /**
@@ -670,108 +1364,339 @@ public class Repository {
      */
 
 
-    private static Commit findSplitPoint3(Commit given, Commit current, String bName) {
-        head = readHead();
-        Commit splitPoint = null;
-        Commit storeGiven = given;
-        Commit storeCurr = current;
-
-        Commit givenPointer = given;
-        Queue<Commit> fringe1 = new LinkedList<>();
-        fringe1.add(givenPointer);
-        HashSet<String> seen1 = new HashSet<>();
-        while (!fringe1.isEmpty()) {
-            Commit nextCommit = fringe1.remove();
-            seen1.add(nextCommit.accessId());
-            for (String parentId : nextCommit.getBothParents()) {
-                if (!seen1.contains(parentId)) {
-                    fringe1.add(commitFromId(parentId));
-                }
+    /** Merges each file of the base SPLITBLOBS renamed on exactly one of
+     *  the sides CURRENT and GIVEN with its version on the other side,
+     *  under its new name, adding the old and new names to HANDLED.
+     *  Files renamed on both sides, deleted on the side that did not
+     *  rename them, or renamed onto a name the other side also uses are
+     *  left to the ordinary rules.  Returns true iff one of them is in
+     *  conflict. */
+    private boolean mergeRenames(FileMap splitBlobs, Commit current, Commit given,
+                                 Set<String> handled) {
+        FileMap currBlobs = current.accessBlob();
+        FileMap givenBlobs = given.accessBlob();
+        RenameDetector detector = new RenameDetector(blobsFolder);
+        Map<String, String> currRenames = detector.renameMap(splitBlobs, currBlobs);
+        Map<String, String> givenRenames = detector.renameMap(splitBlobs, givenBlobs);
+        boolean conflict = false;
+        for (String fileName : splitBlobs.keySet()) {
+            String currName = currRenames.getOrDefault(fileName, fileName);
+            String givenName = givenRenames.getOrDefault(fileName, fileName);
+            boolean currRenamed = !currName.equals(fileName);
+            boolean givenRenamed = !givenName.equals(fileName);
+            if (currRenamed == givenRenamed) {
+                continue;
+            }
+            String target = currRenamed ? currName : givenName;
+            String ours = currBlobs.get(currName);
+            String theirs = givenBlobs.get(givenName);
+            boolean collides = currRenamed ? givenBlobs.containsKey(target)
+                    : currBlobs.containsKey(target);
+            if (ours == null || theirs == null || collides) {
+                continue;
+            }
+            handled.add(fileName);
+            handled.add(target);
+            String base = splitBlobs.get(fileName);
+            String merged = null;
+            if (ours.equals(theirs) || theirs.equals(base)) {
+                merged = ours;
+            } else if (ours.equals(base)) {
+                merged = theirs;
+            }
+            if (!currRenamed) {
+                remove(fileName);
+            }
+            if (merged == null) {
+                conflict = true;
+                writeConflict(target, ours, theirs);
+            } else if (!merged.equals(currBlobs.get(target))) {
+                takeFile(target, merged);
             }
         }
+        return conflict;
+    }
 
-        HashSet<String> seen2 = new HashSet<>();
-        Commit currentPointer = current;
-        Queue<Commit> fringe2 = new LinkedList<>();
-        fringe2.add(currentPointer);
-        while (!fringe2.isEmpty()) {
-            Commit nextCommit = fringe2.remove();
-            seen2.add(nextCommit.accessId());
-            for (String parentId : nextCommit.getBothParents()) {
-                if (seen1.contains(parentId)) {
-                    splitPoint = commitFromId(parentId);
-                    break;
+    /** Brings the working directory in line with the sparse-checkout
+     *  patterns: included files of the head commit that are missing are
+     *  written, and excluded ones are deleted unless they have changes. */
+    private void applySparse() {
+        FileMap tracked = head().accessBlob();
+        for (String fileName : tracked.keySet()) {
+            File f = Utils.join(cwd, fileName);
+            String blobId = tracked.get(fileName);
+            if (sparse().includes(fileName)) {
+                if (!f.exists() && !stage().accessRemovedFiles().containsKey(fileName)) {
+                    writeWorkingFile(fileName, blobId);
                 }
-                fringe2.add(commitFromId(parentId));
+            } else if (f.isFile() && !stage().accessAddedFiles().containsKey(fileName)
+                    && isUnchanged(Utils.sha1(Utils.readContents(f)), blobId)) {
+                Utils.restrictedDelete(f);
+            }
+        }
+    }
+
+    /** Stages the blob BLOBID as the new version of FILENAME, writing it
+     *  to the working directory unless sparse checkout leaves it out. */
+    private void takeFile(String fileName, String blobId) {
+        if (sparse().includes(fileName)) {
+            writeWorkingFile(fileName, blobId);
+            addFile(fileName);
+        } else {
+            stageFile(fileName, blobId);
+            saveStage();
+        }
+    }
+
+    /** Writes the blob BLOBID to the working file FILENAME.  For a large
+     *  file, that is the contents the blob points to if lfs.fetch asks
+     *  for them, and the pointer otherwise. */
+    private void writeWorkingFile(String fileName, String blobId) {
+        writeBlob(fileName, blobId, Utils.join(cwd, fileName));
+    }
+
+    /** Writes the blob BLOBID, the new version of the working file
+     *  FILENAME, to DEST, as writeWorkingFile does. */
+    private void writeBlob(String fileName, String blobId, File dest) {
+        File blob = Utils.join(blobsFolder, blobId);
+        LargeFileStore.Pointer large = LargeFileStore.pointer(blob);
+        if (large != null && lfs().fetches(fileName)) {
+            lfs().materialize(large, dest);
+        } else {
+            Utils.writeContents(dest, (Object) Utils.readContents(blob));
+        }
+    }
+
+    /** Writes the working files FILES, <FileName, BlobId>, as
+     *  writeWorkingFile does, on checkout.workers threads.  If any cannot
+     *  be written, puts those that were back as they are in the head
+     *  commit and reports every failure, so that the command can stop
+     *  with the head where it was. */
+    private void writeWorkingFiles(TreeMap<String, String> files) {
+        // The workers share the store, so it is set up before they start.
+        lfs();
+        CheckoutWriter writer = new CheckoutWriter(cwd, tmpFolder(),
+                CheckoutWriter.workers(Config.load(gitletDir)), this::writeBlob);
+        TreeMap<String, String> failed = writer.write(files);
+        if (failed.isEmpty()) {
+            return;
+        }
+
+        FileMap tracked = head().accessBlob();
+        TreeMap<String, String> restore = new TreeMap<>();
+        for (String fileName : files.keySet()) {
+            if (failed.containsKey(fileName)) {
+                continue;
+            } else if (tracked.containsKey(fileName) && sparse().includes(fileName)) {
+                restore.put(fileName, tracked.get(fileName));
+            } else {
+                Utils.join(cwd, fileName).delete();
             }
         }
+        TreeMap<String, String> unrestored = writer.write(restore);
+        String message = "Could not write these files:" + CheckoutWriter.report(failed);
+        if (unrestored.isEmpty()) {
+            message += "\nThe working directory and head are unchanged.";
+        } else {
+            message += "\nThe head is unchanged, but these files could not be put back:"
+                    + CheckoutWriter.report(unrestored);
+        }
+        throw Utils.error("%s", message);
+    }
+
+    /** Returns true iff a working file whose contents hash to SHA1 is
+     *  unchanged from the blob BLOBID: it is that blob, or BLOBID is a
+     *  large-file pointer to those contents. */
+    private boolean isUnchanged(String sha1, String blobId) {
+        if (blobId.equals(sha1)) {
+            return true;
+        }
+        LargeFileStore.Pointer large = LargeFileStore.pointer(Utils.join(blobsFolder, blobId));
+        return large != null && large.oid.equals(sha1);
+    }
+
+    /** Returns the file holding the contents of the blob BLOBID: the
+     *  blob itself, or for a large file, the contents it points to. */
+    private File contentsFile(String blobId) {
+        File blob = Utils.join(blobsFolder, blobId);
+        LargeFileStore.Pointer large = LargeFileStore.pointer(blob);
+        return large == null ? blob : lfs().object(large);
+    }
+
+    /** Writes the conflicted version of FILENAME, whose contents are the
+     *  blob CURRBLOBID in the current commit and GIVENBLOBID in the given
+     *  one (either null if it is absent), and stages it.  The blob is
+     *  stored as the file is written, so it is not read back, unless the
+     *  result is large, in which case it goes to the large-file store
+     *  only. */
+    private void writeConflict(String fileName, String currBlobId, String givenBlobId) {
+        File f = Utils.join(cwd, fileName);
+        ConflictWriter writer = new ConflictWriter(blobsFolder, tmpFolder());
+        String blobId;
+        if (lfs().isLarge(writer.size(currBlobId, givenBlobId))) {
+            writer.writeFile(currBlobId, givenBlobId, f);
+            blobId = storeLarge(f);
+        } else {
+            blobId = writer.write(currBlobId, givenBlobId, f);
+        }
+        stageFile(fileName, blobId);
+        saveStage();
+    }
 
+    /** Saves the contents of a file in conflict whose versions are the
+     *  blobs CURRBLOBID and GIVENBLOBID as a blob, and returns its id. */
+    private String conflictBlob(String currBlobId, String givenBlobId) {
+        return new ConflictWriter(blobsFolder, tmpFolder())
+            .write(currBlobId, givenBlobId, null);
+    }
+
+    /** The new commit is computed from the blob maps alone; the working
+     *  directory is only written once it is saved. */
+    private void cherryPickCommit(String commitId) {
+        checkNoStagedChanges();
+        String id = fullId(commitId);
+        if (id.equals("")) {
+            throw Utils.error("No commit with that id exists.");
+        }
+        Commit picked = readCommit(id);
+        if (picked.accessParent1() == null) {
+            throw Utils.error("Cannot cherry-pick the initial commit.");
+        }
+        Commit base = readCommit(picked.accessParent1());
+        FileMap ours = head().accessBlob();
+        ThreeWayMerge merge = new ThreeWayMerge(base.accessBlob(), ours, picked.accessBlob());
+        TreeMap<String, String> blobs = merge.result();
+        for (String fileName : merge.conflicts()) {
+            blobs.put(fileName, conflictBlob(ours.get(fileName),
+                    picked.accessBlob().get(fileName)));
+        }
+        if (blobs.equals(ours)) {
+            throw Utils.error("No changes added to the commit.");
+        }
+        Commit c = new Commit(picked.accessMessage(), head().accessId(), null, blobs);
+        moveHead(List.of(c), c);
+        if (!merge.conflicts().isEmpty()) {
+            out.println("Encountered a merge conflict.");
+        }
+    }
 
-        ArrayList<String> historyOfGiven = new ArrayList<>();
-        ArrayList<String> historyOfCurr = new ArrayList<>();
-        Commit givenCommitPointer = given;
-        Commit currentCommitPointer = current;
-        Commit splitPoint2 = null;
-        while (givenCommitPointer != null
-                && givenCommitPointer.accessParent1() != null) {
-            historyOfGiven.add(givenCommitPointer.accessId());
-            givenCommitPointer = commitFromId(givenCommitPointer.accessParent1());
+    /** Every replayed commit is computed in memory from the blob maps.
+     *  Nothing is written unless all of them apply without conflict, and
+     *  then the working directory is written once, for the last. */
+    private void rebaseOnto(String branchName) {
+        checkNoStagedChanges();
+        String upstreamId = refs().read(branchName);
+        if (upstreamId == null) {
+            throw Utils.error("A branch with that name does not exist.");
+        } else if (branchName.equals(currentBranch())) {
+            throw Utils.error("Cannot rebase a branch onto itself.");
         }
-        while (currentCommitPointer != null
-                && currentCommitPointer.accessParent1() != null) {
-            historyOfCurr.add(currentCommitPointer.accessId());
-            if (historyOfGiven.contains(currentCommitPointer.accessId())) {
-                splitPoint2 = currentCommitPointer;
-                break;
+        ReachabilityIndex reach = ReachabilityIndex.load(this);
+        if (reach.isAncestor(upstreamId, head().accessId())) {
+            out.println("Current branch is up to date.");
+            return;
+        }
+
+        // The commits of the current branch not in the upstream branch,
+        // oldest first, following first parents.
+        ArrayList<Commit> toReplay = new ArrayList<>();
+        Commit pointer = head();
+        while (pointer != null && !reach.isAncestor(pointer.accessId(), upstreamId)) {
+            toReplay.add(pointer);
+            pointer = commitFromId(pointer.accessParent1());
+        }
+        reach.refreshIfStale();
+        Collections.reverse(toReplay);
+
+        Commit onto = readCommit(upstreamId);
+        ArrayList<Commit> replayed = new ArrayList<>();
+        for (Commit c : toReplay) {
+            Commit parent = commitFromId(c.accessParent1());
+            ThreeWayMerge merge = new ThreeWayMerge(parent.accessBlob(),
+                    onto.accessBlob(), c.accessBlob());
+            if (!merge.conflicts().isEmpty()) {
+                throw Utils.error("Rebase stopped: %s conflicts in commit %s; "
+                        + "nothing was changed.", merge.conflicts().first(),
+                        shortenedId(c.accessId()));
+            }
+            if (merge.result().equals(onto.accessBlob())) {
+                // Already made upstream.
+                continue;
+            }
+            onto = new Commit(c.accessMessage(), onto.accessId(), null, merge.result());
+            replayed.add(onto);
+        }
+        moveHead(replayed, onto);
+        if (toReplay.isEmpty()) {
+            out.println("Current branch fast-forwarded.");
+        } else {
+            out.println("Current branch rebased onto " + branchName + ".");
+        }
+    }
+
+    private void checkNoStagedChanges() {
+        if (!stage().accessAddedFiles().isEmpty()
+                || !stage().accessRemovedFiles().isEmpty()) {
+            throw Utils.error("You have uncommitted changes.");
+        }
+    }
+
+    /** Saves the new commits NEWCOMMITS and makes TARGET the head of the
+     *  current branch, updating the working directory from the old head
+     *  to TARGET in one pass.  Checks first that no untracked working
+     *  file would be overwritten. */
+    private void moveHead(List<Commit> newCommits, Commit target) {
+        FileMap from = head().accessBlob();
+        FileMap to = target.accessBlob();
+        for (String fileName : to.keySet()) {
+            File f = Utils.join(cwd, fileName);
+            if (!from.containsKey(fileName) && sparse().includes(fileName) && f.isFile()
+                    && !isUnchanged(Utils.sha1(Utils.readContents(f)), to.get(fileName))) {
+                throw Utils.error("There is an untracked file in the way; "
+                        + "delete it, or add and commit it first.");
             }
-            currentCommitPointer = commitFromId(currentCommitPointer.accessParent1());
         }
+        saveCommits(newCommits);
 
-        if (splitPoint2 != null) {
-            if (splitPoint2.accessId().equals(current.accessId())) {
-                checkoutBranchName(bName);
-                System.out.println("Current branch fast-forwarded.");
-                System.exit(0);
+        for (String fileName : from.keySet()) {
+            if (!to.containsKey(fileName)) {
+                Utils.restrictedDelete(Utils.join(cwd, fileName));
             }
-            if (splitPoint2.accessId().equals(given.accessId())) {
-                System.out.println("Given branch is an ancestor of the current branch.");
-                System.exit(0);
+        }
+        for (String fileName : to.keySet()) {
+            File f = Utils.join(cwd, fileName);
+            if (sparse().includes(fileName)
+                    && (!to.get(fileName).equals(from.get(fileName)) || !f.exists())) {
+                writeWorkingFile(fileName, to.get(fileName));
             }
         }
 
-        return splitPoint;
+        currentBranch();
+        head = target;
+        saveHead();
+        updateCurrBranch();
     }
 
-    public static void checkMergeFailureCases(String branchName) {
-        ourStage = readStage();
-        currentBranchName = readCurrBranchName();
-        head = readHead();
-        if (!ourStage.accessAddedFiles().isEmpty()
-                || !ourStage.accessRemovedFiles().isEmpty()) {
-            System.out.println("You have uncommitted changes.");
-            System.exit(0);
+    private void checkMergeFailureCases(String branchName) {
+        if (!stage().accessAddedFiles().isEmpty()
+                || !stage().accessRemovedFiles().isEmpty()) {
+            throw Utils.error("You have uncommitted changes.");
         }
-        if (!Utils.join(BRANCHES_FOLDER, branchName).exists()) {
-            System.out.println("A branch with that name does not exist.");
-            System.exit(0);
+        if (!refs().exists(branchName)) {
+            throw Utils.error("A branch with that name does not exist.");
         }
-        if (currentBranchName.equals(branchName)) {
-            System.out.println("Cannot merge a branch with itself.");
-            System.exit(0);
+        if (currentBranch().equals(branchName)) {
+            throw Utils.error("Cannot merge a branch with itself.");
         }
-        File branchFile = Utils.join(BRANCHES_FOLDER, branchName);
-        String commitId = Utils.readContentsAsString(branchFile);
-        File commitFile = Utils.join(COMMITS_FOLDER, commitId);
-        Commit commit = Utils.readObject(commitFile, Commit.class);
-        for (String fileName : Utils.plainFilenamesIn(CWD)) {
+        Commit commit = branchCommit(branchName);
+        for (String fileName : Utils.plainFilenamesIn(cwd)) {
             if (commit.accessBlob().containsKey(fileName)
-                    && !head.accessBlob().containsKey(fileName)) {
-                String sha1InCWD = Utils.sha1(Utils.readContents(Utils.join(CWD, fileName)));
+                    && !head().accessBlob().containsKey(fileName)) {
+                String sha1InCWD = Utils.sha1(Utils.readContents(Utils.join(cwd, fileName)));
                 String sha1InCheckedOut = commit.accessId();
                 if (!sha1InCheckedOut.equals(sha1InCWD)) {
-                    System.out.println("There is an untracked file in the way; "
+                    throw Utils.error("There is an untracked file in the way; "
                             + "delete it, or add and commit it first.");
-                    System.exit(0);
                 }
             }
         }
@@ -783,10 +1708,11 @@ public class Repository {
      * 2) the contents of one are changed and the other file is deleted
      * 3) file absent at split point and has diff contents in given & curr branches
      */
-    private static boolean isInConflict(Commit given, Commit curr, Commit split, String fileName) {
+    private static boolean isInConflict(Commit given, Commit curr, FileMap split,
+                                        String fileName) {
         String givenId = given.accessBlob().get(fileName);
         String currId = curr.accessBlob().get(fileName);
-        String splitId = split.accessBlob().get(fileName);
+        String splitId = split.get(fileName);
         if (splitId != null && currId != null && givenId != null) {
             if (!splitId.equals(givenId) && !splitId.equals(currId)) {
                 if (!givenId.equals(currId)) {
@@ -809,30 +1735,31 @@ public class Repository {
         return false;
     }
 
-    private static Map<String, String> findModifiedUnstagedFiles() {
-        head = readHead();
-        ourStage = readStage();
+    /** Returns the files that are modified or deleted but not staged, given
+     *  the sha1 of every working file in WORKINGFILES. */
+    private Map<String, String> findModifiedUnstagedFiles(TreeMap<String, String> workingFiles) {
+        Commit head = head();
+        StagingArea ourStage = stage();
 
         Map<String, String> modifiedUnstagedFiles = new HashMap<String, String>();
 
-        for (String fileName : Utils.plainFilenamesIn(CWD)) {
-            boolean isInCWD = Utils.join(CWD, fileName).exists();
+        for (String fileName : workingFiles.keySet()) {
+            boolean isInCWD = Utils.join(cwd, fileName).exists();
 
             if (isInCWD) {
-                File f = Utils.join(CWD, fileName);
-                String commitId = Utils.sha1(Utils.readContents(f));
+                String commitId = workingFiles.get(fileName);
 
                 boolean isTrackedInCurrent = head.accessBlob().containsKey(fileName);
                 boolean isStagedForAddition = ourStage.accessAddedFiles().containsKey(fileName);
 
                 // Tracked in the current commit, changed in the working directory but not staged or
                 // Staged for addition, but with different contents than in the working directory
-                if (isTrackedInCurrent && !head.accessBlob().get(fileName).equals(commitId)) {
+                if (isTrackedInCurrent && !isUnchanged(commitId, head.accessBlob().get(fileName))) {
                     //if (!isStagedForAddition && !isStagedForRemoval) {
                     modifiedUnstagedFiles.put(fileName, "modified");
                     //}
                 } else if (isStagedForAddition
-                        && !ourStage.accessAddedFiles().get(fileName).equals(commitId)) {
+                        && !isUnchanged(commitId, ourStage.accessAddedFiles().get(fileName))) {
                     modifiedUnstagedFiles.put(fileName, "modified");
                 }
             }
@@ -842,8 +1769,10 @@ public class Repository {
         // Not staged for removal, but tracked in the current commit and
         // deleted from the working directory.
 
+        // Files sparse checkout leaves out are absent, not deleted.
         for (String fileName : head.accessBlob().keySet()) {
-            boolean isDeletedInWorking = !Utils.plainFilenamesIn(CWD).contains(fileName);
+            boolean isDeletedInWorking = !workingFiles.containsKey(fileName)
+                    && sparse().includes(fileName);
             boolean isStagedForRemoval = ourStage.accessRemovedFiles().containsKey(fileName);
             boolean isStagedForAddition = ourStage.accessAddedFiles().containsKey(fileName);
             boolean isTrackedInCurrent = head.accessBlob().containsKey(fileName);
@@ -857,16 +1786,14 @@ public class Repository {
         return modifiedUnstagedFiles;
     }
 
-
-    private static ArrayList<String> findUntrackedFiles() {
-        head = readHead();
-        ourStage = readStage();
-
+    /** Returns the working files, among those in WORKINGFILES, that are
+     *  neither staged for addition nor tracked. */
+    private ArrayList<String> findUntrackedFiles(TreeMap<String, String> workingFiles) {
         ArrayList<String> untrackedFiles = new ArrayList<String>();
         //is for files present in the working directory but neither staged for addition nor tracked.
-        for (String fileName : Utils.plainFilenamesIn(CWD)) {
-            boolean stagedForAddition = ourStage.accessAddedFiles().containsKey(fileName);
-            boolean isTrackedInCurrent = head.accessBlob().containsKey(fileName);
+        for (String fileName : workingFiles.keySet()) {
+            boolean stagedForAddition = stage().accessAddedFiles().containsKey(fileName);
+            boolean isTrackedInCurrent = head().accessBlob().containsKey(fileName);
             if (!stagedForAddition && !isTrackedInCurrent) {
                 untrackedFiles.add(fileName);
             }
@@ -874,75 +1801,322 @@ public class Repository {
         return untrackedFiles;
     }
 
-    private static String fullId(String shortId) {
-        for (String commitId : Utils.plainFilenamesIn(COMMITS_FOLDER)) {
-            if (commitId.startsWith(shortId)) {
-                return commitId;
+    /** Returns the id of the commit NAME: a branch name, a possibly
+     *  abbreviated commit id, or REF@{N}, the value the branch REF (the
+     *  head if REF is empty or HEAD) had N changes ago. */
+    private String revision(String name) {
+        int at = name.indexOf("@{");
+        if (at >= 0 && name.endsWith("}")) {
+            String ref = at == 0 ? RefLog.HEAD : name.substring(0, at);
+            String id;
+            try {
+                id = reflog.lookup(ref, Integer.parseInt(name.substring(at + 2,
+                        name.length() - 1)));
+            } catch (NumberFormatException excp) {
+                id = null;
+            }
+            if (id == null) {
+                throw Utils.error("No such log entry: %s.", name);
             }
+            return id;
         }
-        return "";
+        String id = refs().exists(name) ? refs().read(name) : fullId(name);
+        if (id.equals("")) {
+            throw Utils.error("No commit with that id exists.");
+        }
+        return id;
+    }
+
+    /** Returns the full id of the commit whose id starts with SHORTID,
+     *  or "" if there is none.  If several commits match, report an error.
+     *  A full id is looked up directly in the commits folder. */
+    private String fullId(String shortId) {
+        if (ObjectId.isHex(shortId)) {
+            return Utils.join(commitsFolder, shortId).isFile() ? shortId : "";
+        }
+        List<String> matches = new CommitIndex(this).matches(shortId);
+        if (matches.isEmpty()) {
+            return "";
+        } else if (matches.size() > 1) {
+            throw Utils.error("Ambiguous commit id.");
+        }
+        return matches.get(0);
+    }
+
+    private Commit branchCommit(String branchName) {
+        return readCommit(refs().read(branchName));
     }
 
-    private static Commit branchCommit(String branchName) {
-        File branchFile = Utils.join(BRANCHES_FOLDER, branchName);
-        String givenCommitId = Utils.readContentsAsString(branchFile);
-        File givenCommitFile = Utils.join(COMMITS_FOLDER, givenCommitId);
-        Commit givenCommit = Utils.readObject(givenCommitFile, Commit.class);
-        return givenCommit;
+    /** Returns the ids of the commits at the heads of all branches. */
+    List<String> branchTips() {
+        return new ArrayList<>(refs().all().values());
     }
 
-    private static void saveCommit(Commit c) {
-        File cFile = Utils.join(COMMITS_FOLDER, c.accessId());
-        Utils.writeObject(cFile, c);
+    /** Returns the store through which all branches are read and written. */
+    private RefStore refs() {
+        return new RefStore(gitletDir, branchesFolder);
     }
 
-    private static Commit readCommit(String commitId) {
-        File cFile = Utils.join(COMMITS_FOLDER, commitId);
+    private void saveCommit(Commit c) {
+        saveCommits(List.of(c));
+    }
+
+    /** Saves the new commits COMMITS, each after its parent, updating
+     *  the commit indexes once for all of them. */
+    private void saveCommits(List<Commit> commits) {
+        ChangedPathIndex paths = new ChangedPathIndex(this);
+        HashMap<String, Commit> known = new HashMap<>();
+        if (head != null) {
+            known.put(head.accessId(), head);
+        }
+        for (Commit c : commits) {
+            File cFile = Utils.join(commitsFolder, c.accessId());
+            if (!cFile.exists()) {
+                Utils.writeObject(cFile, c);
+            }
+            Commit parent = known.get(c.accessParent1());
+            paths.add(c, parent != null ? parent : commitFromId(c.accessParent1()));
+            known.put(c.accessId(), c);
+        }
+        ArrayList<String> ids = new ArrayList<>();
+        for (Commit c : commits) {
+            ids.add(c.accessId());
+        }
+        new CommitIndex(this).addAll(ids);
+        paths.save();
+    }
+
+    private Commit readCommit(String commitId) {
+        File cFile = Utils.join(commitsFolder, commitId);
         return Utils.readObject(cFile, Commit.class);
     }
 
-    private static void saveStage() {
-        File sFile = Utils.join(STAGING_FOLDER, "ourStage");
-        Utils.writeObject(sFile, ourStage);
+    /**
+     * Sessions and persistence.
+     */
+
+    /** Runs COMMAND, which may change the repository, as a session. */
+    private void session(Runnable command) {
+        session(true, () -> {
+            command.run();
+            return null;
+        });
     }
 
-    private static StagingArea readStage() {
-        File sFile = Utils.join(STAGING_FOLDER, "ourStage");
-        return Utils.readObject(sFile, StagingArea.class);
+    /** Runs COMMAND, which only reads the repository, as a session. */
+    private void readSession(Runnable command) {
+        session(false, () -> {
+            command.run();
+            return null;
+        });
     }
 
-    private static void saveHead() {
-        File hFile = Utils.join(COMMITS_FOLDER, "headFile");
+    /** Runs COMMAND, which only reads the repository, as a session and
+     *  returns its result. */
+    private <T> T readSession(Supplier<T> command) {
+        return session(false, command);
+    }
+
+    /** Runs COMMAND, which may change the repository, as a session and
+     *  returns its result. */
+    private <T> T session(Supplier<T> command) {
+        return session(true, command);
+    }
+
+    /** Runs COMMAND as a session and returns its result.  The outermost
+     *  session checks that the repository exists and locks it, shared
+     *  unless EXCLUSIVE, so that other processes and other Repository
+     *  objects for the same directory can read it at the same time but
+     *  never while it is being changed.  When it ends it releases the
+     *  lock and forgets the state it read, so the next command sees
+     *  changes made by others. */
+    private synchronized <T> T session(boolean exclusive, Supplier<T> command) {
+        RepositoryLock lock = null;
+        if (sessionDepth == 0) {
+            if (!isInitialized()) {
+                throw Utils.error("Not in an initialized Gitlet directory.");
+            }
+            lock = RepositoryLock.of(gitletDir);
+            lock.acquire(exclusive);
+        }
+        return runSession(lock, exclusive, command);
+    }
+
+    /** Saves, by running SAVE, what a read-only command that has just
+     *  ended worked out about the repository: caches and indexes derived
+     *  from objects that never change, which stay true however the
+     *  repository has changed since.  SAVE runs in an exclusive session
+     *  of its own, and only if the repository can be locked without
+     *  waiting; otherwise they stay stale until a later command. */
+    private synchronized void saveDerived(Runnable save) {
+        if (sessionDepth > 0) {
+            if (exclusiveSession) {
+                save.run();
+            }
+            return;
+        }
+        RepositoryLock lock = RepositoryLock.of(gitletDir);
+        if (!lock.tryAcquire()) {
+            return;
+        }
+        runSession(lock, true, () -> {
+            save.run();
+            return null;
+        });
+    }
+
+    /** Runs COMMAND in a session, which holds LOCK, exclusively iff
+     *  EXCLUSIVE, if it is the outermost one, and returns its result. */
+    private <T> T runSession(RepositoryLock lock, boolean exclusive, Supplier<T> command) {
+        if (sessionDepth == 0) {
+            exclusiveSession = exclusive;
+        }
+        sessionDepth += 1;
+        try {
+            return command.get();
+        } finally {
+            sessionDepth -= 1;
+            if (sessionDepth == 0) {
+                head = null;
+                ourStage = null;
+                currentBranchName = null;
+                sparse = null;
+                lfs = null;
+                exclusiveSession = false;
+                lock.release(exclusive);
+            }
+        }
+    }
+
+    /** Returns the head commit, reading it if this session has not. */
+    private Commit head() {
+        if (head == null) {
+            head = readHead();
+        }
+        return head;
+    }
+
+    /** Returns the staging area, reading it if this session has not. */
+    private StagingArea stage() {
+        if (ourStage == null) {
+            ourStage = readStage();
+        }
+        return ourStage;
+    }
+
+    /** Returns the sparse-checkout patterns, reading them if this session
+     *  has not. */
+    private SparseCheckout sparse() {
+        if (sparse == null) {
+            sparse = SparseCheckout.load(gitletDir);
+        }
+        return sparse;
+    }
+
+    /** Returns the large-file store, reading its settings if this session
+     *  has not. */
+    private LargeFileStore lfs() {
+        if (lfs == null) {
+            lfs = new LargeFileStore(gitletDir, Config.load(gitletDir));
+        }
+        return lfs;
+    }
+
+    /** Returns the current branch, reading it if this session has not. */
+    private String currentBranch() {
+        if (currentBranchName == null) {
+            currentBranchName = readCurrBranchName();
+        }
+        return currentBranchName;
+    }
+
+    private void saveStage() {
+        // A session that never read the stage has nothing to save.
+        if (ourStage != null) {
+            StageJournal.save(stagingFolder, ourStage);
+        }
+    }
+
+    private StagingArea readStage() {
+        return StageJournal.read(stagingFolder);
+    }
+
+    /** Saves the head, and logs it if it moved.  The last entry of the
+     *  head's log is where it was. */
+    private void saveHead() {
+        File hFile = Utils.join(commitsFolder, "headFile");
         Utils.writeObject(hFile, head);
+        reflog.append(RefLog.HEAD, reflog.last(RefLog.HEAD), head.accessId(), commandLine);
     }
 
-    private static Commit readHead() {
-        File hFile = Utils.join(COMMITS_FOLDER, "headFile");
+    private Commit readHead() {
+        File hFile = Utils.join(commitsFolder, "headFile");
         return Utils.readObject(hFile, Commit.class);
     }
 
-    private static String readCurrBranchName() {
-        File currBranchFile = Utils.join(CURRBRANCH_FOLDER, "currBranch");
+    private String readCurrBranchName() {
+        File currBranchFile = Utils.join(currBranchFolder, "currBranch");
         return Utils.readContentsAsString(currBranchFile);
     }
 
-    private static void saveCurrBranchName() {
-        File currBranchFile = Utils.join(CURRBRANCH_FOLDER, "currBranch");
+    private void saveCurrBranchName() {
+        File currBranchFile = Utils.join(currBranchFolder, "currBranch");
         Utils.writeContents(currBranchFile, currentBranchName);
     }
 
-
-    private static Commit commitFromId(String id) {
+    /** Returns the commit with id ID, or null if ID is null. */
+    Commit commitFromId(String id) {
         if (id == null) {
             return null;
         }
-        File commitFile = Utils.join(COMMITS_FOLDER, id);
-        return Utils.readObject(commitFile, Commit.class);
+        return readCommit(id);
+    }
+
+    private void updateCurrBranch() {
+        writeRef(currentBranchName, head.accessId());
     }
 
-    public static void updateCurrBranch() {
-        File f = Utils.join(BRANCHES_FOLDER, currentBranchName);
-        Utils.writeContents(f, head.accessId());
+    /** Points the branch NAME at the commit ID, and logs the change. */
+    private void writeRef(String name, String id) {
+        RefStore refs = refs();
+        String old = refs.read(name);
+        refs.write(name, id);
+        reflog.append(name, old, id, commandLine);
+    }
+
+    /** Returns the .gitlet directory. */
+    File gitletDir() {
+        return gitletDir;
+    }
+
+    /** Returns the commits folder. */
+    File commitsFolder() {
+        return commitsFolder;
+    }
+
+    /** Returns the staging folder. */
+    File stagingFolder() {
+        return stagingFolder;
+    }
+
+    /** Returns the blobs folder. */
+    File blobsFolder() {
+        return blobsFolder;
+    }
+
+    /** Returns the folder for temporary files, making it if need be.
+     *  It is on the same file system as the objects, so they can be
+     *  renamed into place. */
+    File tmpFolder() {
+        tmpFolder.mkdir();
+        return tmpFolder;
+    }
+
+    /** Returns true iff this repository is locked exclusively by the
+     *  session in progress.  Commands that only read it leave the files
+     *  derived from its objects as they are, even when stale. */
+    boolean canWrite() {
+        return exclusiveSession;
     }
 
     public static byte[] serializeCommit(Commit c) {
@@ -954,5 +2128,3 @@ public class Repository {
     }
 
 }
-
-
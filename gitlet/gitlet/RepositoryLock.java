@@ -0,0 +1,235 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/** Reader/writer locking of a repository, across threads and processes.
+ *  Read-only commands take the lock shared, so any number of them run at
+ *  once; commands that change the repository take it exclusively.
+ *
+ *  Between processes the lock is a FileChannel lock on .gitlet/lock.  A
+ *  JVM can hold only one lock on a file, so within a JVM the threads
+ *  using a repository first go through a ReentrantReadWriteLock, and the
+ *  readers among them share a single shared file lock, released when the
+ *  last of them is done.
+ *
+ *  Whoever holds the lock exclusively records its process id in
+ *  lock.owner, which is only used to say who is in the way when the lock
+ *  cannot be taken in time.  The lock file itself is never deleted: a
+ *  process that is still running may hold a lock on it, and a new file
+ *  would let a second process lock it at the same time.  The operating
+ *  system drops the locks of a process that dies, so a crashed command
+ *  never leaves the repository locked.
+ *
+ *  @author Nameera Faisal Akhtar
+ */
+class RepositoryLock {
+
+    /** Milliseconds to wait for the lock before giving up, unless the
+     *  gitlet.lock.timeout system property says otherwise. */
+    private static final long DEFAULT_TIMEOUT_MS = 10000;
+
+    /** Milliseconds between attempts at the file lock. */
+    private static final long POLL_MS = 5;
+
+    /** The lock state of each repository in use in this JVM, by the
+     *  canonical path of its .gitlet directory. */
+    private static final ConcurrentHashMap<String, RepositoryLock> LOCKS =
+            new ConcurrentHashMap<>();
+
+    /** Orders the threads of this JVM. */
+    private final ReentrantReadWriteLock threads = new ReentrantReadWriteLock();
+
+    /** The lock file. */
+    private final File lockFile;
+
+    /** The file recording the exclusive owner. */
+    private final File ownerFile;
+
+    /** The channel the file lock is held through, while it is held. */
+    private FileChannel channel;
+
+    /** The file lock, while it is held. */
+    private FileLock fileLock;
+
+    /** Number of threads sharing FILELOCK. */
+    private int sharers;
+
+    private RepositoryLock(File gitletDir) {
+        lockFile = Utils.join(gitletDir, "lock");
+        ownerFile = Utils.join(gitletDir, "lock.owner");
+    }
+
+    /** Returns the lock of the repository whose .gitlet directory is
+     *  GITLETDIR. */
+    static RepositoryLock of(File gitletDir) {
+        String key;
+        try {
+            key = gitletDir.getCanonicalPath();
+        } catch (IOException excp) {
+            key = gitletDir.getAbsolutePath();
+        }
+        return LOCKS.computeIfAbsent(key, k -> new RepositoryLock(gitletDir));
+    }
+
+    /** Takes the lock, exclusively iff EXCLUSIVE.  Throws a
+     *  GitletException if that takes too long. */
+    void acquire(boolean exclusive) {
+        acquire(exclusive, timeout());
+    }
+
+    /** Takes the lock exclusively if no one else holds it, and returns
+     *  true iff it did. */
+    boolean tryAcquire() {
+        try {
+            acquire(true, 0);
+            return true;
+        } catch (GitletException excp) {
+            return false;
+        }
+    }
+
+    /** Takes the lock, exclusively iff EXCLUSIVE, waiting at most
+     *  TIMEOUTMS milliseconds. */
+    private void acquire(boolean exclusive, long timeoutMs) {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        Lock threadLock = exclusive ? threads.writeLock() : threads.readLock();
+        try {
+            if (!threadLock.tryLock(timeoutMs, TimeUnit.MILLISECONDS)) {
+                throw Utils.error("Unable to lock the repository: "
+                        + "another command is still running.");
+            }
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+            throw Utils.error("Interrupted while waiting to lock the repository.");
+        }
+        try {
+            synchronized (this) {
+                if (exclusive) {
+                    lockFile(false, deadline);
+                    Utils.writeContents(ownerFile, processId() + " "
+                            + System.currentTimeMillis());
+                } else {
+                    if (sharers == 0) {
+                        lockFile(true, deadline);
+                    }
+                    sharers += 1;
+                }
+            }
+        } catch (RuntimeException excp) {
+            threadLock.unlock();
+            throw excp;
+        }
+    }
+
+    /** Releases the lock taken by the matching call to acquire. */
+    void release(boolean exclusive) {
+        synchronized (this) {
+            if (exclusive) {
+                ownerFile.delete();
+                unlockFile();
+            } else {
+                sharers -= 1;
+                if (sharers == 0) {
+                    unlockFile();
+                }
+            }
+        }
+        if (exclusive) {
+            threads.writeLock().unlock();
+        } else {
+            threads.readLock().unlock();
+        }
+    }
+
+    /** Takes the file lock, shared iff SHARED, polling until DEADLINE. */
+    private void lockFile(boolean shared, long deadline) {
+        try {
+            // A shared lock only needs the file open for reading, so
+            // readers do not write it; it may not exist yet.
+            lockFile.createNewFile();
+            channel = shared ? FileChannel.open(lockFile.toPath(), StandardOpenOption.READ)
+                    : FileChannel.open(lockFile.toPath(), StandardOpenOption.READ,
+                            StandardOpenOption.WRITE);
+            while (true) {
+                fileLock = channel.tryLock(0, Long.MAX_VALUE, shared);
+                if (fileLock != null) {
+                    return;
+                } else if (System.currentTimeMillis() >= deadline) {
+                    break;
+                }
+                Thread.sleep(POLL_MS);
+            }
+            channel.close();
+            channel = null;
+        } catch (IOException excp) {
+            throw Utils.error("Unable to lock the repository: %s", excp.getMessage());
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+            throw Utils.error("Interrupted while waiting to lock the repository.");
+        }
+        String owner = ownerFile.isFile() ? Utils.readContentsAsString(ownerFile) : "";
+        throw Utils.error("Unable to lock the repository: it is in use%s.",
+                isRunning(owner) ? " by process " + owner.split(" ")[0] : "");
+    }
+
+    private void unlockFile() {
+        try {
+            if (fileLock != null) {
+                fileLock.release();
+            }
+            if (channel != null) {
+                channel.close();
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            fileLock = null;
+            channel = null;
+        }
+    }
+
+    /** Returns true iff OWNER, a line of lock.owner, names a process
+     *  that may still be running: one of this machine that is alive, or
+     *  one of another machine.  An owner left behind by a writer that
+     *  crashed is not worth naming. */
+    private static boolean isRunning(String owner) {
+        if (owner.isEmpty()) {
+            return false;
+        }
+        String[] parts = owner.split(" ")[0].split("@");
+        if (parts.length != 2) {
+            return false;
+        } else if (!parts[1].equals(hostName())) {
+            return true;
+        }
+        try {
+            long pid = Long.parseLong(parts[0]);
+            return ProcessHandle.of(pid).map(ProcessHandle::isAlive).orElse(false);
+        } catch (NumberFormatException excp) {
+            return false;
+        }
+    }
+
+    /** Returns this process's id, as PID@HOST. */
+    private static String processId() {
+        return ProcessHandle.current().pid() + "@" + hostName();
+    }
+
+    private static String hostName() {
+        String name = ManagementFactory.getRuntimeMXBean().getName();
+        return name.substring(name.indexOf('@') + 1);
+    }
+
+    private static long timeout() {
+        return Long.getLong("gitlet.lock.timeout", DEFAULT_TIMEOUT_MS);
+    }
+}
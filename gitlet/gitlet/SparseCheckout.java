@@ -0,0 +1,95 @@
+package gitlet;
+
+import java.io.File;
+import java.nio.file.FileSystems;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+/** The sparse-checkout patterns of a repository, which say which tracked
+ *  files are written to the working directory.  Commits still track
+ *  every file; the others are simply left out of the working directory,
+ *  and treated as unchanged while they are.
+ *
+ *  The patterns are kept one per line in .gitlet/sparse-checkout.  Each
+ *  is a glob, or a glob preceded by "!" to leave out files an earlier
+ *  pattern let in; the last pattern matching a file decides.  Blank
+ *  lines and lines starting with "#" are ignored.  Without the file,
+ *  every tracked file is written.
+ *
+ *  @author Nameera Faisal Akhtar
+ */
+class SparseCheckout {
+
+    /** Name of the pattern file inside the .gitlet directory. */
+    static final String FILE_NAME = "sparse-checkout";
+
+    /** The patterns, as written. */
+    private final List<String> patterns;
+
+    /** A matcher for each pattern, without its "!". */
+    private final List<PathMatcher> matchers = new ArrayList<>();
+
+    private SparseCheckout(List<String> patterns) {
+        this.patterns = patterns;
+        for (String pattern : patterns()) {
+            String glob = pattern.startsWith("!") ? pattern.substring(1) : pattern;
+            matchers.add(FileSystems.getDefault().getPathMatcher("glob:" + glob));
+        }
+    }
+
+    /** Returns the patterns of the repository whose .gitlet directory is
+     *  GITLETDIR; if it has none, every file is included. */
+    static SparseCheckout load(File gitletDir) {
+        File f = Utils.join(gitletDir, FILE_NAME);
+        if (!f.isFile()) {
+            return new SparseCheckout(null);
+        }
+        List<String> patterns = new ArrayList<>();
+        for (String line : Utils.readContentsAsString(f).split("\n")) {
+            line = line.trim();
+            if (!line.isEmpty() && !line.startsWith("#")) {
+                patterns.add(line);
+            }
+        }
+        return new SparseCheckout(patterns);
+    }
+
+    /** Makes PATTERNS the patterns of the repository whose .gitlet
+     *  directory is GITLETDIR, or turns sparse checkout off if PATTERNS is
+     *  null. */
+    static void save(File gitletDir, List<String> patterns) {
+        File f = Utils.join(gitletDir, FILE_NAME);
+        if (patterns == null) {
+            f.delete();
+        } else {
+            Utils.writeContents(f, String.join("\n", patterns) + "\n");
+        }
+    }
+
+    /** Returns true iff only some files are written. */
+    boolean isEnabled() {
+        return patterns != null;
+    }
+
+    /** Returns the patterns, or an empty list if sparse checkout is off. */
+    List<String> patterns() {
+        return patterns == null ? List.of() : patterns;
+    }
+
+    /** Returns true iff the tracked file FILENAME is written to the
+     *  working directory. */
+    boolean includes(String fileName) {
+        if (patterns == null) {
+            return true;
+        }
+        boolean included = false;
+        for (int i = 0; i < patterns.size(); i += 1) {
+            if (matchers.get(i).matches(Paths.get(fileName))) {
+                included = !patterns.get(i).startsWith("!");
+            }
+        }
+        return included;
+    }
+}
@@ -0,0 +1,150 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/** Persistence for the staging area as a snapshot plus a journal.
+ *  The snapshot is the serialized StagingArea as it was at the last
+ *  compaction.  Every later change is appended to the journal as a small
+ *  record, so staging one file costs a few bytes instead of rewriting
+ *  both maps.  Reading the stage loads the snapshot and replays the
+ *  journal over it.  The journal is folded into a fresh snapshot once it
+ *  grows past a size limit or whenever the stage becomes empty, which
+ *  happens on every commit.
+ *
+ *  Replaying is idempotent: each record sets or removes one entry, so
+ *  replaying a journal over a snapshot that already contains it gives the
+ *  same stage.  That makes it safe to write the snapshot before deleting
+ *  the journal.  A record cut short by a crash is ignored when the
+ *  journal is read and cut off when it is next appended to, and a record with an unknown operation is an
+ *  error rather than being guessed at.
+ *
+ *  @author Nameera Faisal Akhtar
+ */
+class StageJournal {
+
+    /** Record operations. */
+    static final byte STAGE_ADDITION = 'A', STAGE_REMOVAL = 'R',
+            UNSTAGE_ADDITION = 'a', UNSTAGE_REMOVAL = 'r', CLEAR = 'C';
+
+    /** Size in bytes past which the journal is compacted. */
+    private static final long COMPACT_BYTES = 64 * 1024;
+
+    /** Name of the snapshot file inside the staging folder. */
+    private static final String SNAPSHOT_NAME = "ourStage";
+
+    /** Name of the journal file inside the staging folder. */
+    private static final String JOURNAL_NAME = "stageJournal";
+
+    /** One change to the staging area. */
+    static class Record {
+        /** One of the operation codes above. */
+        final byte op;
+        /** The file the change applies to, or "" for CLEAR. */
+        final String fileName;
+        /** The sha1 staged, or "" if the operation has none. */
+        final String sha1;
+
+        Record(byte op, String fileName, String sha1) {
+            this.op = op;
+            this.fileName = fileName;
+            this.sha1 = sha1;
+        }
+    }
+
+    /** Returns the staging area stored in STAGINGDIR.  Nothing is
+     *  written, so that read-only commands can call it. */
+    static StagingArea read(File stagingDir) {
+        StagingArea stage = Utils.readObject(Utils.join(stagingDir, SNAPSHOT_NAME),
+                StagingArea.class);
+        File journal = Utils.join(stagingDir, JOURNAL_NAME);
+        int complete = 0;
+        if (journal.isFile()) {
+            byte[] bytes = Utils.readContents(journal);
+            try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes))) {
+                while (complete < bytes.length) {
+                    byte op = in.readByte();
+                    String fileName = in.readUTF();
+                    String sha1 = in.readUTF();
+                    stage.apply(new Record(op, fileName, sha1));
+                    complete = bytes.length - in.available();
+                }
+            } catch (EOFException excp) {
+                // A record cut short by a crash.  Save cuts it off before
+                // appending, so that later records are not read as part
+                // of it.
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+        stage.markSaved();
+        stage.setJournalLength(complete);
+        return stage;
+    }
+
+    /** Saves the changes made to STAGE since it was last saved in
+     *  STAGINGDIR, compacting the journal if it is due. */
+    static void save(File stagingDir, StagingArea stage) {
+        File snapshot = Utils.join(stagingDir, SNAPSHOT_NAME);
+        File journal = Utils.join(stagingDir, JOURNAL_NAME);
+        List<Record> changes = stage.pendingChanges();
+        boolean empty = stage.accessAddedFiles().isEmpty()
+                && stage.accessRemovedFiles().isEmpty();
+        if (!snapshot.isFile() || (empty && !changes.isEmpty())
+                || journal.length() > COMPACT_BYTES) {
+            compact(stagingDir, stage);
+            return;
+        }
+        if (changes.isEmpty()) {
+            return;
+        }
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            for (Record r : changes) {
+                out.writeByte(r.op);
+                out.writeUTF(r.fileName);
+                out.writeUTF(r.sha1);
+            }
+            out.close();
+            if (journal.length() > stage.journalLength()) {
+                truncate(journal, stage.journalLength());
+            }
+            try (FileOutputStream file = new FileOutputStream(journal, true)) {
+                file.write(bytes.toByteArray());
+            }
+            stage.setJournalLength(journal.length());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        stage.markSaved();
+    }
+
+    /** Cuts JOURNAL to its first LENGTH bytes. */
+    private static void truncate(File journal, long length) {
+        try (FileChannel channel = FileChannel.open(journal.toPath(),
+                StandardOpenOption.WRITE)) {
+            channel.truncate(length);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Writes STAGE as the new snapshot in STAGINGDIR and empties the
+     *  journal. */
+    static void compact(File stagingDir, StagingArea stage) {
+        Utils.writeObject(Utils.join(stagingDir, SNAPSHOT_NAME), stage);
+        Utils.join(stagingDir, JOURNAL_NAME).delete();
+        stage.markSaved();
+        stage.setJournalLength(0);
+    }
+}
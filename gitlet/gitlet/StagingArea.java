@@ -1,6 +1,8 @@
 package gitlet;
 
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.TreeMap;
 
 /**
@@ -9,12 +11,24 @@ import java.util.TreeMap;
 
 public class StagingArea implements Serializable {
 
+    /** The version of the first StagingArea class, which every
+     *  repository's stage was written with. */
+    private static final long serialVersionUID = 7998770770794080372L;
+
     /** HashMap<FileName, sha1> representing files that are staged for addition. */
     private TreeMap<String, String> stagedForAddition;
 
     /** HashMap<FileName, sha1> representing files that are staged for addition. */
     private TreeMap<String, String> stagedForRemoval;
 
+    /** Changes made since this stage was last saved, oldest first, for
+     *  appending to the staging journal. Not part of the snapshot. */
+    private transient List<StageJournal.Record> pending;
+
+    /** Length of the part of the staging journal read into or written
+     *  from this stage.  Anything after it was cut short by a crash. */
+    private transient long journalLength;
+
     /** No-argument constructor that creates the Staging Area. */
     public StagingArea() {
         stagedForAddition = new TreeMap<>();
@@ -25,27 +39,32 @@ public class StagingArea implements Serializable {
     public void clear() {
         stagedForAddition.clear();
         stagedForRemoval.clear();
+        record(StageJournal.CLEAR, "", "");
     }
 
     /** Stages the file for addition. */
     public void stageForAddition(String fileName, String sha1) {
         stagedForAddition.put(fileName, sha1);
+        record(StageJournal.STAGE_ADDITION, fileName, sha1);
     }
 
     /** Stages the file for removal. */
     public void stageForRemoval(String fileName, String sha1) {
         stagedForRemoval.put(fileName, sha1);
+        record(StageJournal.STAGE_REMOVAL, fileName, sha1);
     }
 
 
     /** Remove from files that are staged for removal. */
     public void removeFromStagedForRemoval(String fileName) {
         stagedForRemoval.remove(fileName);
+        record(StageJournal.UNSTAGE_REMOVAL, fileName, "");
     }
 
     /** Remove from files that are staged for addition. */
     public void removeFromStagedForAddition(String fileName) {
         stagedForAddition.remove(fileName);
+        record(StageJournal.UNSTAGE_ADDITION, fileName, "");
     }
 
     /** Returns a HashMap of files staged for addition. */
@@ -58,4 +77,57 @@ public class StagingArea implements Serializable {
         return stagedForRemoval;
     }
 
+    /** Returns the changes made since the last call to markSaved(). */
+    List<StageJournal.Record> pendingChanges() {
+        if (pending == null) {
+            pending = new ArrayList<>();
+        }
+        return pending;
+    }
+
+    /** Forgets the pending changes, which have now been saved. */
+    void markSaved() {
+        pendingChanges().clear();
+    }
+
+    /** Returns the length of the staging journal this stage reflects. */
+    long journalLength() {
+        return journalLength;
+    }
+
+    /** Notes that this stage reflects the first LENGTH bytes of the
+     *  staging journal. */
+    void setJournalLength(long length) {
+        journalLength = length;
+    }
+
+    /** Applies the journal record R, as when replaying the journal. */
+    void apply(StageJournal.Record r) {
+        switch (r.op) {
+            case StageJournal.STAGE_ADDITION:
+                stagedForAddition.put(r.fileName, r.sha1);
+                break;
+            case StageJournal.STAGE_REMOVAL:
+                stagedForRemoval.put(r.fileName, r.sha1);
+                break;
+            case StageJournal.UNSTAGE_ADDITION:
+                stagedForAddition.remove(r.fileName);
+                break;
+            case StageJournal.UNSTAGE_REMOVAL:
+                stagedForRemoval.remove(r.fileName);
+                break;
+            case StageJournal.CLEAR:
+                stagedForAddition.clear();
+                stagedForRemoval.clear();
+                break;
+            default:
+                throw Utils.error("Corrupt staging journal: unknown operation %d.", r.op);
+        }
+    }
+
+    /** Remembers a change for the staging journal. */
+    private void record(byte op, String fileName, String sha1) {
+        pendingChanges().add(new StageJournal.Record(op, fileName, sha1));
+    }
+
 }
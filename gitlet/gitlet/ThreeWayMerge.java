@@ -0,0 +1,55 @@
+package gitlet;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/** The merge rules of the merge command, applied to whole <FileName, Sha1>
+ *  maps in memory: a file changed on only one side since the split point
+ *  takes that side's version (absent if it was removed), a file changed
+ *  the same way on both sides keeps it, and a file changed differently
+ *  on both sides is in conflict.
+ *
+ *  @author Nameera Faisal Akhtar
+ */
+class ThreeWayMerge {
+
+    /** The merged map; conflicted files keep the current version. */
+    private final TreeMap<String, String> result = new TreeMap<>();
+
+    /** The files in conflict. */
+    private final TreeSet<String> conflicts = new TreeSet<>();
+
+    /** Merges GIVEN into CURRENT, both changed from SPLIT. */
+    ThreeWayMerge(Map<String, String> split, Map<String, String> current,
+                  Map<String, String> given) {
+        TreeSet<String> fileNames = new TreeSet<>(split.keySet());
+        fileNames.addAll(current.keySet());
+        fileNames.addAll(given.keySet());
+        for (String fileName : fileNames) {
+            String base = split.get(fileName);
+            String ours = current.get(fileName);
+            String theirs = given.get(fileName);
+            String merged = ours;
+            if (Objects.equals(base, ours)) {
+                merged = theirs;
+            } else if (!Objects.equals(base, theirs) && !Objects.equals(ours, theirs)) {
+                conflicts.add(fileName);
+            }
+            if (merged != null) {
+                result.put(fileName, merged);
+            }
+        }
+    }
+
+    /** Returns the merged map. */
+    TreeMap<String, String> result() {
+        return result;
+    }
+
+    /** Returns the files in conflict, in order. */
+    TreeSet<String> conflicts() {
+        return conflicts;
+    }
+}
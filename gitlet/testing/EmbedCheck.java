@@ -0,0 +1,143 @@
+import gitlet.Commit;
+import gitlet.GitletException;
+import gitlet.Repository;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/** A program that uses gitlet as a library, from outside its package, as
+ *  embed-test.py runs it: EmbedCheck DIR, where DIR is an empty scratch
+ *  directory.  It prints a line for every check and exits with status 1
+ *  if any fails.
+ *
+ *  @author Nameera Faisal Akhtar
+ */
+public class EmbedCheck {
+
+    /** Number of checks that failed. */
+    private static int failures;
+
+    /** Reports the check WHAT, which passed iff OK. */
+    private static void check(String what, boolean ok) {
+        System.out.println((ok ? "ok  : " : "FAIL: ") + what);
+        if (!ok) {
+            failures += 1;
+        }
+    }
+
+    /** Returns the message of the GitletException COMMAND throws, or null
+     *  if it throws none. */
+    private static String errorOf(Runnable command) {
+        try {
+            command.run();
+            return null;
+        } catch (GitletException excp) {
+            return excp.getMessage();
+        }
+    }
+
+    /** Writes TEXT to the file NAME in DIR. */
+    private static void write(File dir, String name, String text) throws IOException {
+        Files.write(new File(dir, name).toPath(), text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public static void main(String[] args) throws Exception {
+        File scratch = new File(args[0]);
+        File dirA = new File(scratch, "a");
+        File dirB = new File(scratch, "b");
+        dirA.mkdir();
+        dirB.mkdir();
+        ByteArrayOutputStream bytesA = new ByteArrayOutputStream();
+        ByteArrayOutputStream bytesB = new ByteArrayOutputStream();
+        Repository a = new Repository(dirA, new PrintStream(bytesA, true, "UTF-8"));
+        Repository b = new Repository(dirB, new PrintStream(bytesB, true, "UTF-8"));
+
+        check("a command before init throws instead of exiting",
+                "Not in an initialized Gitlet directory.".equals(errorOf(a::log)));
+        a.init();
+        b.init();
+        check("two repositories in one JVM", a.isInitialized() && b.isInitialized());
+        check("init twice throws", errorOf(a::init) != null);
+
+        write(dirA, "f.txt", "first\n");
+        a.add("f.txt");
+        a.commit("add f");
+        write(dirA, "f.txt", "second\n");
+        a.add("f.txt");
+        a.commit("change f");
+        a.branch("side");
+
+        check("commits in one leave the other alone",
+                a.history(a.branches().get("master"), 10).size() == 3
+                && b.history(b.branches().get("master"), 10).size() == 1);
+        check("headBranch and branches",
+                a.headBranch().equals("master")
+                && a.branches().keySet().toString().equals("[master, side]"));
+
+        List<Commit> history = a.history(a.branches().get("master"), 2);
+        List<String> messages = new ArrayList<>();
+        for (Commit c : history) {
+            messages.add(c.accessMessage());
+        }
+        check("history follows first parents, up to its limit " + messages,
+                messages.toString().equals("[change f, add f]"));
+
+        Commit head = a.commitInfo(history.get(0).accessId().substring(0, 8));
+        check("commitInfo resolves an abbreviated id",
+                head.accessId().equals(history.get(0).accessId()));
+        Map<String, String> files = head.accessBlob();
+        String contents = new String(Files.readAllBytes(
+                a.blobFile(files.get("f.txt")).toPath()), StandardCharsets.UTF_8);
+        check("blobFile gives a commit's file", contents.equals("second\n"));
+        check("an unknown commit throws",
+                "No commit with that id exists.".equals(errorOf(() -> a.commitInfo("0000000"))));
+        check("an unknown branch throws, and the JVM goes on",
+                "No such branch exists.".equals(errorOf(() -> a.checkoutBranchName("nope"))));
+
+        bytesA.reset();
+        bytesB.reset();
+        a.log();
+        String logA = bytesA.toString("UTF-8");
+        check("output goes to the repository's own stream",
+                logA.startsWith("===\ncommit " + head.accessId())
+                && bytesB.size() == 0);
+
+        // Different repositories may be used from different threads.
+        Thread[] threads = new Thread[2];
+        Repository[] repos = {a, b};
+        File[] dirs = {dirA, dirB};
+        Throwable[] thrown = new Throwable[2];
+        for (int t = 0; t < 2; t += 1) {
+            final int k = t;
+            threads[t] = new Thread(() -> {
+                try {
+                    for (int i = 0; i < 10; i += 1) {
+                        write(dirs[k], "t.txt", "thread " + k + " version " + i + "\n");
+                        repos[k].add("t.txt");
+                        repos[k].commit("thread " + k + " commit " + i);
+                    }
+                } catch (Throwable excp) {
+                    thrown[k] = excp;
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        check("commits from two threads to two repositories",
+                thrown[0] == null && thrown[1] == null
+                && a.history(a.branches().get("master"), 100).size() == 13
+                && b.history(b.branches().get("master"), 100).size() == 11);
+
+        System.out.println(failures == 0 ? "All checks passed." : failures + " failed.");
+        System.exit(failures == 0 ? 0 : 1);
+    }
+}
@@ -0,0 +1,205 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/** Checks FileMap against TreeMap, as filemap-test.py runs it: with the
+ *  gitlet classes on the class path, "java gitlet.FileMapCheck [SEED]".
+ *  It is in package gitlet because FileMap is not public.  It prints a
+ *  line for every check and exits with status 1 if any fails.
+ *
+ *  @author Nameera Faisal Akhtar
+ */
+class FileMapCheck {
+
+    /** Number of random maps tried by each check. */
+    private static final int ROUNDS = 500;
+
+    /** Number of checks that failed. */
+    private static int failures;
+
+    /** Reports the check WHAT, which passed iff OK. */
+    private static void check(String what, boolean ok) {
+        System.out.println((ok ? "ok  : " : "FAIL: ") + what);
+        if (!ok) {
+            failures += 1;
+        }
+    }
+
+    /** Returns a random file name from a small set, so that maps share
+     *  names, with upper and lower case to tell comparators apart. */
+    private static String name(Random rand) {
+        String letters = "abAB";
+        return "" + letters.charAt(rand.nextInt(4)) + rand.nextInt(10) + ".txt";
+    }
+
+    /** Returns a random hex id. */
+    private static String id(Random rand) {
+        byte[] b = new byte[ObjectId.LENGTH];
+        rand.nextBytes(b);
+        return ObjectId.toHex(b, 0);
+    }
+
+    /** Puts up to N random entries into MAP and returns it. */
+    private static <M extends Map<String, String>> M fill(M map, int n, Random rand) {
+        for (int i = 0; i < n; i += 1) {
+            map.put(name(rand), id(rand));
+        }
+        return map;
+    }
+
+    /** Returns true iff MAP has the entries of EXPECTED, in the same
+     *  order, and agrees with it on size, lookups and first and last
+     *  keys. */
+    private static boolean same(SortedMap<String, String> map, SortedMap<String, String> expected) {
+        if (!new ArrayList<>(map.entrySet()).equals(new ArrayList<>(expected.entrySet()))
+                || map.size() != expected.size() || !map.equals(expected)
+                || map.hashCode() != expected.hashCode()) {
+            return false;
+        }
+        for (String key : expected.keySet()) {
+            if (!expected.get(key).equals(map.get(key)) || !map.containsKey(key)) {
+                return false;
+            }
+        }
+        if (expected.isEmpty()) {
+            return map.isEmpty();
+        }
+        return map.firstKey().equals(expected.firstKey())
+                && map.lastKey().equals(expected.lastKey());
+    }
+
+    /** Returns MAP serialized and read back. */
+    private static FileMap roundTrip(FileMap map) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(map);
+        }
+        try (ObjectInputStream in = new ObjectInputStream(
+                new ByteArrayInputStream(bytes.toByteArray()))) {
+            return (FileMap) in.readObject();
+        }
+    }
+
+    /** Returns the array of file names inside MAP. */
+    private static String[] paths(FileMap map) throws Exception {
+        Field f = FileMap.class.getDeclaredField("paths");
+        f.setAccessible(true);
+        return (String[]) f.get(map);
+    }
+
+    /** Returns true iff reading MAP back fails as a corrupt map. */
+    private static boolean rejected(FileMap map) throws Exception {
+        try {
+            roundTrip(map);
+            return false;
+        } catch (InvalidObjectException excp) {
+            return true;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Random rand = new Random(args.length > 0 ? Long.parseLong(args[0]) : 45);
+        List<Comparator<String>> orders = new ArrayList<>();
+        orders.add(null);
+        orders.add(Collections.reverseOrder());
+        orders.add(String.CASE_INSENSITIVE_ORDER);
+
+        int bad = 0;
+        for (int r = 0; r < ROUNDS; r += 1) {
+            TreeMap<String, String> base = fill(new TreeMap<>(), rand.nextInt(20), rand);
+            TreeMap<String, String> added = fill(
+                    new TreeMap<>(orders.get(r % orders.size())), rand.nextInt(8), rand);
+            Set<String> removed = new HashSet<>();
+            for (int i = rand.nextInt(6); i > 0; i -= 1) {
+                removed.add(name(rand));
+            }
+            TreeMap<String, String> expected = new TreeMap<>(base);
+            expected.putAll(added);
+            expected.keySet().removeAll(removed);
+            TreeMap<String, String> natural = new TreeMap<>();
+            natural.putAll(added);
+            FileMap result = FileMap.of(base).with(added, removed);
+            if (!same(result, expected) || !same(FileMap.of(added), natural)) {
+                bad += 1;
+            }
+        }
+        check("with() matches TreeMap, whatever the order of the added map ("
+                + bad + " of " + ROUNDS + " differ)", bad == 0);
+
+        bad = 0;
+        for (int r = 0; r < ROUNDS; r += 1) {
+            TreeMap<String, String> tree = fill(new TreeMap<>(), rand.nextInt(20), rand);
+            FileMap map = FileMap.of(tree);
+            String lo = name(rand);
+            String hi = name(rand);
+            if (lo.compareTo(hi) > 0) {
+                String t = lo;
+                lo = hi;
+                hi = t;
+            }
+            if (!same(map.subMap(lo, hi), tree.subMap(lo, hi))
+                    || !same(map.headMap(hi), tree.headMap(hi))
+                    || !same(map.tailMap(lo), tree.tailMap(lo))
+                    || !same(map.tailMap(lo).headMap(hi), tree.subMap(lo, hi))) {
+                bad += 1;
+            }
+        }
+        check("subMap, headMap and tailMap match TreeMap (" + bad + " of "
+                + ROUNDS + " differ)", bad == 0);
+
+        FileMap two = FileMap.of(fill(new TreeMap<>(), 10, rand));
+        boolean threw = false;
+        try {
+            two.subMap(two.lastKey(), two.firstKey());
+        } catch (IllegalArgumentException excp) {
+            threw = true;
+        }
+        check("subMap with its ends swapped throws", threw);
+        threw = false;
+        try {
+            two.headMap(null);
+        } catch (NullPointerException excp) {
+            threw = true;
+        }
+        check("a null key throws", threw);
+
+        FileMap map = FileMap.of(fill(new TreeMap<>(), 10, rand));
+        FileMap back = roundTrip(map);
+        boolean interned = true;
+        for (String path : paths(back)) {
+            interned &= path == path.intern();
+        }
+        check("a map read back is equal, in order, with its names interned",
+                same(back, new TreeMap<>(map)) && back.equals(map) && interned);
+
+        FileMap swapped = FileMap.of(fill(new TreeMap<>(), 10, rand));
+        String[] p = paths(swapped);
+        String t = p[0];
+        p[0] = p[1];
+        p[1] = t;
+        check("a map read back out of order is refused", rejected(swapped));
+
+        FileMap repeated = FileMap.of(fill(new TreeMap<>(), 10, rand));
+        p = paths(repeated);
+        p[2] = p[1];
+        check("a map read back with a name twice is refused", rejected(repeated));
+
+        System.out.println(failures == 0 ? "All checks passed." : failures + " failed.");
+        System.exit(failures == 0 ? 0 : 1);
+    }
+}
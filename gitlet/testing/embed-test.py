@@ -0,0 +1,60 @@
+import sys
+from subprocess import run
+from getopt import getopt, GetoptError
+from os.path import abspath, dirname, join, pathsep
+from shutil import rmtree
+from tempfile import mkdtemp
+
+USAGE = """\
+Usage: python3 embed-test.py OPTIONS
+   OPTIONS may include
+       --progdir=DIR   Directory or JAR file containing the gitlet
+                       application (default ..).
+       --keep          Keep the scratch directory.
+
+Compiles EmbedCheck.java, a program outside the gitlet package that uses
+Repository as a library, against the gitlet classes, and runs it on a
+scratch directory.  It drives two repositories from one JVM, each
+printing to its own stream, and checks that errors are thrown as
+GitletException rather than ending the JVM, that the read-only queries
+(headBranch, branches, commitInfo, history, blobFile) answer as log
+does, and that two threads can commit to two repositories at once.
+Exits with status 1 if any check fails.
+"""
+
+def usage():
+    print(USAGE, file=sys.stderr)
+    sys.exit(1)
+
+def main():
+    try:
+        opts, args = getopt(sys.argv[1:], '', ['progdir=', 'keep'])
+    except GetoptError:
+        usage()
+    progdir, keep = "..", False
+    for opt, val in opts:
+        if opt == '--progdir':
+            progdir = val
+        elif opt == '--keep':
+            keep = True
+    if args:
+        usage()
+
+    scratch = mkdtemp(prefix="gitlet-embed-")
+    classes = join(scratch, "classes")
+    source = join(dirname(abspath(__file__)), "EmbedCheck.java")
+    try:
+        compiled = run(["javac", "-encoding", "UTF-8", "-cp", abspath(progdir),
+                        "-d", classes, source])
+        if compiled.returncode != 0:
+            print("FAIL: EmbedCheck.java does not compile against the gitlet classes")
+            sys.exit(1)
+        checked = run(["java", "-cp", classes + pathsep + abspath(progdir),
+                       "EmbedCheck", scratch])
+    finally:
+        if not keep:
+            rmtree(scratch, ignore_errors=True)
+    sys.exit(checked.returncode)
+
+if __name__ == "__main__":
+    main()
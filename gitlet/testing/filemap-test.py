@@ -0,0 +1,59 @@
+import sys
+from subprocess import run
+from getopt import getopt, GetoptError
+from os.path import abspath, dirname, join, pathsep
+from shutil import rmtree
+from tempfile import mkdtemp
+
+USAGE = """\
+Usage: python3 filemap-test.py OPTIONS
+   OPTIONS may include
+       --progdir=DIR   Directory or JAR file containing the gitlet
+                       application (default ..).
+       --keep          Keep the compiled check.
+
+Compiles FileMapCheck.java into the gitlet package, since FileMap is not
+public, and runs it.  It checks, against TreeMap on random maps, that
+"with" puts in and takes out the staged files whatever the order of the
+map it is given, that subMap, headMap and tailMap give the same entries
+and refuse what TreeMap refuses, and that a map read back from its
+serialized form is equal and in order, while one whose names are out of
+order or repeated is refused.  Exits with status 1 if any check fails.
+"""
+
+def usage():
+    print(USAGE, file=sys.stderr)
+    sys.exit(1)
+
+def main():
+    try:
+        opts, args = getopt(sys.argv[1:], '', ['progdir=', 'keep'])
+    except GetoptError:
+        usage()
+    progdir, keep = "..", False
+    for opt, val in opts:
+        if opt == '--progdir':
+            progdir = val
+        elif opt == '--keep':
+            keep = True
+    if args:
+        usage()
+
+    scratch = mkdtemp(prefix="gitlet-filemap-")
+    classes = join(scratch, "classes")
+    source = join(dirname(abspath(__file__)), "FileMapCheck.java")
+    try:
+        compiled = run(["javac", "-encoding", "UTF-8", "-cp", abspath(progdir),
+                        "-d", classes, source])
+        if compiled.returncode != 0:
+            print("FAIL: FileMapCheck.java does not compile against the gitlet classes")
+            sys.exit(1)
+        checked = run(["java", "-cp", classes + pathsep + abspath(progdir),
+                       "gitlet.FileMapCheck"])
+    finally:
+        if not keep:
+            rmtree(scratch, ignore_errors=True)
+    sys.exit(checked.returncode)
+
+if __name__ == "__main__":
+    main()
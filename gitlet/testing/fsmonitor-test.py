@@ -0,0 +1,184 @@
+import fcntl, os, sys, threading, time, uuid
+from subprocess import Popen, run, DEVNULL, PIPE, STDOUT
+from getopt import getopt, GetoptError
+from os.path import abspath, exists, join
+from shutil import rmtree
+from tempfile import mkdtemp
+
+USAGE = """\
+Usage: python3 fsmonitor-test.py OPTIONS
+   OPTIONS may include
+       --progdir=DIR   Directory or JAR file containing the gitlet
+                       application (default ..).
+       --keep          Keep the scratch repository.
+
+Checks how status uses the file-system monitor of a scratch repository.
+The harness first plays the daemon itself, holding daemon.lock and
+writing the token and the changed log, so that it decides what is
+logged: status must rehash only the files logged since its cache, must
+fall back to hashing everything when its cookie is not logged in time,
+when the token changes, or when no daemon holds the lock.  It then runs
+the real daemon and checks that status sees a change it logs, and that
+"fsmonitor stop" stops it.  Exits with status 1 if any check fails.
+"""
+
+COOKIE_MARK = "\0"
+
+def usage():
+    print(USAGE, file=sys.stderr)
+    sys.exit(1)
+
+failures = 0
+
+def check(what, ok):
+    global failures
+    print("{}: {}".format("ok  " if ok else "FAIL", what))
+    if not ok:
+        failures += 1
+
+def modified(status):
+    """Returns the names listed under Modifications Not Staged For Commit
+    in the output STATUS."""
+    section = status.split("=== Modifications Not Staged For Commit ===")[1]
+    section = section.split("===")[0]
+    return sorted(line.split("(")[0].strip()
+                  for line in section.splitlines() if line)
+
+class FakeDaemon:
+    """Holds the daemon lock of the monitor folder DIR, as the daemon
+    does, and logs the cookies clients create while ANSWER is set."""
+    def __init__(self, dir):
+        self.dir, self.answer, self.done = dir, True, False
+    def __enter__(self):
+        os.makedirs(self.dir, exist_ok=True)
+        self.lock = open(join(self.dir, "daemon.lock"), "a+")
+        fcntl.lockf(self.lock, fcntl.LOCK_EX)
+        self.new_token()
+        self.thread = threading.Thread(target=self.watch_cookies)
+        self.thread.start()
+        return self
+    def __exit__(self, *args):
+        self.done = True
+        self.thread.join()
+        fcntl.lockf(self.lock, fcntl.LOCK_UN)
+        self.lock.close()
+    def new_token(self):
+        """Writes a new token and empties the log, as the daemon does."""
+        with open(join(self.dir, "token"), "w") as f:
+            f.write(str(uuid.uuid4()))
+        open(join(self.dir, "changed"), "w").close()
+    def log(self, *names):
+        with open(join(self.dir, "changed"), "a") as f:
+            f.write("".join(name + "\n" for name in names))
+    def watch_cookies(self):
+        seen = set()
+        while not self.done:
+            for name in os.listdir(self.dir):
+                if name.startswith("cookie-") and name not in seen and self.answer:
+                    seen.add(name)
+                    self.log(COOKIE_MARK + name)
+            time.sleep(0.002)
+
+def main():
+    try:
+        opts, args = getopt(sys.argv[1:], '', ['progdir=', 'keep'])
+    except GetoptError:
+        usage()
+    progdir, keep = "..", False
+    for opt, val in opts:
+        if opt == '--progdir':
+            progdir = val
+        elif opt == '--keep':
+            keep = True
+    if args:
+        usage()
+
+    gitlet = ["java", "-cp", abspath(progdir), "gitlet.Main"]
+    scratch = mkdtemp(prefix="gitlet-fsmonitor-")
+    monitor_dir = join(scratch, ".gitlet", "fsmonitor")
+    cache = join(monitor_dir, "cache")
+    daemon = None
+    try:
+        g = lambda *args: run(gitlet + list(args), cwd=scratch, stdout=PIPE,
+                              stderr=STDOUT, universal_newlines=True,
+                              check=True).stdout
+        def write(name, text):
+            with open(join(scratch, name), "w") as f:
+                f.write(text)
+        def status():
+            start = time.time()
+            result = modified(g("status"))
+            return result, time.time() - start
+
+        g("init")
+        for name in "f.txt", "g.txt":
+            write(name, name + "\n")
+            g("add", name)
+        g("commit", "two files")
+
+        with FakeDaemon(monitor_dir) as fake:
+            result, _ = status()
+            check("the first status hashes everything", result == [])
+            check("and saves a cache", exists(cache))
+
+            write("f.txt", "changed\n")
+            result, _ = status()
+            check("a change not logged is not looked at ({})"
+                  .format(result), result == [])
+            fake.log("f.txt")
+            result, _ = status()
+            check("once logged, it is ({})".format(result), result == ["f.txt"])
+
+            write("g.txt", "changed\n")
+            fake.answer = False
+            result, elapsed = status()
+            check("without its cookie logged, status hashes everything ({})"
+                  .format(result), result == ["f.txt", "g.txt"])
+            check("after waiting for it ({:.2f} s)".format(elapsed),
+                  elapsed >= 1.0)
+            fake.answer = True
+
+            result, _ = status()
+            check("answered again, status goes back to the log ({})"
+                  .format(result), result == ["f.txt"])
+            fake.new_token()
+            result, _ = status()
+            check("a new token makes status hash everything ({})"
+                  .format(result), result == ["f.txt", "g.txt"])
+
+            write("f.txt", "f.txt\n")
+            write("g.txt", "g.txt\n")
+        result, _ = status()
+        check("with no daemon, status hashes everything ({})".format(result),
+              result == [])
+
+        daemon = Popen(gitlet + ["fsmonitor"], cwd=scratch,
+                       stdout=DEVNULL, stderr=DEVNULL)
+        deadline = time.time() + 10
+        while time.time() < deadline and not exists(join(monitor_dir, "token")):
+            time.sleep(0.05)
+        time.sleep(0.5)
+        status()
+        write("g.txt", "changed by hand\n")
+        result, elapsed = status()
+        check("the daemon logs a change status then sees ({}, {:.2f} s)"
+              .format(result, elapsed), result == ["g.txt"] and elapsed < 1.0)
+        with open(join(monitor_dir, "changed"), encoding="utf-8") as f:
+            check("in its log", "g.txt\n" in f.read())
+        g("fsmonitor", "stop")
+        try:
+            daemon.wait(timeout=10)
+        except Exception:
+            pass
+        check("fsmonitor stop stops the daemon", daemon.poll() is not None)
+    finally:
+        if daemon is not None and daemon.poll() is None:
+            daemon.kill()
+        if not keep:
+            rmtree(scratch, ignore_errors=True)
+
+    print("{} failed.".format(failures) if failures else "All checks passed.")
+    sys.exit(1 if failures else 0)
+
+if __name__ == "__main__":
+    main()
@@ -0,0 +1,155 @@
+import json, os, sys
+from subprocess import Popen, run, DEVNULL, PIPE
+from getopt import getopt, GetoptError
+from os.path import abspath, join
+from shutil import rmtree
+from tempfile import mkdtemp
+from urllib.error import HTTPError
+from urllib.request import Request, urlopen
+
+USAGE = """\
+Usage: python3 http-service-test.py OPTIONS
+   OPTIONS may include
+       --progdir=DIR   Directory or JAR file containing the gitlet
+                       application (default ..).
+       --keep          Keep the scratch repository.
+
+Builds a scratch repository, serves it with "gitlet.Main serve 0 DIR" on
+the loopback address, and checks every kind of request HttpReadService
+answers: the repository list, refs, log, commit metadata and files, blob
+contents (GET and HEAD), and the 404, 405 and 500 error responses.
+Exits with status 1 if any check fails.
+"""
+
+def usage():
+    print(USAGE, file=sys.stderr)
+    sys.exit(1)
+
+failures = 0
+
+def check(what, ok):
+    global failures
+    print("{}: {}".format("ok  " if ok else "FAIL", what))
+    if not ok:
+        failures += 1
+
+def fetch(base, path, method="GET"):
+    """Returns the status, headers and body of METHOD PATH.  The status is
+    None if the server closed the connection without answering."""
+    try:
+        with urlopen(Request(base + path, method=method), timeout=10) as r:
+            return r.status, r.headers, r.read()
+    except HTTPError as e:
+        return e.code, e.headers, e.read()
+    except OSError:
+        return None, {}, b""
+
+def main():
+    try:
+        opts, args = getopt(sys.argv[1:], '', ['progdir=', 'keep'])
+    except GetoptError:
+        usage()
+    progdir, keep = "..", False
+    for opt, val in opts:
+        if opt == '--progdir':
+            progdir = val
+        elif opt == '--keep':
+            keep = True
+    if args:
+        usage()
+
+    gitlet = ["java", "-cp", abspath(progdir), "gitlet.Main"]
+    scratch = mkdtemp(prefix="gitlet-http-")
+    repo = join(scratch, "demo")
+    os.mkdir(repo)
+    server = None
+    try:
+        g = lambda *args: run(gitlet + list(args), cwd=repo, stdout=DEVNULL,
+                              check=True)
+        g("init")
+        contents = b"hello\x00world\n" * 1000
+        with open(join(repo, "f.bin"), "wb") as f:
+            f.write(contents)
+        g("add", "f.bin")
+        g("commit", "add f")
+        g("branch", "side")
+
+        server_log = join(scratch, "server.log")
+        with open(server_log, "w") as log:
+            server = Popen(gitlet + ["serve", "0", repo], stdout=PIPE,
+                           stderr=log, universal_newlines=True)
+        line = server.stdout.readline()
+        base = line.strip().split(" on ")[-1][:-len("/repos")]
+        check("server started: " + line.strip(), base.startswith("http://127.0.0.1:"))
+
+        status, _, body = fetch(base, "/repos")
+        check("GET /repos", status == 200 and json.loads(body) == ["demo"])
+
+        status, _, body = fetch(base, "/repos/demo/refs")
+        refs = json.loads(body)
+        check("GET refs", status == 200 and refs["head"] == "master"
+              and sorted(refs["branches"]) == ["master", "side"])
+        head = refs["branches"]["master"]
+
+        status, _, body = fetch(base, "/repos/demo/log?limit=5")
+        log = json.loads(body)
+        check("GET log", status == 200 and [c["message"] for c in log]
+              == ["add f", "initial commit"] and log[0]["id"] == head
+              and log[0]["parents"] == [log[1]["id"]])
+
+        status, _, body = fetch(base, "/repos/demo/log?start=side&limit=1")
+        check("GET log from a branch, limited",
+              status == 200 and [c["id"] for c in json.loads(body)] == [head])
+
+        status, _, body = fetch(base, "/repos/demo/commits/" + head[:8])
+        check("GET commit by short id",
+              status == 200 and json.loads(body)["id"] == head)
+
+        status, _, body = fetch(base, "/repos/demo/commits/" + head + "/files")
+        files = json.loads(body)
+        check("GET commit files", status == 200 and list(files) == ["f.bin"])
+        blob = files["f.bin"]
+
+        status, headers, body = fetch(base, "/repos/demo/blobs/" + blob)
+        check("GET blob", status == 200 and body == contents)
+
+        status, headers, body = fetch(base, "/repos/demo/blobs/" + blob, "HEAD")
+        check("HEAD blob", status == 200 and body == b""
+              and headers["Content-Length"] == str(len(contents)))
+
+        status, headers, _ = fetch(base, "/repos/demo/refs", "POST")
+        check("POST is refused", status == 405 and headers["Allow"] == "GET, HEAD")
+
+        status, _, body = fetch(base, "/repos/nope/refs")
+        check("unknown repository", status == 404 and "error" in json.loads(body))
+
+        status, _, _ = fetch(base, "/repos/demo/commits/" + "0" * 40)
+        check("unknown commit", status == 404)
+
+        status, _, _ = fetch(base, "/repos/demo/log?limit=x")
+        check("bad limit", status == 400)
+
+        # A damaged commit file is not a Gitlet error, but still gets an
+        # answer.
+        with open(join(repo, ".gitlet", "commits", head), "wb") as f:
+            f.write(b"not a commit")
+        status, _, body = fetch(base, "/repos/demo/commits/" + head)
+        check("damaged commit gives 500",
+              status == 500 and "error" in json.loads(body))
+        check("with no details for the client",
+              json.loads(body)["error"] == "Internal error.")
+        with open(server_log) as log:
+            check("which go to the server's log",
+                  "/repos/demo/commits/" + head in log.read())
+    finally:
+        if server is not None:
+            server.kill()
+            server.wait()
+        if not keep:
+            rmtree(scratch, ignore_errors=True)
+
+    print("{} failed.".format(failures) if failures else "All checks passed.")
+    sys.exit(1 if failures else 0)
+
+if __name__ == "__main__":
+    main()
@@ -0,0 +1,165 @@
+import fcntl, os, sys, time
+from subprocess import run, PIPE, STDOUT
+from getopt import getopt, GetoptError
+from os.path import abspath, join
+from shutil import rmtree
+from tempfile import mkdtemp
+
+USAGE = """\
+Usage: python3 lock-test.py OPTIONS
+   OPTIONS may include
+       --progdir=DIR   Directory or JAR file containing the gitlet
+                       application (default ..).
+       --keep          Keep the scratch repository.
+
+Holds the lock of a scratch repository, as another gitlet process would,
+and checks that read-only commands run beside a shared holder and write
+nothing in .gitlet, that commands that change the repository wait for it
+for gitlet.lock.timeout milliseconds and then give up, and that an
+exclusive holder keeps out readers too.  Exits with status 1 if any check
+fails.
+"""
+
+# Milliseconds gitlet waits for the lock in these checks.
+TIMEOUT_MS = 500
+
+BUSY = "Unable to lock the repository: it is in use."
+
+def usage():
+    print(USAGE, file=sys.stderr)
+    sys.exit(1)
+
+failures = 0
+
+def check(what, ok):
+    global failures
+    print("{}: {}".format("ok  " if ok else "FAIL", what))
+    if not ok:
+        failures += 1
+
+def snapshot(gitlet_dir):
+    """Returns the name, size and modification time of everything in
+    GITLET_DIR."""
+    result = {}
+    for root, dirs, files in os.walk(gitlet_dir):
+        for name in dirs + files:
+            path = join(root, name)
+            st = os.stat(path)
+            result[os.path.relpath(path, gitlet_dir)] = (st.st_size, st.st_mtime_ns)
+    return result
+
+class Holder:
+    """Holds the lock on LOCK_FILE, shared iff SHARED, as a FileChannel
+    lock of another process would."""
+    def __init__(self, lock_file, shared):
+        self.lock_file, self.shared = lock_file, shared
+    def __enter__(self):
+        self.f = open(self.lock_file, "a+")
+        fcntl.lockf(self.f, fcntl.LOCK_SH if self.shared else fcntl.LOCK_EX)
+        return self
+    def __exit__(self, *args):
+        fcntl.lockf(self.f, fcntl.LOCK_UN)
+        self.f.close()
+
+def main():
+    try:
+        opts, args = getopt(sys.argv[1:], '', ['progdir=', 'keep'])
+    except GetoptError:
+        usage()
+    progdir, keep = "..", False
+    for opt, val in opts:
+        if opt == '--progdir':
+            progdir = val
+        elif opt == '--keep':
+            keep = True
+    if args:
+        usage()
+
+    gitlet = ["java", "-Dgitlet.lock.timeout={}".format(TIMEOUT_MS),
+              "-cp", abspath(progdir), "gitlet.Main"]
+    scratch = mkdtemp(prefix="gitlet-lock-")
+    gitlet_dir = join(scratch, ".gitlet")
+    lock_file = join(gitlet_dir, "lock")
+    try:
+        g = lambda *args: run(gitlet + list(args), cwd=scratch, stdout=PIPE,
+                              stderr=STDOUT, universal_newlines=True,
+                              check=True).stdout
+        def timed(*args):
+            start = time.time()
+            output = g(*args).strip()
+            return output, time.time() - start
+        g("init")
+        for i in range(3):
+            with open(join(scratch, "f.txt"), "w") as f:
+                f.write("version {}\n".format(i))
+            g("add", "f.txt")
+            g("commit", "version {}".format(i))
+            if i == 0:
+                g("branch", "side")
+        g("checkout", "side")
+        with open(join(scratch, "g.txt"), "w") as f:
+            f.write("side\n")
+        g("add", "g.txt")
+        g("commit", "side")
+        g("checkout", "master")
+        with open(join(scratch, "f.txt"), "a") as f:
+            f.write("not staged\n")
+        g("add", "f.txt")
+        with open(join(scratch, "f.txt"), "a") as f:
+            f.write("changed again\n")
+        with open(join(scratch, "h.txt"), "w") as f:
+            f.write("untracked\n")
+        # The fsck state and commit graph do not exist yet, so the
+        # commands below would write them if they could.
+        for name in "fsck-state", "commit-graph":
+            check("{} not there yet".format(name),
+                  not os.path.exists(join(gitlet_dir, name)))
+
+        with Holder(lock_file, shared=True):
+            before = snapshot(gitlet_dir)
+            outputs = {}
+            for command in (["status"], ["log"], ["log", "--", "f.txt"],
+                            ["blame", "f.txt"], ["global-log"],
+                            ["find", "side"], ["merge-base", "master", "side"],
+                            ["fsck"], ["reflog"]):
+                outputs[" ".join(command)] = g(*command)
+            check("read-only commands run beside a shared holder",
+                  not any(BUSY in out for out in outputs.values()))
+            check("fsck finds nothing", outputs["fsck"] == "")
+            after = snapshot(gitlet_dir)
+            changed = sorted(name for name in set(before) | set(after)
+                             if before.get(name) != after.get(name))
+            check("read-only commands write nothing in .gitlet ({})"
+                  .format(", ".join(changed) or "none"), not changed)
+
+            output, elapsed = timed("add", "h.txt")
+            check("a writer gives up on a shared holder",
+                  output == BUSY)
+            check("after gitlet.lock.timeout ({:.2f} s)".format(elapsed),
+                  elapsed >= TIMEOUT_MS / 1000)
+
+        # Free, the derived files are saved after the command.
+        g("merge-base", "master", "side")
+        check("merge-base saves the commit graph when it can",
+              os.path.exists(join(gitlet_dir, "commit-graph")))
+        g("fsck")
+        check("a clean fsck is recorded when it can",
+              os.path.exists(join(gitlet_dir, "fsck-state")))
+
+        with Holder(lock_file, shared=False):
+            output, elapsed = timed("log")
+            check("a reader gives up on an exclusive holder", output == BUSY)
+            check("after gitlet.lock.timeout ({:.2f} s)".format(elapsed),
+                  elapsed >= TIMEOUT_MS / 1000)
+
+        check("the lock is free again once released",
+              g("add", "h.txt") == "")
+    finally:
+        if not keep:
+            rmtree(scratch, ignore_errors=True)
+
+    print("{} failed.".format(failures) if failures else "All checks passed.")
+    sys.exit(1 if failures else 0)
+
+if __name__ == "__main__":
+    main()
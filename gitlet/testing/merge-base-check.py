@@ -0,0 +1,150 @@
+import random, sys
+from subprocess import run, PIPE
+from getopt import getopt, GetoptError
+from os.path import abspath, join
+from shutil import rmtree
+from tempfile import mkdtemp
+
+USAGE = """\
+Usage: python3 merge-base-check.py OPTIONS
+   OPTIONS may include
+       --progdir=DIR   Directory or JAR file containing the gitlet
+                       application (default ..).
+       --commits=N     Number of commits in the generated history
+                       (default 3000).
+       --merge-rate=F  Fraction of commits that are merges (default 0.5).
+       --queries=N     Number of pairs of commits checked (default 40).
+       --seed=N        Seed of the random history and pairs (default 61).
+       --keep          Keep the scratch repository.
+
+Generates a random history with many merges, imports it with fast-import,
+and checks "merge-base --all A B" for random pairs of its commits against
+the answer found by brute force: the common ancestors of A and B that are
+not ancestors of another common ancestor.  Each commit's first parent is
+one of the few commits before it, so the history is deep, and a merge's
+second parent is any earlier commit, so criss-crosses are common.  Exits
+with status 1 if any answer differs.
+"""
+
+def usage():
+    print(USAGE, file=sys.stderr)
+    sys.exit(1)
+
+def generate(commits, merge_rate, rng):
+    """Returns the parents of each of COMMITS commits, by index."""
+    parents = [[]]
+    for i in range(1, commits):
+        p = [max(0, i - 1 - int(rng.expovariate(0.5)))]
+        if rng.random() < merge_rate:
+            other = rng.randrange(i)
+            if other != p[0]:
+                p.append(other)
+        parents.append(p)
+    return parents
+
+def write_stream(path, parents):
+    """Writes a fast-import stream of the history PARENTS to PATH."""
+    with open(path, "w") as out:
+        def data(text):
+            out.write("data {}\n{}\n".format(len(text.encode()), text))
+        for i, p in enumerate(parents):
+            out.write("commit refs/heads/generated\nmark :{}\n".format(i + 1))
+            data("c{}".format(i))
+            if p:
+                out.write("from :{}\n".format(p[0] + 1))
+            if len(p) > 1:
+                out.write("merge :{}\n".format(p[1] + 1))
+            out.write("M 100644 inline f{}.txt\n".format(i % 50))
+            data("version {}\n".format(i))
+        out.write("done\n")
+
+def merge_bases(a, b, ancestors):
+    """Returns the merge bases of A and B by brute force, from the bit
+    sets ANCESTORS of each commit's ancestors (itself included)."""
+    common = ancestors[a] & ancestors[b]
+    below = 0
+    c = common
+    while c:
+        low = c & -c
+        i = low.bit_length() - 1
+        below |= ancestors[i] & ~low
+        c ^= low
+    bases = common & ~below
+    return {i for i in range(bases.bit_length()) if bases >> i & 1}
+
+def main():
+    try:
+        opts, args = getopt(sys.argv[1:], '',
+                            ['progdir=', 'commits=', 'merge-rate=',
+                             'queries=', 'seed=', 'keep'])
+    except GetoptError:
+        usage()
+    progdir, commits, merge_rate, queries, seed, keep = \
+        "..", 3000, 0.5, 40, 61, False
+    for opt, val in opts:
+        if opt == '--progdir':
+            progdir = val
+        elif opt == '--commits':
+            commits = int(val)
+        elif opt == '--merge-rate':
+            merge_rate = float(val)
+        elif opt == '--queries':
+            queries = int(val)
+        elif opt == '--seed':
+            seed = int(val)
+        elif opt == '--keep':
+            keep = True
+    if args:
+        usage()
+
+    rng = random.Random(seed)
+    parents = generate(commits, merge_rate, rng)
+    ancestors = []
+    for i, p in enumerate(parents):
+        bits = 1 << i
+        for q in p:
+            bits |= ancestors[q]
+        ancestors.append(bits)
+    merges = sum(1 for p in parents if len(p) > 1)
+
+    gitlet = ["java", "-cp", abspath(progdir), "gitlet.Main"]
+    scratch = mkdtemp(prefix="gitlet-merge-base-")
+    failures = 0
+    try:
+        g = lambda *args, **kw: run(gitlet + list(args), cwd=scratch, stdout=PIPE,
+                                    universal_newlines=True, check=True, **kw).stdout
+        stream = join(scratch, "history.stream")
+        write_stream(stream, parents)
+        g("init")
+        with open(stream) as f:
+            g("fast-import", stdin=f)
+        ids = {}
+        commit_id = None
+        for line in g("global-log").splitlines():
+            if line.startswith("commit "):
+                commit_id = line.split()[1]
+            elif line.startswith("c") and line[1:].isdigit():
+                ids[int(line[1:])] = commit_id
+        print("{} commits, {} merges imported".format(len(ids), merges))
+
+        pairs = [(rng.randrange(commits), rng.randrange(commits))
+                 for _ in range(queries)]
+        # An ancestor with its descendant, and a commit with itself.
+        pairs += [(parents[-1][0], commits - 1), (commits // 2, commits // 2)]
+        for a, b in pairs:
+            expected = {ids[i] for i in merge_bases(a, b, ancestors)}
+            actual = set(g("merge-base", "--all", ids[a], ids[b]).split())
+            if actual != expected:
+                failures += 1
+                print("FAIL: merge-base --all c{} c{}: got {}, expected {}"
+                      .format(a, b, sorted(actual), sorted(expected)))
+    finally:
+        if not keep:
+            rmtree(scratch, ignore_errors=True)
+
+    print("{} of {} pairs differ.".format(failures, len(pairs)) if failures
+          else "All {} pairs agree.".format(len(pairs)))
+    sys.exit(1 if failures else 0)
+
+if __name__ == "__main__":
+    main()
@@ -0,0 +1,418 @@
+import ctypes, json, os, re, select, struct, sys, threading, time
+from subprocess import Popen, run, DEVNULL, PIPE
+from getopt import getopt, GetoptError
+from os.path import abspath, exists, join
+from shutil import rmtree
+from tempfile import mkdtemp
+
+USAGE = """\
+Usage: python3 perf-runner.py OPTIONS [SCENARIO ...]
+   OPTIONS may include
+       --progdir=DIR   Directory or JAR file containing the gitlet
+                       application (default ..).
+       --baseline=FILE The stored file counts to compare against
+                       (default perf-baseline.json).
+       --timings=FILE  The stored wall times and peak RSS of this
+                       machine to compare against (default
+                       perf-timings.json).
+       --record        Store this run's measurements in both files
+                       instead of comparing against them.
+       --scale=N       Multiply the sizes of every scenario by N
+                       (default 1).  A baseline only compares with runs
+                       at the scale it was recorded at.
+       --time-tolerance=F
+                       Allowed fractional increase in wall time (default
+                       0.5), on top of a fixed --time-slack=MS (default
+                       150) for JVM start-up noise.
+       --rss-tolerance=F
+                       Allowed fractional increase in peak RSS (default
+                       0.25), plus 16 MB.
+       --io-tolerance=F
+                       Allowed fractional increase in files read and
+                       files written (default 0.2), plus 5.
+       --keep          Keep the scratch repositories.
+
+Runs scripted scenarios (a large fast-import and a deep history, many
+branches, many working files) against gitlet.Main.  For every measured
+command it reports the wall time, the peak resident set size, and the
+number of files in the scratch directory the command closed after
+reading and after writing (from inotify; shown as "-" where that is not
+available).  With no SCENARIO, all of them run.
+
+Without --record, each command is compared with its stored entries,
+and the runner exits with status 1 if any command exceeds its
+tolerances.  File counts do not depend on the machine, so they are kept
+in the committed perf-baseline.json, and catch a command that has started
+reading the whole history or every branch even when its time is still
+within bounds.  Times and RSS do, so they are kept in perf-timings.json,
+which is not committed: record it on each machine, from the revision
+being compared against, to compare them too.
+"""
+
+def usage():
+    print(USAGE, file=sys.stderr)
+    sys.exit(1)
+
+class FileWatcher:
+    """Counts the files under a directory that are closed after reading
+    and after writing, using Linux's inotify through ctypes.  Directories
+    made while watching are watched from then on; files written into them
+    before the watch is added are missed, which is the same on every
+    run."""
+
+    IN_CLOSE_WRITE = 0x8
+    IN_CLOSE_NOWRITE = 0x10
+    IN_CREATE = 0x100
+    IN_Q_OVERFLOW = 0x4000
+    IN_ISDIR = 0x40000000
+    IN_NONBLOCK = 0o4000
+    MASK = IN_CLOSE_WRITE | IN_CLOSE_NOWRITE | IN_CREATE
+    HEADER = struct.Struct("iIII")
+
+    def __init__(self, root):
+        self.root = root
+        self.fd = -1
+        try:
+            self.libc = ctypes.CDLL(None, use_errno=True)
+            self.fd = self.libc.inotify_init1(self.IN_NONBLOCK)
+        except (OSError, AttributeError):
+            pass
+        self.dirs = {}
+
+    def available(self):
+        return self.fd >= 0
+
+    def _watch(self, path):
+        wd = self.libc.inotify_add_watch(self.fd, path.encode(), self.MASK)
+        if wd >= 0:
+            self.dirs[wd] = path
+
+    def start(self):
+        self.reads = self.writes = 0
+        self.overflowed = False
+        for path, _, _ in os.walk(self.root):
+            self._watch(path)
+        self.stopping = False
+        self.thread = threading.Thread(target=self._run)
+        self.thread.start()
+
+    def stop(self):
+        """Returns the number of files read and written since start."""
+        self.stopping = True
+        self.thread.join()
+        for wd in list(self.dirs):
+            self.libc.inotify_rm_watch(self.fd, wd)
+        self.dirs.clear()
+        self._drain()
+        if self.overflowed:
+            print("inotify queue overflowed; file counts are low",
+                  file=sys.stderr)
+        return self.reads, self.writes
+
+    def _run(self):
+        while not self.stopping:
+            select.select([self.fd], [], [], 0.05)
+            self._drain()
+
+    def _drain(self):
+        while True:
+            try:
+                data = os.read(self.fd, 64 * 1024)
+            except BlockingIOError:
+                return
+            i = 0
+            while i < len(data):
+                wd, mask, _, length = self.HEADER.unpack_from(data, i)
+                name = data[i + self.HEADER.size:i + self.HEADER.size + length]
+                i += self.HEADER.size + length
+                if mask & self.IN_Q_OVERFLOW:
+                    self.overflowed = True
+                elif mask & self.IN_ISDIR:
+                    if mask & self.IN_CREATE and wd in self.dirs:
+                        self._watch(join(self.dirs[wd],
+                                         name.rstrip(b"\0").decode()))
+                elif mask & self.IN_CLOSE_WRITE:
+                    self.writes += 1
+                elif mask & self.IN_CLOSE_NOWRITE:
+                    self.reads += 1
+
+class Scenario:
+    """A scratch repository in which a scenario runs its commands."""
+
+    def __init__(self, name, gitlet, watcher_root):
+        self.name = name
+        self.gitlet = gitlet
+        self.dir = join(watcher_root, name)
+        os.mkdir(self.dir)
+        self.watcher = FileWatcher(self.dir)
+        self.results = []
+
+    def write(self, path, contents):
+        full = join(self.dir, path)
+        os.makedirs(os.path.dirname(full), exist_ok=True)
+        with open(full, "w") as f:
+            f.write(contents)
+
+    def setup(self, *args, stdin=None):
+        """Runs gitlet with ARGS without measuring it, and returns its
+        output."""
+        with open(stdin, "rb") if stdin else open(os.devnull, "rb") as inp:
+            result = run(self.gitlet + list(args), cwd=self.dir, stdin=inp,
+                         stdout=PIPE, stderr=PIPE, universal_newlines=True)
+        if result.returncode != 0:
+            raise RuntimeError("{}: gitlet {} failed:\n{}".format(
+                self.name, " ".join(args), result.stderr))
+        return result.stdout
+
+    def measure(self, label, *args, stdin=None):
+        """Runs gitlet with ARGS, recording its cost under LABEL."""
+        watching = self.watcher.available()
+        if watching:
+            self.watcher.start()
+        with open(stdin, "rb") if stdin else open(os.devnull, "rb") as inp:
+            start = time.perf_counter()
+            proc = Popen(self.gitlet + list(args), cwd=self.dir, stdin=inp,
+                         stdout=DEVNULL, stderr=PIPE)
+            # Only the parent can collect a child's resource usage, so the
+            # child is reaped here rather than through proc.wait.
+            stderr = proc.stderr.read()
+            _, status, usage = os.wait4(proc.pid, 0)
+            elapsed = time.perf_counter() - start
+            proc.returncode = os.waitstatus_to_exitcode(status)
+            proc.stderr.close()
+        reads, writes = self.watcher.stop() if watching else (None, None)
+        if proc.returncode != 0:
+            raise RuntimeError("{}: gitlet {} failed:\n{}".format(
+                self.name, " ".join(args), stderr.decode()))
+        rss = usage.ru_maxrss
+        if sys.platform == "darwin":
+            rss //= 1024
+        self.results.append((self.name + ": " + label, {
+            "time_ms": round(elapsed * 1000, 1), "rss_kb": rss,
+            "reads": reads, "writes": writes}))
+
+def fast_import_stream(path, commits, files, branch, side_every=0):
+    """Writes a fast-import stream to PATH: COMMITS commits on BRANCH, each
+    changing one of FILES files, with a side branch merged back every
+    SIDE_EVERY commits if that is not 0."""
+    with open(path, "w") as out:
+        def data(text):
+            out.write("data {}\n{}\n".format(len(text.encode()), text))
+        for i in range(commits):
+            out.write("commit refs/heads/{}\nmark :{}\n".format(branch, i + 1))
+            data("commit {}".format(i))
+            if i == 0:
+                for f in range(files):
+                    out.write("M 100644 inline d{}/f{}.txt\n".format(f % 10, f))
+                    data("file {} version 0\n".format(f))
+            else:
+                f = i % files
+                out.write("M 100644 inline d{}/f{}.txt\n".format(f % 10, f))
+                data("file {} version {}\n".format(f, i))
+            if side_every and i % side_every == side_every // 2:
+                out.write("commit refs/heads/side\n")
+                data("side {}".format(i))
+                out.write("from :{}\n".format(i + 1))
+                out.write("M 100644 inline side.txt\n")
+                data("side {}\n".format(i))
+            if side_every and i % side_every == side_every - 1 and i >= side_every:
+                out.write("commit refs/heads/{}\n".format(branch))
+                data("merge {}".format(i))
+                out.write("from :{}\nmerge side\n".format(i + 1))
+                out.write("M 100644 inline side.txt\n")
+                data("side {}\n".format(i))
+        out.write("done\n")
+
+def history(s, scale):
+    """A large import, then the commands that read the whole history."""
+    commits = 1000 * scale
+    stream = join(s.dir, "..", "history.stream")
+    fast_import_stream(stream, commits, 200, "import", side_every=50)
+    s.setup("init")
+    s.measure("fast-import", "fast-import", stdin=stream)
+    s.measure("checkout branch", "checkout", "import")
+    s.measure("log", "log")
+    s.measure("global-log", "global-log")
+    s.measure("find", "find", "commit {}".format(commits // 2))
+    s.measure("status", "status")
+    log = s.setup("log")
+    # The messages start with "commit" too, so only headers with an id.
+    old = re.findall(r"^commit ([0-9a-f]{40})$", log, re.M)[commits // 2]
+    s.measure("checkout short id", "checkout", old[:8], "--", "side.txt")
+    s.measure("merge-base", "merge-base", "--all", "import", "side")
+    s.measure("fast-export", "fast-export")
+
+def branches(s, scale):
+    """Many branches, created through fast-import."""
+    count = 500 * scale
+    s.setup("init")
+    s.write("f.txt", "f\n")
+    s.setup("add", "f.txt")
+    s.setup("commit", "one file")
+    stream = join(s.dir, "..", "branches.stream")
+    with open(stream, "w") as out:
+        for i in range(count):
+            out.write("reset refs/heads/b{}\nfrom master\n".format(i))
+        out.write("done\n")
+    s.measure("fast-import", "fast-import", stdin=stream)
+    s.measure("branch", "branch", "new")
+    s.measure("status", "status")
+    s.measure("checkout branch", "checkout", "b{}".format(count // 2))
+    s.measure("rm-branch", "rm-branch", "b1")
+    s.measure("pack-refs", "pack-refs")
+    s.measure("status packed", "status")
+    s.measure("checkout packed", "checkout", "master")
+
+def working_files(s, scale):
+    """Many working files, added, changed, committed and switched.  add
+    only takes files at the top of the working directory."""
+    count = 2000 * scale
+    s.setup("init")
+    for i in range(count):
+        s.write("f{}.txt".format(i), "file {}\n".format(i))
+    s.measure("add all", "add", ".")
+    s.measure("commit", "commit", "many files")
+    s.measure("status clean", "status")
+    s.setup("branch", "before")
+    for i in range(0, count, 20):
+        s.write("f{}.txt".format(i), "changed {}\n".format(i))
+    s.measure("status changed", "status")
+    s.measure("add changed", "add", ".")
+    s.measure("commit changed", "commit", "changed files")
+    s.measure("checkout branch", "checkout", "before")
+    s.measure("checkout back", "checkout", "master")
+
+SCENARIOS = {"history": history, "branches": branches, "files": working_files}
+
+# The measurements kept in the baseline, which do not depend on the
+# machine, and those kept in the timings file, which do.
+COUNTS = ("reads", "writes")
+TIMINGS = ("time_ms", "rss_kb")
+
+def regressions(result, base, opts):
+    """Returns the ways RESULT exceeds BASE, which may hold only some of
+    the measurements, under the tolerances OPTS."""
+    found = []
+    if "time_ms" in base and \
+       result["time_ms"] > base["time_ms"] * (1 + opts["time"]) + opts["slack"]:
+        found.append("time")
+    if "rss_kb" in base and \
+       result["rss_kb"] > base["rss_kb"] * (1 + opts["rss"]) + 16 * 1024:
+        found.append("rss")
+    for key in COUNTS:
+        if result[key] is not None and base.get(key) is not None \
+           and result[key] > base[key] * (1 + opts["io"]) + 5:
+            found.append(key)
+    return found
+
+def main():
+    try:
+        opts, args = getopt(sys.argv[1:], '',
+                            ['progdir=', 'baseline=', 'timings=', 'record',
+                             'scale=',
+                             'time-tolerance=', 'time-slack=',
+                             'rss-tolerance=', 'io-tolerance=', 'keep'])
+    except GetoptError:
+        usage()
+    progdir, baseline_file, timings_file, record, scale, keep = \
+        "..", "perf-baseline.json", "perf-timings.json", False, 1, False
+    tolerances = {"time": 0.5, "slack": 150, "rss": 0.25, "io": 0.2}
+    for opt, val in opts:
+        if opt == '--progdir':
+            progdir = val
+        elif opt == '--baseline':
+            baseline_file = val
+        elif opt == '--timings':
+            timings_file = val
+        elif opt == '--record':
+            record = True
+        elif opt == '--scale':
+            scale = int(val)
+        elif opt == '--time-tolerance':
+            tolerances["time"] = float(val)
+        elif opt == '--time-slack':
+            tolerances["slack"] = float(val)
+        elif opt == '--rss-tolerance':
+            tolerances["rss"] = float(val)
+        elif opt == '--io-tolerance':
+            tolerances["io"] = float(val)
+        elif opt == '--keep':
+            keep = True
+    for name in args:
+        if name not in SCENARIOS:
+            usage()
+    names = args or list(SCENARIOS)
+
+    stored = {}
+    for kind, name in ("baseline", baseline_file), ("timings", timings_file):
+        stored[kind] = {}
+        if exists(name):
+            with open(name) as f:
+                stored[kind] = json.load(f)
+        if record:
+            continue
+        elif not stored[kind]:
+            print("No {} at {}; not comparing {}.  Run with --record to "
+                  "store them.".format(kind, name, "file counts"
+                                       if kind == "baseline" else "times"),
+                  file=sys.stderr)
+        elif stored[kind].get("scale") != scale:
+            print("{} was recorded at scale {}; this run is at scale {}; "
+                  "not comparing it.".format(name, stored[kind].get("scale"),
+                                             scale), file=sys.stderr)
+            stored[kind] = {}
+
+    gitlet = ["java", "-cp", abspath(progdir), "gitlet.Main"]
+    scratch = mkdtemp(prefix="gitlet-perf-")
+    results = []
+    try:
+        for name in names:
+            s = Scenario(name, gitlet, scratch)
+            if not s.watcher.available():
+                print("inotify is not available; files are not counted.",
+                      file=sys.stderr)
+            SCENARIOS[name](s, scale)
+            results += s.results
+    finally:
+        if keep:
+            print("Scratch repositories kept in {}".format(scratch))
+        else:
+            rmtree(scratch)
+
+    failed = 0
+    print("{:<30} {:>9} {:>8} {:>7} {:>7}  {}".format(
+        "command", "time (ms)", "RSS (MB)", "reads", "writes", "result"))
+    for label, result in results:
+        base = {}
+        for kind in stored:
+            base.update(stored[kind].get("commands", {}).get(label, {}))
+        if record:
+            verdict = "recorded"
+        elif not base:
+            verdict = "new"
+        else:
+            found = regressions(result, base, tolerances)
+            verdict = "REGRESSED " + ", ".join(found) if found else "ok"
+            failed += bool(found)
+        print("{:<30} {:>9.1f} {:>8.1f} {:>7} {:>7}  {}".format(
+            label, result["time_ms"], result["rss_kb"] / 1024,
+            "-" if result["reads"] is None else result["reads"],
+            "-" if result["writes"] is None else result["writes"], verdict))
+    if record:
+        for kind, name, keys in (("baseline", baseline_file, COUNTS),
+                                 ("timings", timings_file, TIMINGS)):
+            commands = stored[kind].get("commands", {}) \
+                if stored[kind].get("scale") == scale else {}
+            for label, result in results:
+                commands[label] = {key: result[key] for key in keys}
+            with open(name, "w") as f:
+                json.dump({"scale": scale, "commands": commands}, f, indent=1,
+                          sort_keys=True)
+                f.write("\n")
+            print("Recorded {} commands in {}.".format(len(results), name))
+    elif failed:
+        print("{} of {} commands regressed.".format(failed, len(results)))
+        sys.exit(1)
+
+if __name__ == "__main__":
+    main()
@@ -0,0 +1,178 @@
+import os, random, sys
+from subprocess import run, PIPE, STDOUT
+from getopt import getopt, GetoptError
+from os.path import abspath, exists, join
+from shutil import rmtree
+from tempfile import mkdtemp
+
+USAGE = """\
+Usage: python3 reachability-check.py OPTIONS
+   OPTIONS may include
+       --progdir=DIR   Directory or JAR file containing the gitlet
+                       application (default ..).
+       --commits=N     Number of commits in the first import (default 300).
+       --later=N       Number of commits in the second import, made after
+                       the bitmaps are stored (default 40).
+       --queries=N     Number of pairs of commits checked after each
+                       import (default 15).
+       --seed=N        Seed of the random history and pairs (default 26).
+       --keep          Keep the scratch repository.
+
+Generates a random history with merges, imports it with fast-import, and
+checks the ancestry answers merge gets from the reachability bitmaps
+against the brute-force answer: for random pairs A and B, with a branch
+at A merging one at B, "merge" must fast-forward iff A is B or an
+ancestor of it, and must otherwise report the given branch an ancestor
+iff B is one of A.  The
+second import adds commits the stored bitmaps do not cover, so those
+answers come from bitmaps computed during the command.  Exits with
+status 1 if any answer differs.
+"""
+
+FAST_FORWARD = "Current branch fast-forwarded."
+ANCESTOR = "Given branch is an ancestor of the current branch."
+
+def usage():
+    print(USAGE, file=sys.stderr)
+    sys.exit(1)
+
+def generate(parents, commits, rng):
+    """Adds COMMITS commits to the parents PARENTS of the commits so far,
+    by index; a quarter of them are merges."""
+    for _ in range(commits):
+        i = len(parents)
+        if i == 0:
+            parents.append([])
+            continue
+        p = [max(0, i - 1 - int(rng.expovariate(0.5)))]
+        if rng.random() < 0.25:
+            other = rng.randrange(i)
+            if other != p[0]:
+                p.append(other)
+        parents.append(p)
+
+def write_stream(path, parents, start, ids):
+    """Writes a fast-import stream of the commits of PARENTS from START on
+    to PATH.  Earlier commits are named by their ids IDS."""
+    def ref(i):
+        return ":{}".format(i + 1) if i >= start else ids[i]
+    with open(path, "w") as out:
+        def data(text):
+            out.write("data {}\n{}\n".format(len(text.encode()), text))
+        for i in range(start, len(parents)):
+            p = parents[i]
+            out.write("commit refs/heads/generated\nmark :{}\n".format(i + 1))
+            data("c{}".format(i))
+            if p:
+                out.write("from {}\n".format(ref(p[0])))
+            if len(p) > 1:
+                out.write("merge {}\n".format(ref(p[1])))
+            out.write("M 100644 inline f{}.txt\n".format(i % 5))
+            data("version {}\n".format(i))
+        out.write("done\n")
+
+def main():
+    try:
+        opts, args = getopt(sys.argv[1:], '',
+                            ['progdir=', 'commits=', 'later=', 'queries=',
+                             'seed=', 'keep'])
+    except GetoptError:
+        usage()
+    progdir, commits, later, queries, seed, keep = \
+        "..", 300, 40, 15, 26, False
+    for opt, val in opts:
+        if opt == '--progdir':
+            progdir = val
+        elif opt == '--commits':
+            commits = int(val)
+        elif opt == '--later':
+            later = int(val)
+        elif opt == '--queries':
+            queries = int(val)
+        elif opt == '--seed':
+            seed = int(val)
+        elif opt == '--keep':
+            keep = True
+    if args:
+        usage()
+
+    rng = random.Random(seed)
+    gitlet = ["java", "-cp", abspath(progdir), "gitlet.Main"]
+    scratch = mkdtemp(prefix="gitlet-reach-")
+    repo = join(scratch, "repo")
+    os.mkdir(repo)
+    failures = checked = 0
+    try:
+        def g(*args, **kw):
+            return run(gitlet + list(args), cwd=repo, stdout=PIPE,
+                       stderr=STDOUT, universal_newlines=True, **kw).stdout
+
+        parents, ids = [], {}
+        g("init")
+        for part, size in ("first", commits), ("later", later):
+            start = len(parents)
+            generate(parents, size, rng)
+            stream = join(scratch, "{}.stream".format(part))
+            write_stream(stream, parents, start, ids)
+            with open(stream) as f:
+                g("fast-import", stdin=f)
+            commit_id = None
+            for line in g("global-log").splitlines():
+                if line.startswith("commit "):
+                    commit_id = line.split()[1]
+                elif line.startswith("c") and line[1:].isdigit():
+                    ids[int(line[1:])] = commit_id
+            if part == "first":
+                g("checkout", "generated")
+                g("branch", "probe")
+                g("checkout", "probe")
+                g("merge", "generated")
+                check_stored = exists(join(repo, ".gitlet", "bitmaps"))
+                print("{} commits imported, bitmaps {}".format(
+                    len(ids), "stored" if check_stored else "NOT STORED"))
+                if not check_stored:
+                    failures += 1
+
+            ancestors = []
+            for i, p in enumerate(parents):
+                bits = 1 << i
+                for q in p:
+                    bits |= ancestors[q]
+                ancestors.append(bits)
+            pairs = [(rng.randrange(len(parents)), rng.randrange(len(parents)))
+                     for _ in range(queries)]
+            # Pairs with a commit of this import on either side, one each
+            # way along an edge, and a commit with itself.
+            last = len(parents) - 1
+            pairs += [(rng.randrange(start, len(parents)), rng.randrange(last)),
+                      (parents[last][0], last), (last, parents[last][0]),
+                      (last, last)]
+            for a, b in pairs:
+                g("checkout", "probe")
+                g("reset", ids[b])
+                g("rm-branch", "other")
+                g("branch", "other")
+                g("reset", ids[a])
+                first = (g("merge", "other").splitlines() or [""])[0]
+                # A commit merging itself counts as a fast-forward, as
+                # it always has.
+                fast_forward = ancestors[b] >> a & 1
+                given_ancestor = ancestors[a] >> b & 1
+                expected = (FAST_FORWARD if fast_forward else
+                            ANCESTOR if given_ancestor else None)
+                actual = first if first in (FAST_FORWARD, ANCESTOR) else None
+                checked += 1
+                if actual != expected:
+                    failures += 1
+                    print("FAIL: {} import: c{} merging c{}: got {!r}, expected {!r}"
+                          .format(part, a, b, actual, expected))
+    finally:
+        if not keep:
+            rmtree(scratch, ignore_errors=True)
+
+    print("{} of {} pairs differ.".format(failures, checked) if failures
+          else "All {} pairs agree.".format(checked))
+    sys.exit(1 if failures else 0)
+
+if __name__ == "__main__":
+    main()
@@ -0,0 +1,103 @@
+import os, sys
+from subprocess import run, PIPE, STDOUT
+from getopt import getopt, GetoptError
+from os.path import abspath, join
+from shutil import rmtree
+from tempfile import mkdtemp
+
+USAGE = """\
+Usage: python3 stage-journal-test.py OPTIONS
+   OPTIONS may include
+       --progdir=DIR   Directory or JAR file containing the gitlet
+                       application (default ..).
+       --keep          Keep the scratch repository.
+
+Damages the staging journal of a scratch repository the ways a crash or a
+bad disk would, and checks how gitlet replays it: a record cut short is
+ignored, and cut off before the next record is appended so that records
+appended after it are read, and a record with an unknown operation is
+reported as corruption.  Exits with status 1 if any check fails.
+"""
+
+def usage():
+    print(USAGE, file=sys.stderr)
+    sys.exit(1)
+
+failures = 0
+
+def check(what, ok):
+    global failures
+    print("{}: {}".format("ok  " if ok else "FAIL", what))
+    if not ok:
+        failures += 1
+
+def record(op, name, sha1):
+    """Returns the journal record for operation OP on NAME with SHA1, as
+    StageJournal writes it."""
+    utf = lambda s: len(s.encode()).to_bytes(2, "big") + s.encode()
+    return op.encode() + utf(name) + utf(sha1)
+
+def staged(status):
+    """Returns the files listed under "Staged Files" in STATUS."""
+    section = status.split("=== Staged Files ===\n", 1)[1]
+    return section.split("\n\n", 1)[0].split()
+
+def main():
+    try:
+        opts, args = getopt(sys.argv[1:], '', ['progdir=', 'keep'])
+    except GetoptError:
+        usage()
+    progdir, keep = "..", False
+    for opt, val in opts:
+        if opt == '--progdir':
+            progdir = val
+        elif opt == '--keep':
+            keep = True
+    if args:
+        usage()
+
+    gitlet = ["java", "-cp", abspath(progdir), "gitlet.Main"]
+    scratch = mkdtemp(prefix="gitlet-journal-")
+    journal = join(scratch, ".gitlet", "staging", "stageJournal")
+    try:
+        g = lambda *args: run(gitlet + list(args), cwd=scratch, stdout=PIPE,
+                              stderr=STDOUT, universal_newlines=True,
+                              check=True).stdout
+        g("init")
+        for name in "a.txt", "b.txt", "c.txt":
+            with open(join(scratch, name), "w") as f:
+                f.write(name + "\n")
+        g("add", "a.txt")
+        size_a = os.path.getsize(journal)
+        g("add", "b.txt")
+        size_ab = os.path.getsize(journal)
+        check("each add appends one record",
+              size_a > 0 and size_ab == 2 * size_a)
+
+        # A crash while the second record was being written.
+        os.truncate(journal, size_a + 5)
+        status = g("status")
+        check("a torn record is ignored", staged(status) == ["a.txt"])
+        check("status, which only reads, leaves the journal as it is",
+              os.path.getsize(journal) == size_a + 5)
+
+        g("add", "c.txt")
+        check("records appended after a torn one are read",
+              staged(g("status")) == ["a.txt", "c.txt"])
+        check("the torn record was cut off",
+              os.path.getsize(journal) == 2 * size_a)
+
+        with open(journal, "ab") as f:
+            f.write(record("X", "d.txt", "0" * 40))
+        check("an unknown operation is reported",
+              g("status").strip()
+              == "Corrupt staging journal: unknown operation 88.")
+    finally:
+        if not keep:
+            rmtree(scratch, ignore_errors=True)
+
+    print("{} failed.".format(failures) if failures else "All checks passed.")
+    sys.exit(1 if failures else 0)
+
+if __name__ == "__main__":
+    main()
@@ -0,0 +1,103 @@
+import sys, os, statistics, time
+from subprocess import run, DEVNULL
+from getopt import getopt, GetoptError
+from os.path import abspath, exists
+from shutil import rmtree
+from tempfile import mkdtemp
+
+USAGE = """\
+Usage: python3 startup-bench.py OPTIONS
+   OPTIONS may include
+       --jar=JAR        The gitlet jar (default ../gitlet.jar).
+       --archive=JSA    The class data sharing archive built by "make cds"
+                        (default ../gitlet.jsa).
+       --runs=N         Number of warm runs of each command (default 10).
+       --commits=N      Number of commits in the scratch repository
+                        (default 50).
+
+Reports the wall-clock time of "status" and "log" in a scratch repository,
+run from JAR with and without JSA.  The cold time is that of the first run
+of each configuration, after dropping the file system cache if this process
+may; the warm time is the median of the runs that follow.
+"""
+
+def usage():
+    print(USAGE, file=sys.stderr)
+    sys.exit(1)
+
+def drop_caches():
+    """Drops the page cache if allowed, and returns true iff it did."""
+    try:
+        os.sync()
+        with open("/proc/sys/vm/drop_caches", "w") as f:
+            f.write("3\n")
+        return True
+    except OSError:
+        return False
+
+def timed(cmd, cwd):
+    start = time.perf_counter()
+    run(cmd, cwd=cwd, stdout=DEVNULL, stderr=DEVNULL, check=True)
+    return time.perf_counter() - start
+
+def main():
+    try:
+        opts, args = getopt(sys.argv[1:], '',
+                            ['jar=', 'archive=', 'runs=', 'commits='])
+    except GetoptError:
+        usage()
+    jar, archive, runs, commits = "../gitlet.jar", "../gitlet.jsa", 10, 50
+    for opt, val in opts:
+        if opt == '--jar':
+            jar = val
+        elif opt == '--archive':
+            archive = val
+        elif opt == '--runs':
+            runs = int(val)
+        elif opt == '--commits':
+            commits = int(val)
+    if args:
+        usage()
+    jar, archive = abspath(jar), abspath(archive)
+    if not exists(jar):
+        print("No jar at {}; run 'make jar'.".format(jar), file=sys.stderr)
+        sys.exit(1)
+
+    configs = [("default CDS", ["java", "-cp", jar, "gitlet.Main"])]
+    if exists(archive):
+        configs.append(("AppCDS", ["java", "-XX:SharedArchiveFile=" + archive,
+                                   "-Xshare:on", "-cp", jar, "gitlet.Main"]))
+    else:
+        print("No archive at {}; run 'make cds' to compare.".format(archive),
+              file=sys.stderr)
+
+    repo = mkdtemp(prefix="gitlet-bench-")
+    try:
+        gitlet = configs[0][1]
+        run(gitlet + ["init"], cwd=repo, stdout=DEVNULL, check=True)
+        for i in range(commits):
+            with open(os.path.join(repo, "f{}.txt".format(i % 10)), "w") as f:
+                f.write("version {}\n".format(i))
+            run(gitlet + ["add", "f{}.txt".format(i % 10)], cwd=repo,
+                stdout=DEVNULL, check=True)
+            run(gitlet + ["commit", "commit {}".format(i)], cwd=repo,
+                stdout=DEVNULL, check=True)
+
+        dropped = True
+        print("{:<8} {:<12} {:>10} {:>10}".format("command", "config",
+                                                 "cold (ms)", "warm (ms)"))
+        for command in ["status", "log"]:
+            for name, cmd in configs:
+                dropped = drop_caches() and dropped
+                cold = timed(cmd + [command], repo)
+                warm = statistics.median(timed(cmd + [command], repo)
+                                         for _ in range(runs))
+                print("{:<8} {:<12} {:>10.1f} {:>10.1f}".format(
+                    command, name, cold * 1000, warm * 1000))
+        if not dropped:
+            print("(file system cache not dropped: cold times are first runs)")
+    finally:
+        rmtree(repo)
+
+if __name__ == "__main__":
+    main()